@@ -0,0 +1,70 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.agent;
+
+/**
+ * <p>An <code>Agent</code> is a unit of work (usually a consumer polling one or more CoralQueue data structures) that is executed in a duty cycle
+ * by an {@link AgentRunner}. Instead of having its own thread with its own loop, the agent is polled by the runner thread through {@link #doWork()},
+ * so you can host many agents in a single thread with a {@link CompositeAgent}.</p>
+ *
+ * <p>All methods are called by the runner thread.</p>
+ */
+public interface Agent {
+	
+	/**
+	 * Do some work, for example fetch everything that is available from a queue, and return how much work was done. When it returns zero the
+	 * runner thread considers the agent idle and calls the <code>await()</code> method of its wait strategy.
+	 * 
+	 * @return the amount of work done (e.g. the number of messages fetched) or zero if there was nothing to do
+	 */
+	public int doWork();
+	
+	/**
+	 * Called by the runner thread when it starts, before calling {@link #doWork()} for the first time. If this method throws an exception the runner
+	 * calls {@link #onClose()} and exits.
+	 */
+	default public void onStart() {
+		
+	}
+	
+	/**
+	 * Called by the runner thread when it is about to exit, after calling {@link #doWork()} for the last time.
+	 */
+	default public void onClose() {
+		
+	}
+	
+	/**
+	 * Called by the runner thread when {@link #doWork()} throws an exception. The runner keeps running unless this method throws the exception back.
+	 * By default the exception is passed to the <code>UncaughtExceptionHandler</code> of the runner thread, which you can set through
+	 * <code>runner.getThread().setUncaughtExceptionHandler(handler)</code>.
+	 * 
+	 * @param t the exception thrown by {@link #doWork()}
+	 */
+	default public void onError(Throwable t) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+	}
+	
+	/**
+	 * The name of this agent, used to name the runner thread.
+	 * 
+	 * @return the name of this agent
+	 */
+	default public String getName() {
+		return getClass().getSimpleName();
+	}
+}
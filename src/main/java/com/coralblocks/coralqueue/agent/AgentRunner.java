@@ -0,0 +1,159 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.agent;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.coralblocks.coralqueue.waitstrategy.WaitStrategy;
+
+/**
+ * <p>A thread that runs an {@link Agent} in a duty cycle: it calls {@link Agent#doWork()} in a loop and, when the agent is idle (i.e. returns zero),
+ * it calls the <code>await()</code> method of its {@link WaitStrategy}. As soon as the agent does some work again it calls the <code>reset()</code> method of the wait strategy.</p>
+ *
+ * <p>With a {@link CompositeAgent} you can host many low-traffic consumers in a single thread (which you can pin to a CPU core) instead of having one spinning thread per consumer.</p>
+ */
+public class AgentRunner {
+	
+	private final Agent agent;
+	private final WaitStrategy waitStrategy;
+	private final Thread thread;
+	private volatile boolean isRunning = true;
+	
+	/**
+	 * Creates a new <code>AgentRunner</code>.
+	 * 
+	 * @param agent the agent to run
+	 * @param waitStrategy the wait strategy to use when the agent is idle or null to busy spin
+	 */
+	public AgentRunner(Agent agent, WaitStrategy waitStrategy) {
+		this.agent = agent;
+		this.waitStrategy = waitStrategy;
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				AgentRunner.this.run();
+			}
+		}, AgentRunner.class.getSimpleName() + "-" + agent.getName());
+	}
+	
+	/**
+	 * Creates a new <code>AgentRunner</code> that busy spins when the agent is idle.
+	 * 
+	 * @param agent the agent to run
+	 */
+	public AgentRunner(Agent agent) {
+		this(agent, null);
+	}
+	
+	/**
+	 * Return the agent being run.
+	 * 
+	 * @return the agent
+	 */
+	public final Agent getAgent() {
+		return agent;
+	}
+	
+	/**
+	 * Return the runner thread.
+	 * 
+	 * @return the runner thread
+	 */
+	public final Thread getThread() {
+		return thread;
+	}
+	
+	/**
+	 * Start the runner thread.
+	 * 
+	 * @param daemon true to make the runner thread a daemon thread
+	 */
+	public void start(boolean daemon) {
+		thread.setDaemon(daemon);
+		thread.start();
+	}
+	
+	/**
+	 * Start the runner thread as a non-daemon thread.
+	 */
+	public void start() {
+		start(false);
+	}
+	
+	/**
+	 * Make the runner thread stop, call {@link Agent#onClose()} and exit. A runner thread that is parked by its wait strategy is woken up.
+	 */
+	public void close() {
+		isRunning = false;
+		LockSupport.unpark(thread);
+	}
+	
+	/**
+	 * Wait for the runner thread to die.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+	
+	/**
+	 * Return true if the runner was not closed yet and its thread did not exit because of an exception thrown by {@link Agent#onStart()}.
+	 * 
+	 * @return true if running
+	 */
+	public final boolean isRunning() {
+		return isRunning;
+	}
+	
+	private void run() {
+		
+		try {
+			
+			agent.onStart();
+			
+			boolean hasWaited = false;
+			
+			while(isRunning) {
+				
+				int work;
+				
+				try {
+					work = agent.doWork();
+				} catch(Throwable t) {
+					agent.onError(t);
+					work = 0;
+				}
+				
+				if (waitStrategy == null) continue; // busy spin
+				
+				if (work > 0) {
+					if (hasWaited) {
+						waitStrategy.reset();
+						hasWaited = false;
+					}
+				} else {
+					waitStrategy.await();
+					hasWaited = true;
+				}
+			}
+			
+		} finally {
+			isRunning = false;
+			agent.onClose();
+		}
+	}
+}
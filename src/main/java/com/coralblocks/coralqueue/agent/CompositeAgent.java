@@ -0,0 +1,99 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.agent;
+
+/**
+ * <p>An {@link Agent} that combines other agents so that they can share the same {@link AgentRunner} thread. Each call to {@link #doWork()} calls
+ * the <code>doWork()</code> method of all its agents, round-robin, starting from a different agent each time so no agent is always served first.</p>
+ *
+ * <p>An exception thrown by one agent is passed to the <code>onError(Throwable)</code> method of that agent and does not prevent the others from working.
+ * The only exception is <code>onStart()</code>: if an agent fails to start, the agents already started are closed and the exception is thrown back to the runner.</p>
+ */
+public class CompositeAgent implements Agent {
+	
+	private final Agent[] agents;
+	private final String name;
+	private int startIndex = 0;
+	private int started = 0; // how many agents were started, so that we only close these ones
+	
+	public CompositeAgent(String name, Agent ... agents) {
+		if (agents.length == 0) {
+			throw new IllegalArgumentException("A composite agent needs at least one agent!");
+		}
+		this.name = name;
+		this.agents = agents;
+	}
+	
+	public CompositeAgent(Agent ... agents) {
+		this(CompositeAgent.class.getSimpleName(), agents);
+	}
+	
+	/**
+	 * Return the number of agents in this composite agent.
+	 * 
+	 * @return the number of agents
+	 */
+	public final int getNumberOfAgents() {
+		return agents.length;
+	}
+	
+	@Override
+	public int doWork() {
+		int work = 0;
+		int index = startIndex;
+		for(int i = 0; i < agents.length; i++) {
+			Agent agent = agents[index];
+			try {
+				work += agent.doWork();
+			} catch(Throwable t) {
+				agent.onError(t);
+			}
+			if (++index == agents.length) index = 0;
+		}
+		if (++startIndex == agents.length) startIndex = 0;
+		return work;
+	}
+	
+	@Override
+	public void onStart() {
+		try {
+			while(started < agents.length) {
+				agents[started].onStart();
+				started++;
+			}
+		} catch(Throwable t) {
+			onClose(); // the ones already started, in reverse order
+			throw t;
+		}
+	}
+	
+	@Override
+	public void onClose() {
+		while(started > 0) {
+			Agent agent = agents[--started];
+			try {
+				agent.onClose();
+			} catch(Throwable t) {
+				agent.onError(t);
+			}
+		}
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+}
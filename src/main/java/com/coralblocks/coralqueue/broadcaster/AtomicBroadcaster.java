@@ -15,28 +15,79 @@
  */
 package com.coralblocks.coralqueue.broadcaster;
 
+import java.util.Arrays;
+
 import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.Doorbell;
 import com.coralblocks.coralqueue.util.MathUtils;
 import com.coralblocks.coralqueue.util.PaddedAtomicLong;
 
 /**
  * An implementation of a {@link Broadcaster} that uses <i>memory barriers</i> to synchronize producer and consumers sequences.
  * All messages are delivered to all consumers in the exact same order that they are sent by the producer.
+ * 
+ * <p>Consumers can also be organized in <i>groups</i>. Each message is delivered to every group, but only to one consumer inside a group.
+ * The consumers of a group compete for the messages by claiming, through a CAS operation on a sequence shared by the group, a batch of what is available to fetch.
+ * By default each claim takes what is available divided by the number of consumers in the group, so a backlog is spread over the group, but you can set a fixed batch size
+ * with {@link #setClaimBatchSize(int, int)}. A consumer that does not fetch all the messages it has claimed will get the remaining ones on its next <code>availableToFetch()</code>.
+ * A group with a single consumer behaves exactly like a regular consumer.</p>
+ * 
+ * <p>When the producer is about to wrap, it has to find the position of the slowest consumer. It keeps the last sequence it saw for each consumer and
+ * only reads again the sequences of the consumers that could be in its way, in other words, the laggards. Consumers that were already far enough ahead are not read.</p>
+ * 
+ * <p>You can pass an {@link EvictionPolicy} to the constructor so that the producer <i>evicts</i> a consumer that is too far behind or that blocks it for too long,
+ * instead of waiting for it forever. An evicted consumer finds nothing to fetch and should check {@link #isEvicted(int)} after each batch, because the messages of the
+ * batch it was fetching could have been overwritten. It can come back with {@link #rejoin(int)}, at the head of the broadcaster.</p>
+ * 
+ * <p>Consumers can also join and leave a running broadcaster with {@link #addConsumer(JoinPosition)} and {@link #removeConsumer(int)}, for example to attach a monitoring
+ * or recording tap to a live feed. The cursors are kept in a copy-on-write array, so the producer and the other consumers never wait for a consumer joining or leaving,
+ * they only see the new array the next time they read it. Adding and removing consumers produces garbage and should be rare.</p>
+ * 
+ * <p>A consumer can also depend on other consumers, so that it only fetches the messages they are done with. That lets you build a pipeline (or a diamond)
+ * of stages over a single ring, without copying the messages from one queue to the next. For example, with <code>after(decoder).then(risk, audit).then(executor)</code>
+ * the risk and audit consumers see a message only after the decoder is done with it, and the executor only after both of them are done with it.
+ * A stage can change the message for the stages after it.</p>
+ * 
+ * <p>Consumers that only care about some messages can subscribe to them with {@link #setSubscription(int, long)}. The producer tags each message with a bitmask
+ * through {@link #nextToDispatch(long)} and the tags are kept in a separate array of longs, so a consumer with a subscription finds its messages by going over the tags,
+ * without touching the messages it does not want.</p>
  *
  * @param <E> The data transfer mutable object to be used by this broadcaster
  */
 public class AtomicBroadcaster<E> implements Broadcaster<E> {
 
 	public static final int DEFAULT_CAPACITY = 1024;
+	
+	/**
+	 * The tag of a message sent without a tag, and the subscription of a consumer that wants all the messages.
+	 */
+	public static final long ALL_TAGS = -1L;
 
 	private final int capacity;
 	private final int capacityMinusOne;
 	private final E[] data;
+	private final long[] tags;
+	private boolean tagged = false; // whether the producer has sent a tagged message, so it has to reset the tags of the messages it sends without one
 	private long lastOfferedSeq = 0;
 	private long maxSeqBeforeWrapping;
 	private final PaddedAtomicLong offerSequence = new PaddedAtomicLong(0);
-	private final Cursor[] cursors;
-	private final Consumer<E>[] consumers;
+	private volatile Cursor[] cursors; // copied on write, with a null for each removed consumer
+	private Cursor[] gatingCursors; // the cursors the producer is gating on
+	private long[] gatingSequences; // the last fetch sequence the producer saw for each cursor
+	private final PaddedAtomicLong[] claimSequences;
+	private volatile int numberOfGroups;
+	private Doorbell[] doorbells = null;
+	private int doorbellLane;
+	
+	private static final long NOT_BLOCKED = Long.MIN_VALUE;
+	
+	private final boolean evictionEnabled;
+	private final long maxLag;
+	private final long maxBlockedNanos;
+	private final long gatingWindow; // the producer checks its consumers when it gets this far ahead of the slowest one
+	private long[] blockedSince;
+	private final PaddedAtomicLong rejoinVersion = new PaddedAtomicLong(0);
+	private long seenRejoinVersion = 0;
 
 	/**
 	 * Creates an <code>AtomicBroadcaster</code> with the given capacity and number of consumers using the given {@link Builder} to populate it.
@@ -45,8 +96,56 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 	 * @param builder the {@link Builder} used to populate the <code>AtomicBroadcaster</code>
 	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicBroadcaster</code>
 	 */
-	@SuppressWarnings("unchecked")
 	public AtomicBroadcaster(int capacity, Builder<E> builder, int numberOfConsumers) {
+		this(capacity, builder, ungrouped(numberOfConsumers));
+	}
+	
+	/**
+	 * Creates an <code>AtomicBroadcaster</code> with the given capacity and groups of consumers using the given {@link Builder} to populate it.
+	 * Consumers are numbered in group order, so the first <code>consumersPerGroup[0]</code> consumers belong to group 0, the next <code>consumersPerGroup[1]</code> consumers belong to group 1 and so on.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicBroadcaster</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicBroadcaster</code>
+	 * @param consumersPerGroup the number of consumers in each group
+	 */
+	public AtomicBroadcaster(int capacity, Builder<E> builder, int[] consumersPerGroup) {
+		this(capacity, builder, consumersPerGroup, EvictionPolicy.none());
+	}
+	
+	/**
+	 * Creates an <code>AtomicBroadcaster</code> with the given capacity, number of consumers and eviction policy using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicBroadcaster</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicBroadcaster</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicBroadcaster</code>
+	 * @param evictionPolicy the {@link EvictionPolicy} used by the producer to give up on slow consumers
+	 */
+	public AtomicBroadcaster(int capacity, Builder<E> builder, int numberOfConsumers, EvictionPolicy evictionPolicy) {
+		this(capacity, builder, ungrouped(numberOfConsumers), evictionPolicy);
+	}
+	
+	/**
+	 * Creates an <code>AtomicBroadcaster</code> with the given capacity, number of consumers and eviction policy using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicBroadcaster</code>
+	 * @param klass the class used to populate the <code>AtomicBroadcaster</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicBroadcaster</code>
+	 * @param evictionPolicy the {@link EvictionPolicy} used by the producer to give up on slow consumers
+	 */
+	public AtomicBroadcaster(int capacity, Class<E> klass, int numberOfConsumers, EvictionPolicy evictionPolicy) {
+		this(capacity, Builder.createBuilder(klass), numberOfConsumers, evictionPolicy);
+	}
+	
+	/**
+	 * Creates an <code>AtomicBroadcaster</code> with the given capacity, groups of consumers and eviction policy using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicBroadcaster</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicBroadcaster</code>
+	 * @param consumersPerGroup the number of consumers in each group
+	 * @param evictionPolicy the {@link EvictionPolicy} used by the producer to give up on slow consumers
+	 */
+	@SuppressWarnings("unchecked")
+	public AtomicBroadcaster(int capacity, Builder<E> builder, int[] consumersPerGroup, EvictionPolicy evictionPolicy) {
 		MathUtils.ensurePowerOfTwo(capacity);
 		this.capacity = capacity;
 		this.capacityMinusOne = capacity - 1;
@@ -54,15 +153,35 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 		for (int i = 0; i < capacity; i++) {
 			this.data[i] = builder.newInstance();
 		}
+		this.tags = new long[capacity];
+		Arrays.fill(tags, ALL_TAGS);
 
-		this.cursors = new Cursor[numberOfConsumers];
-		this.consumers = (Consumer<E>[]) new Consumer[numberOfConsumers];
+		int numberOfConsumers = 0;
+		for(int i = 0; i < consumersPerGroup.length; i++) {
+			if (consumersPerGroup[i] <= 0) throw new IllegalArgumentException("A group must have at least one consumer: " + consumersPerGroup[i]);
+			numberOfConsumers += consumersPerGroup[i];
+		}
+
+		this.evictionEnabled = evictionPolicy.isEnabled();
+		this.maxLag = evictionPolicy.getMaxLag();
+		this.maxBlockedNanos = evictionPolicy.getMaxBlockedNanos();
+		this.gatingWindow = maxLag < capacity ? maxLag + 1 : capacity;
+		this.claimSequences = new PaddedAtomicLong[consumersPerGroup.length];
+		this.numberOfGroups = consumersPerGroup.length;
 		
 		// initialize cursors
-		for(int i = 0; i < numberOfConsumers; i++) {
-			cursors[i] = new Cursor();
-			consumers[i] = new Consumer<E>(this, i);
+		Cursor[] cursors = new Cursor[numberOfConsumers];
+		int index = 0;
+		for(int g = 0; g < consumersPerGroup.length; g++) {
+			if (consumersPerGroup[g] > 1) claimSequences[g] = new PaddedAtomicLong(0);
+			for(int i = 0; i < consumersPerGroup[g]; i++) {
+				cursors[index] = new Cursor(claimSequences[g], g, consumersPerGroup[g]);
+				cursors[index].setConsumer(new Consumer<E>(this, cursors[index], index));
+				index++;
+			}
 		}
+		this.cursors = cursors;
+		setGatingCursors(cursors);
 		
 		this.maxSeqBeforeWrapping = calcMaxSeqBeforeWrapping();
 	}
@@ -98,39 +217,232 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 		this(capacity, Builder.createBuilder(klass), numberOfConsumers);
 	}
 	
+	/**
+	 * Creates an <code>AtomicBroadcaster</code> with the given capacity and groups of consumers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicBroadcaster</code>
+	 * @param klass the class used to populate the <code>AtomicBroadcaster</code>
+	 * @param consumersPerGroup the number of consumers in each group
+	 */
+	public AtomicBroadcaster(int capacity, Class<E> klass, int[] consumersPerGroup) {
+		this(capacity, Builder.createBuilder(klass), consumersPerGroup);
+	}
+	
+	private static int[] ungrouped(int numberOfConsumers) {
+		int[] consumersPerGroup = new int[numberOfConsumers];
+		for(int i = 0; i < numberOfConsumers; i++) consumersPerGroup[i] = 1;
+		return consumersPerGroup;
+	}
+	
 	@Override
+	@SuppressWarnings("unchecked")
 	public final Consumer<E> getConsumer(int index) {
-		if (index >= consumers.length) {
+		Cursor[] cursors = this.cursors;
+		if (index < 0 || index >= cursors.length || cursors[index] == null) {
 			throw new RuntimeException("Tried to get a consumer with a bad index: " + index);
 		}
-		return consumers[index];
+		return (Consumer<E>) cursors[index].getConsumer();
 	}
 	
 	@Override
 	public final void clear() {
 		lastOfferedSeq = 0;
+		Arrays.fill(tags, ALL_TAGS);
+		tagged = false;
 		offerSequence.set(lastOfferedSeq);
+		Cursor[] cursors = this.cursors;
 		for(int i = 0; i < cursors.length; i++) {
-			cursors[i].clear();
+			if (cursors[i] != null) cursors[i].clear();
+		}
+		setGatingCursors(cursors);
+		seenRejoinVersion = rejoinVersion.get();
+		for(int i = 0; i < claimSequences.length; i++) {
+			if (claimSequences[i] != null) claimSequences[i].set(0);
 		}
 		maxSeqBeforeWrapping = calcMaxSeqBeforeWrapping();
 	}
 	
+	private final void setGatingCursors(Cursor[] cursors) {
+		// a new array means consumers joined or left, so read everybody again
+		if (gatingCursors == null || gatingCursors.length != cursors.length) {
+			gatingSequences = new long[cursors.length];
+			blockedSince = new long[cursors.length];
+		}
+		for(int i = 0; i < cursors.length; i++) {
+			gatingSequences[i] = Long.MIN_VALUE;
+			blockedSince[i] = NOT_BLOCKED;
+		}
+		gatingCursors = cursors;
+	}
+	
 	private final long minCursosFetchSeq() {
+		while(true) {
+			Cursor[] cursors = this.cursors;
+			if (cursors != gatingCursors) setGatingCursors(cursors);
+			long min = evictionEnabled ? minCursosFetchSeqWithEviction(cursors) : minCursosFetchSeqWithoutEviction(cursors);
+			// a consumer that joined while we were reading may start behind what we saw, and it cannot see our reads, so read everybody again with it
+			if (this.cursors == cursors) return min;
+		}
+	}
+	
+	private final long minCursosFetchSeqWithoutEviction(Cursor[] cursors) {
+		// the sequences only go up, so the ones we saw at or above what we need are still good and do not have to be read again
+		long needed = lastOfferedSeq - capacity;
 		long min = Long.MAX_VALUE;
 		for(int i = 0; i < cursors.length; i++) {
-			min = Math.min(cursors[i].getFetchSequence(), min);
+			long seq = gatingSequences[i];
+			if (seq < needed) {
+				Cursor cursor = cursors[i];
+				gatingSequences[i] = seq = cursor != null ? cursor.getFetchSequence() : Long.MAX_VALUE;
+			}
+			if (seq < min) min = seq;
 		}
 		return min;
 	}
 	
+	private final long minCursosFetchSeqWithEviction(Cursor[] cursors) {
+		long version = rejoinVersion.get();
+		if (version != seenRejoinVersion) {
+			// somebody came back, so read everybody again
+			seenRejoinVersion = version;
+			for(int i = 0; i < cursors.length; i++) gatingSequences[i] = Long.MIN_VALUE;
+		}
+		long needed = lastOfferedSeq - gatingWindow;
+		long min = Long.MAX_VALUE;
+		long now = 0;
+		for(int i = 0; i < cursors.length; i++) {
+			long seq = gatingSequences[i];
+			if (seq < needed) {
+				Cursor cursor = cursors[i];
+				seq = cursor == null || cursor.isEvicted() ? Long.MAX_VALUE : cursor.getFetchSequence();
+				if (seq < needed) {
+					if (lastOfferedSeq - 1 - seq > maxLag) {
+						cursor.evict();
+						seq = Long.MAX_VALUE;
+					} else if (maxBlockedNanos != Long.MAX_VALUE) {
+						if (now == 0) now = System.nanoTime();
+						if (blockedSince[i] == NOT_BLOCKED) {
+							blockedSince[i] = now;
+						} else if (now - blockedSince[i] > maxBlockedNanos) {
+							cursor.evict();
+							seq = Long.MAX_VALUE;
+						}
+					}
+				}
+				gatingSequences[i] = seq;
+			}
+			if (seq >= needed) blockedSince[i] = NOT_BLOCKED;
+			if (seq < min) min = seq;
+		}
+		return min;
+	}
+	
+	/**
+	 * Return the consumer that is the furthest behind the producer, in other words, the one that will hold the producer when the broadcaster is full.
+	 * This method can be called by any thread.
+	 * 
+	 * @return the index of the slowest consumer
+	 */
+	public final int getSlowestConsumer() {
+		Cursor[] cursors = this.cursors;
+		int slowest = 0;
+		long min = Long.MAX_VALUE;
+		for(int i = 0; i < cursors.length; i++) {
+			if (cursors[i] == null || cursors[i].isEvicted()) continue;
+			long seq = cursors[i].getFetchSequence();
+			if (seq < min) {
+				min = seq;
+				slowest = i;
+			}
+		}
+		return slowest;
+	}
+	
+	/**
+	 * Return how many messages the given consumer is behind the producer, counting what it has fetched but not yet acknowledged with <code>doneFetching()</code>.
+	 * An evicted consumer does not hold the producer, so its lag is zero. This method can be called by any thread.
+	 * 
+	 * @param consumer the consumer index
+	 * @return the number of messages the consumer is behind
+	 */
+	public final long getLag(int consumer) {
+		Cursor cursor = getCursor(cursors, consumer);
+		if (cursor.isEvicted()) return 0;
+		return Math.max(0, offerSequence.get() - cursor.getFetchSequence());
+	}
+	
 	@Override
 	public final void disableConsumer(int index) {
-		cursors[index].setFetchSequenceToMax();
+		getCursor(cursors, index).setFetchSequenceToMax();
+	}
+	
+	@Override
+	public final boolean isEvicted(int consumer) {
+		return getCursor(cursors, consumer).isEvicted();
+	}
+	
+	@Override
+	public final boolean rejoin(int consumer) {
+		Cursor cursor = getCursor(cursors, consumer);
+		if (!cursor.isEvicted()) return false;
+		// hold the producer from where we were evicted before it can see us, then move to where it is now
+		cursor.moveTo(offerSequence.get());
+		cursor.rejoined();
+		rejoinVersion.incrementAndGet();
+		cursor.moveTo(offerSequence.get());
+		return true;
+	}
+	
+	@Override
+	public final synchronized Consumer<E> addConsumer(JoinPosition joinPosition) {
+		if (doorbells != null) throw new RuntimeException("Consumers cannot join once the doorbells are set");
+		Cursor[] cursors = this.cursors;
+		int index = 0;
+		while(index < cursors.length && cursors[index] != null) index++; // re-use the slot of a removed consumer
+		Cursor cursor = new Cursor(numberOfGroups);
+		Consumer<E> consumer = new Consumer<E>(this, cursor, index);
+		cursor.setConsumer(consumer);
+		// hold the producer from where we want to start before it can see us, then move to where it is safe to start
+		cursor.moveTo(calcJoinSequence(joinPosition, cursors, -1));
+		Cursor[] newCursors = Arrays.copyOf(cursors, Math.max(cursors.length, index + 1));
+		newCursors[index] = cursor;
+		this.cursors = newCursors;
+		numberOfGroups++;
+		cursor.moveTo(Math.max(cursor.getFetchSequence(), calcJoinSequence(joinPosition, newCursors, index)));
+		return consumer;
+	}
+	
+	private final long calcJoinSequence(JoinPosition joinPosition, Cursor[] cursors, int joining) {
+		long head = offerSequence.get();
+		if (joinPosition == JoinPosition.HEAD) return head;
+		// the producer cannot overwrite anything after the slowest consumer
+		long oldest = Long.MAX_VALUE;
+		for(int i = 0; i < cursors.length; i++) {
+			if (i == joining || cursors[i] == null || cursors[i].isEvicted()) continue;
+			long seq = cursors[i].getFetchSequence();
+			if (seq < oldest) oldest = seq;
+		}
+		if (oldest > head) return head; // nobody is holding the producer
+		return Math.max(oldest, head - gatingWindow);
+	}
+	
+	@Override
+	public final synchronized void removeConsumer(int consumer) {
+		if (doorbells != null) throw new RuntimeException("Consumers cannot leave once the doorbells are set");
+		Cursor[] cursors = this.cursors;
+		if (consumer < 0 || consumer >= cursors.length || cursors[consumer] == null) {
+			throw new RuntimeException("Tried to remove a consumer with a bad index: " + consumer);
+		}
+		cursors[consumer].setFetchSequenceToMax(); // for a producer still looking at the old array
+		Cursor[] newCursors = Arrays.copyOf(cursors, cursors.length);
+		newCursors[consumer] = null;
+		this.cursors = newCursors;
 	}
 	
 	private final long calcMaxSeqBeforeWrapping() {
-		return minCursosFetchSeq() + capacity;
+		long min = minCursosFetchSeq();
+		if (min == Long.MAX_VALUE) min = offerSequence.get(); // nobody is consuming, but keep checking for consumers coming back
+		return min + gatingWindow;
 	}
 	
 	private final int calcIndex(long value) {
@@ -147,7 +459,25 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 				return null;				
 			}
 		}
-		return data[calcIndex(lastOfferedSeq)];
+		int index = calcIndex(lastOfferedSeq);
+		if (tagged) tags[index] = ALL_TAGS;
+		return data[index];
+	}
+	
+	/**
+	 * Same as {@link #nextToDispatch()} but tags the message with the given bitmask, so that only the consumers with a subscription matching
+	 * one of its bits (and the ones without a subscription) will fetch it.
+	 * 
+	 * @param tag the bitmask of the message
+	 * @return the next mutable object that can be used by the producer or null if the broadcaster is full
+	 */
+	public final E nextToDispatch(long tag) {
+		E e = nextToDispatch();
+		if (e != null) {
+			tags[calcIndex(lastOfferedSeq)] = tag;
+			tagged = true;
+		}
+		return e;
 	}
 
 	@Override
@@ -157,6 +487,29 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 		} else {
 			offerSequence.set(lastOfferedSeq);
 		}
+		if (doorbells != null) {
+			for(int i = 0; i < doorbells.length; i++) doorbells[i].ring(doorbellLane, lazySet);
+		}
+	}
+	
+	/**
+	 * Ring the {@link Doorbell} of each consumer, with the given lane, on every flush. This is used when a consumer reads from many broadcasters
+	 * (e.g. in an {@link com.coralblocks.coralqueue.mpmcbroadcaster.AtomicMpMcBroadcaster}) so that it only has to look at the ones that have something new. It must be called before the producer starts.
+	 * After that consumers can no longer be added or removed, since the doorbells are indexed by consumer.
+	 * 
+	 * @param doorbells the doorbells of the consumers, one per consumer
+	 * @param lane the lane of this broadcaster in the doorbells
+	 */
+	public final synchronized void setDoorbells(Doorbell[] doorbells, int lane) {
+		Cursor[] cursors = this.cursors;
+		if (doorbells.length != cursors.length) {
+			throw new IllegalArgumentException("Must have one doorbell per consumer: " + doorbells.length + " != " + cursors.length);
+		}
+		for(int i = 0; i < cursors.length; i++) {
+			if (cursors[i] == null) throw new IllegalArgumentException("Consumer " + i + " was removed and has no doorbell to ring");
+		}
+		this.doorbells = doorbells;
+		this.doorbellLane = lane;
 	}
 	
 	@Override
@@ -166,17 +519,31 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 
 	@Override
 	public final long availableToFetch(int consumer) {
-		return offerSequence.get() - cursors[consumer].getLastFetchedSeq();
+		return availableToFetch(cursors[consumer]);
+	}
+	
+	final long availableToFetch(Cursor cursor) {
+		if (evictionEnabled && cursor.isEvicted()) return 0;
+		long limit = cursor.limit(offerSequence.get());
+		long avail = cursor.isGrouped() ? cursor.claim(limit) : Math.max(0, limit - cursor.getLastFetchedSeq());
+		if (avail == 0 || !cursor.isFiltered()) return avail;
+		return cursor.filter(avail, tags, capacityMinusOne);
 	}
 
 	@Override
 	public final E fetch(int consumer, boolean remove) {
+		return fetch(cursors[consumer], remove);
+	}
+	
+	final E fetch(Cursor cursor, boolean remove) {
+		if (cursor.isFiltered()) {
+			return data[calcIndex(remove ? cursor.nextMatching(tags, capacityMinusOne) : cursor.peekMatching(tags, capacityMinusOne))];
+		}
 		if (remove) {
-			Cursor cursor = cursors[consumer];
 			cursor.incrementFetchCount();
 			return data[calcIndex(cursor.incrementLastFetchedSeq())];
 		} else {
-			return data[calcIndex(cursors[consumer].getLastFetchedSeq() + 1)];
+			return data[calcIndex(cursor.getLastFetchedSeq() + 1)];
 		}
 	}
 	
@@ -187,19 +554,31 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 
 	@Override
 	public final void doneFetching(int consumer, boolean lazySet) {
-		Cursor cursor = cursors[consumer];
-		cursor.updateFetchSequence(lazySet);
+		doneFetching(cursors[consumer], lazySet);
+	}
+	
+	final void doneFetching(Cursor cursor, boolean lazySet) {
+		// with eviction the store cannot be lazy, or the producer could evict us in between without us seeing it
+		cursor.updateFetchSequence(lazySet && !evictionEnabled);
 		cursor.resetFetchCount();
 	}
 	
 	@Override
 	public final void rollBack(int consumer) {
-		rollBack(consumer, cursors[consumer].getFetchCount());
+		Cursor cursor = cursors[consumer];
+		rollBack(consumer, cursor.isFiltered() ? cursor.getMatchCount() : cursor.getFetchCount());
 	}
 	
 	@Override
 	public final void rollBack(int consumer, long count) {
 		Cursor cursor = cursors[consumer];
+		if (cursor.isFiltered()) {
+			if (count < 0 || count > cursor.getMatchCount()) {
+				throw new RuntimeException("Invalid rollback request! fetched=" + cursor.getMatchCount() + " requested=" + count);
+			}
+			cursor.rollBackMatching(count, tags, capacityMinusOne);
+			return;
+		}
 		if (count < 0 || count > cursor.getFetchCount()) {
 			throw new RuntimeException("Invalid rollback request! fetched=" + cursor.getFetchCount() + " requested=" + count);
 		}
@@ -216,4 +595,119 @@ public class AtomicBroadcaster<E> implements Broadcaster<E> {
 	public final int getNumberOfConsumers() {
 		return cursors.length;
 	}
+	
+	/**
+	 * Start a pipeline of consumers. See {@link Stage#then(int...)}. The dependencies must be set up before the consumers start.
+	 * 
+	 * @param consumers the consumers of the first stage
+	 * @return the first stage
+	 */
+	public final Stage after(int ... consumers) {
+		Cursor[] cursors = this.cursors;
+		for(int i = 0; i < consumers.length; i++) getCursor(cursors, consumers[i]);
+		return new Stage(this, consumers);
+	}
+	
+	private static Cursor getCursor(Cursor[] cursors, int consumer) {
+		if (consumer < 0 || consumer >= cursors.length || cursors[consumer] == null) {
+			throw new IllegalArgumentException("Bad consumer index: " + consumer);
+		}
+		return cursors[consumer];
+	}
+	
+	/**
+	 * Make a consumer fetch only the messages that another consumer is done with, in other words, the messages it acknowledged with <code>doneFetching()</code>.
+	 * If the other consumer is part of a group, the consumer depends on the whole group. If the consumer is part of a group, the whole group depends on the other consumer.
+	 * This must be called before the consumers start.
+	 * 
+	 * <p>Note that a dependency that is disabled, removed or evicted no longer holds back the consumers that depend on it.</p>
+	 * 
+	 * @param consumer the consumer index
+	 * @param dependency the index of the consumer it depends on
+	 */
+	public final void addDependency(int consumer, int dependency) {
+		Cursor[] cursors = this.cursors;
+		Cursor cursor = getCursor(cursors, consumer);
+		Cursor dependencyCursor = getCursor(cursors, dependency);
+		if (cursor.getGroup() == dependencyCursor.getGroup()) {
+			throw new IllegalArgumentException("Consumer " + consumer + " cannot depend on its own group");
+		}
+		// a group member only holds the messages it claimed, and all the members claim from the same sequence, so the dependency is between the groups
+		Cursor[] dependents = groupOf(cursors, cursor);
+		Cursor[] dependencies = groupOf(cursors, dependencyCursor);
+		for(int i = 0; i < dependencies.length; i++) {
+			for(int j = 0; j < dependents.length; j++) {
+				if (dependencies[i].dependsOn(dependents[j])) {
+					throw new IllegalArgumentException("Consumer " + dependency + " cannot be a dependency of consumer " + consumer + " because it would create a cycle");
+				}
+			}
+		}
+		for(int j = 0; j < dependents.length; j++) {
+			for(int i = 0; i < dependencies.length; i++) dependents[j].addDependency(dependencies[i]);
+		}
+	}
+	
+	private static Cursor[] groupOf(Cursor[] cursors, Cursor cursor) {
+		if (!cursor.isGrouped()) return new Cursor[] { cursor };
+		int count = 0;
+		for(int i = 0; i < cursors.length; i++) {
+			if (cursors[i] != null && cursors[i].getGroup() == cursor.getGroup()) count++;
+		}
+		Cursor[] group = new Cursor[count];
+		count = 0;
+		for(int i = 0; i < cursors.length; i++) {
+			if (cursors[i] != null && cursors[i].getGroup() == cursor.getGroup()) group[count++] = cursors[i];
+		}
+		return group;
+	}
+	
+	/**
+	 * Make a consumer fetch only the messages with a tag that has at least one bit in common with the given subscription. The messages that do not match are
+	 * skipped by <code>availableToFetch()</code> and <code>fetch()</code>, which only return and count the matching ones. If the consumer is part of a group, the whole group
+	 * gets the subscription, since the members share the messages. This must be called before the consumer starts or by the consumer thread itself.
+	 * 
+	 * <p>Note that a rollback with a subscription counts only the matching messages.</p>
+	 * 
+	 * @param consumer the consumer index
+	 * @param subscription the bitmask of the tags the consumer wants, or {@link #ALL_TAGS} for all the messages
+	 */
+	public final void setSubscription(int consumer, long subscription) {
+		if (subscription == 0) throw new IllegalArgumentException("A subscription must have at least one bit set");
+		Cursor[] cursors = this.cursors;
+		Cursor[] group = groupOf(cursors, getCursor(cursors, consumer));
+		for(int i = 0; i < group.length; i++) group[i].setSubscription(subscription);
+	}
+	
+	/**
+	 * Set the maximum number of messages a consumer of a group claims at a time. If the consumer is part of a group, the whole group gets the batch size.
+	 * The default (zero) is to claim what is available divided by the number of consumers in the group. This must be called before the consumers start.
+	 * 
+	 * @param consumer the consumer index
+	 * @param claimBatchSize the maximum number of messages claimed at a time, or zero for a fair share of what is available
+	 */
+	public final void setClaimBatchSize(int consumer, int claimBatchSize) {
+		if (claimBatchSize < 0) throw new IllegalArgumentException("Claim batch size cannot be negative: " + claimBatchSize);
+		Cursor[] cursors = this.cursors;
+		Cursor[] group = groupOf(cursors, getCursor(cursors, consumer));
+		for(int i = 0; i < group.length; i++) group[i].setClaimBatchSize(claimBatchSize);
+	}
+	
+	/**
+	 * Return the number of groups of consumers. Without groups, each consumer is alone in its own group.
+	 * 
+	 * @return the number of groups
+	 */
+	public final int getNumberOfGroups() {
+		return numberOfGroups;
+	}
+	
+	/**
+	 * Return the group of the given consumer.
+	 * 
+	 * @param consumer the consumer index
+	 * @return the group of the consumer
+	 */
+	public final int getGroup(int consumer) {
+		return cursors[consumer].getGroup();
+	}
 }
\ No newline at end of file
@@ -18,7 +18,7 @@ package com.coralblocks.coralqueue.broadcaster;
 /**
  * <p>The Broadcaster API that is a special demultiplexer that broadcasts (delivers) all messages to all consumers, in other words, all consumers will fetch and receive all messages sent by the producer.</p>
  * 
- * <p><b>NOTE:</b> A broadcaster must have a <b>fixed</b> number of consumers specified by its constructor.</p>
+ * <p><b>NOTE:</b> A broadcaster starts with the number of consumers specified by its constructor. Consumers can join and leave later with {@link #addConsumer(JoinPosition)} and {@link #removeConsumer(int)}.</p>
  *
  * @param <E> The data transfer mutable object to be used by this broadcaster
  */
@@ -125,7 +125,7 @@ public interface Broadcaster<E> {
 	public void rollBack(int consumerIndex, long items);
 	
 	/**
-	 * <p>The (fixed) number of consumers listening on this broadcaster.</p>
+	 * <p>The number of consumers listening on this broadcaster, in other words, one more than the highest consumer index. The index of a removed consumer is counted until it is re-used by a new consumer.</p>
 	 * 
 	 * @return the number of consumers
 	 */
@@ -140,6 +140,40 @@ public interface Broadcaster<E> {
 	 */
 	public void disableConsumer(int consumerIndex);
 	
+	/**
+	 * <p>Return true if the producer gave up on this consumer because it was too slow. An evicted consumer has nothing to fetch until it calls {@link #rejoin(int)}.
+	 * The messages fetched in the batch during which the consumer was evicted may have been overwritten by the producer.</p>
+	 * 
+	 * @param consumerIndex the index of the consumer thread calling this method
+	 * @return true if the consumer was evicted
+	 */
+	public boolean isEvicted(int consumerIndex);
+	
+	/**
+	 * <p>Bring back an evicted consumer, at the head of the broadcaster, so that it only receives the messages sent from now on. The consumer thread calling this method must pass its consumer index.</p>
+	 * 
+	 * @param consumerIndex the index of the consumer thread calling this method
+	 * @return true if the consumer was evicted and is now back, false if it was not evicted
+	 */
+	public boolean rejoin(int consumerIndex);
+	
+	/**
+	 * <p>Add a new consumer to a running broadcaster, without stopping the producer or the other consumers. The new consumer re-uses the index of a removed consumer if there is one.
+	 * This method can be called by any thread.</p>
+	 * 
+	 * @param joinPosition where the new consumer starts fetching from
+	 * @return the new consumer
+	 */
+	public Consumer<E> addConsumer(JoinPosition joinPosition);
+	
+	/**
+	 * <p>Remove a consumer from a running broadcaster, so that the producer stops waiting for it. This method can be called by any thread, but the removed consumer must
+	 * not be used anymore, so you should call it from the consumer thread itself, after <code>doneFetching</code>, or after the consumer thread is done.</p>
+	 * 
+	 * @param consumerIndex the index of the consumer to remove
+	 */
+	public void removeConsumer(int consumerIndex);
+	
 	/**
 	 * Return a consumer by its index. This method throws a <code>RuntimeException</code> if the index is invalid.
 	 * 
@@ -16,17 +16,19 @@
 package com.coralblocks.coralqueue.broadcaster;
 
 /**
- * A consumer to receive messages from this broadcaster. 
+ * A consumer to receive messages from this broadcaster. It keeps the cursor of its index, so fetching through it does not have to look up the cursor every time.
  *
  * @param <E> The data transfer mutable object to be used by this broadcaster
  */
 public class Consumer<E> {
 	
 	private final int consumerIndex;
-	private final Broadcaster<E> broadcaster;
+	private final AtomicBroadcaster<E> broadcaster;
+	private final Cursor cursor;
 	
-	Consumer(Broadcaster<E> broadcaster, int consumerIndex) {
+	Consumer(AtomicBroadcaster<E> broadcaster, Cursor cursor, int consumerIndex) {
 		this.broadcaster = broadcaster;
+		this.cursor = cursor;
 		this.consumerIndex = consumerIndex;
 	}
 	
@@ -45,7 +47,7 @@ public class Consumer<E> {
 	 * @return the number of available objects that can be fetched
 	 */
 	public final long availableToFetch() {
-		return broadcaster.availableToFetch(consumerIndex);
+		return broadcaster.availableToFetch(cursor);
 	}
 	
 	/**
@@ -54,7 +56,7 @@ public class Consumer<E> {
 	 * @return the object fetched
 	 */
 	public final E fetch() {
-		return broadcaster.fetch(consumerIndex);
+		return broadcaster.fetch(cursor, true);
 	}
 	
 	/**
@@ -63,14 +65,39 @@ public class Consumer<E> {
 	 * @param lazySet false to signal to the producer immediately
 	 */
 	public final void doneFetching(boolean lazySet) {
-		broadcaster.doneFetching(consumerIndex, lazySet);
+		broadcaster.doneFetching(cursor, lazySet);
 	}
 	
 	/**
 	 * Delegate to the broadcaster
 	 */
 	public final void doneFetching() {
-		broadcaster.doneFetching(consumerIndex);
+		broadcaster.doneFetching(cursor, false);
+	}
+	
+	/**
+	 * Delegate to the broadcaster
+	 * 
+	 * @return true if this consumer was evicted by the producer
+	 */
+	public final boolean isEvicted() {
+		return cursor.isEvicted();
+	}
+	
+	/**
+	 * Delegate to the broadcaster
+	 * 
+	 * @return true if this consumer was evicted and is now back
+	 */
+	public final boolean rejoin() {
+		return broadcaster.rejoin(consumerIndex);
+	}
+	
+	/**
+	 * Remove this consumer by delegating to the <code>removeConsumer(int)</code> method of this broadcaster
+	 */
+	public final void remove() {
+		broadcaster.removeConsumer(consumerIndex);
 	}
 	
 	/**
@@ -22,13 +22,218 @@ class Cursor {
 	private long fetchCount = 0;
 	private long lastFetchedSeq = 0;
 	private final PaddedAtomicLong fetchSequence = new PaddedAtomicLong(0);
+	private final PaddedAtomicLong claimSequence; // shared by all the cursors of a group, null for a consumer alone in its group
+	private long claimEnd = 0;
+	private volatile boolean evicted = false;
+	private final int group;
+	private final int groupSize;
+	private int claimBatchSize = 0; // zero to claim a fair share of what is available
+	private Consumer<?> consumer;
+	private Cursor[] dependencies = null; // the cursors we must stay behind, null if we only depend on the producer
+	private long barrier = 0; // the last position we saw for our dependencies
+	private long subscription = AtomicBroadcaster.ALL_TAGS;
+	private long matchCount = 0; // the matching messages fetched since the last doneFetching
+	private long matchesLeft = 0; // the matching messages not yet fetched in the current batch
+	private long filterEnd = 0; // the last sequence of the current batch
+	
+	Cursor(int group) {
+		this(null, group, 1);
+	}
+	
+	Cursor(PaddedAtomicLong claimSequence, int group, int groupSize) {
+		this.claimSequence = claimSequence;
+		this.group = group;
+		this.groupSize = groupSize;
+	}
+	
+	final int getGroup() {
+		return group;
+	}
+	
+	final Consumer<?> getConsumer() {
+		return consumer;
+	}
+	
+	final void setConsumer(Consumer<?> consumer) {
+		this.consumer = consumer;
+	}
 	
 	final void clear() {
 		fetchCount = 0;
 		lastFetchedSeq = 0;
+		claimEnd = 0;
+		barrier = 0;
+		matchCount = 0;
+		matchesLeft = 0;
+		filterEnd = 0;
+		evicted = false;
 		fetchSequence.set(lastFetchedSeq);
 	}
 	
+	final boolean isEvicted() {
+		return evicted;
+	}
+	
+	final void evict() {
+		evicted = true;
+		setFetchSequenceToMax();
+	}
+	
+	final void moveTo(long seq) {
+		if (claimSequence != null) seq = Math.min(seq, claimSequence.get()); // a group member goes back to where its group is
+		fetchCount = 0;
+		lastFetchedSeq = seq;
+		claimEnd = seq;
+		barrier = Long.MIN_VALUE;
+		matchCount = 0;
+		matchesLeft = 0;
+		filterEnd = seq;
+		fetchSequence.set(seq);
+	}
+	
+	final void rejoined() {
+		evicted = false;
+	}
+	
+	final void addDependency(Cursor cursor) {
+		if (dependencies == null) {
+			dependencies = new Cursor[] { cursor };
+			return;
+		}
+		for(int i = 0; i < dependencies.length; i++) {
+			if (dependencies[i] == cursor) return;
+		}
+		Cursor[] newDependencies = new Cursor[dependencies.length + 1];
+		System.arraycopy(dependencies, 0, newDependencies, 0, dependencies.length);
+		newDependencies[dependencies.length] = cursor;
+		dependencies = newDependencies;
+	}
+	
+	final boolean dependsOn(Cursor cursor) {
+		if (dependencies == null) return false;
+		for(int i = 0; i < dependencies.length; i++) {
+			if (dependencies[i] == cursor || dependencies[i].dependsOn(cursor)) return true;
+		}
+		return false;
+	}
+	
+	final long limit(long offerSequence) {
+		if (dependencies == null) return offerSequence;
+		long position = claimSequence != null ? Math.max(lastFetchedSeq, claimSequence.get()) : lastFetchedSeq;
+		if (barrier <= position) {
+			// only read our dependencies again when we are done with what they had released the last time
+			long min = Long.MAX_VALUE;
+			for(int i = 0; i < dependencies.length; i++) {
+				Cursor dependency = dependencies[i];
+				if (dependency.isEvicted()) continue; // it no longer holds anyone back
+				long seq = dependency.getFetchSequence();
+				if (seq < min) min = seq;
+			}
+			barrier = Math.min(min, offerSequence); // read them again once we get there, in case an evicted one comes back
+		}
+		return Math.min(barrier, offerSequence);
+	}
+	
+	final boolean isFiltered() {
+		return subscription != AtomicBroadcaster.ALL_TAGS;
+	}
+	
+	final void setSubscription(long subscription) {
+		this.subscription = subscription;
+	}
+	
+	private final boolean matches(long[] tags, int capacityMinusOne, long seq) {
+		return (tags[(int) ((seq - 1) & capacityMinusOne)] & subscription) != 0;
+	}
+	
+	final long filter(long available, long[] tags, int capacityMinusOne) {
+		long end = lastFetchedSeq + available;
+		long matches = 0;
+		for(long seq = lastFetchedSeq + 1; seq <= end; seq++) {
+			if (matches(tags, capacityMinusOne, seq)) matches++;
+		}
+		filterEnd = end;
+		matchesLeft = matches;
+		if (matches == 0) {
+			// nothing for us, so move past them without waiting for doneFetching, unless we are in the middle of a batch that can still be rolled back
+			if (fetchCount == 0) {
+				lastFetchedSeq = end;
+				fetchSequence.lazySet(end);
+			} else {
+				fetchCount += end - lastFetchedSeq;
+				lastFetchedSeq = end;
+			}
+		}
+		return matches;
+	}
+	
+	final long nextMatching(long[] tags, int capacityMinusOne) {
+		long seq = lastFetchedSeq + 1;
+		while(seq < filterEnd && !matches(tags, capacityMinusOne, seq)) seq++;
+		long last = --matchesLeft == 0 ? filterEnd : seq; // after the last match, skip the rest of the batch too
+		fetchCount += last - lastFetchedSeq;
+		lastFetchedSeq = last;
+		matchCount++;
+		return seq;
+	}
+	
+	final long peekMatching(long[] tags, int capacityMinusOne) {
+		long seq = lastFetchedSeq + 1;
+		while(seq < filterEnd && !matches(tags, capacityMinusOne, seq)) seq++;
+		return seq;
+	}
+	
+	final long getMatchCount() {
+		return matchCount;
+	}
+	
+	final void rollBackMatching(long count, long[] tags, int capacityMinusOne) {
+		if (count == matchCount) {
+			lastFetchedSeq -= fetchCount;
+			fetchCount = 0;
+		} else {
+			// walk back until we are right before the oldest match we give back
+			long left = count;
+			while(left > 0) {
+				if (matches(tags, capacityMinusOne, lastFetchedSeq)) left--;
+				lastFetchedSeq--;
+				fetchCount--;
+			}
+		}
+		matchCount -= count;
+		matchesLeft += count;
+	}
+	
+	final boolean isGrouped() {
+		return claimSequence != null;
+	}
+	
+	final void setClaimBatchSize(int claimBatchSize) {
+		this.claimBatchSize = claimBatchSize;
+	}
+	
+	final long claim(long offerSequence) {
+		long remaining = claimEnd - lastFetchedSeq;
+		if (remaining > 0) return remaining; // we still have messages from our last claim
+		if (fetchCount > 0) return 0; // doneFetching must be called before claiming again
+		while(true) {
+			long start = claimSequence.get();
+			if (offerSequence <= start) {
+				// everything before start was claimed by someone else, and is protected by their own cursors, so we can let the producer go
+				if (fetchSequence.get() < start) fetchSequence.lazySet(start);
+				return 0;
+			}
+			long avail = offerSequence - start;
+			// leave some for the other members, otherwise the first one to poll takes the whole backlog
+			long n = claimBatchSize > 0 ? Math.min(avail, claimBatchSize) : (avail + groupSize - 1) / groupSize;
+			if (claimSequence.compareAndSet(start, start + n)) {
+				lastFetchedSeq = start;
+				claimEnd = start + n;
+				return n;
+			}
+		}
+	}
+	
 	final long getLastFetchedSeq() {
 		return lastFetchedSeq;
 	}
@@ -47,6 +252,7 @@ class Cursor {
 	
 	final void resetFetchCount() {
 		fetchCount = 0;
+		matchCount = 0;
 	}
 	
 	final void decrementFetchCount(long x) {
@@ -58,11 +264,14 @@ class Cursor {
 	}
 	
 	final void updateFetchSequence(boolean lazySet) {
+		if (evicted) return; // the producer went on without us
 		if (lazySet) {
 			fetchSequence.lazySet(lastFetchedSeq);
 		} else {
 			fetchSequence.set(lastFetchedSeq);
 		}
+		// evicted while we were storing, so do not leave behind a sequence the producer may have already overwritten
+		if (evicted) fetchSequence.set(Long.MAX_VALUE);
 	}
 	
 	final long getFetchSequence() {
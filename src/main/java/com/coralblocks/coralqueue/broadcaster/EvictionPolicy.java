@@ -0,0 +1,106 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.broadcaster;
+
+/**
+ * <p>When the producer of an {@link AtomicBroadcaster} gives up on a slow consumer and <i>evicts</i> it, so that one stuck consumer does not freeze the producer
+ * and all the other consumers. It is passed to the constructor of the broadcaster and cannot be changed afterwards.</p>
+ * 
+ * <ul>
+ *   <li>{@link #none()}: never evict (the default). The producer waits for the slowest consumer forever.</li>
+ *   <li>{@link #maxLag(long)}: evict a consumer that is more than the given number of messages behind the producer.</li>
+ *   <li>{@link #maxBlockedTime(long)}: evict a consumer that has kept the producer from dispatching for more than the given number of nanoseconds.</li>
+ * </ul>
+ * 
+ * <p>The producer only checks its consumers when it is about to wrap, so a lag larger than the capacity is the same as no lag limit.
+ * An evicted consumer finds nothing to fetch until it calls <code>rejoin</code>, which puts it back at the head of the broadcaster (i.e. it only receives new messages).</p>
+ */
+public final class EvictionPolicy {
+	
+	private static final EvictionPolicy NONE = new EvictionPolicy(Long.MAX_VALUE, Long.MAX_VALUE);
+	
+	private final long maxLag;
+	private final long maxBlockedNanos;
+	
+	private EvictionPolicy(long maxLag, long maxBlockedNanos) {
+		this.maxLag = maxLag;
+		this.maxBlockedNanos = maxBlockedNanos;
+	}
+	
+	/**
+	 * Return the policy that never evicts a consumer.
+	 * 
+	 * @return the policy that never evicts
+	 */
+	public static EvictionPolicy none() {
+		return NONE;
+	}
+	
+	/**
+	 * Return the policy that evicts a consumer that is more than the given number of messages behind the producer.
+	 * 
+	 * @param maxLag the maximum number of messages a consumer can be behind the producer
+	 * @return the max lag policy
+	 */
+	public static EvictionPolicy maxLag(long maxLag) {
+		if (maxLag < 0) throw new IllegalArgumentException("Max lag cannot be negative: " + maxLag);
+		return new EvictionPolicy(maxLag, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Return the policy that evicts a consumer that has kept the producer from dispatching for more than the given number of nanoseconds.
+	 * 
+	 * @param maxBlockedNanos the maximum time a consumer can block the producer, in nanoseconds
+	 * @return the max blocked time policy
+	 */
+	public static EvictionPolicy maxBlockedTime(long maxBlockedNanos) {
+		if (maxBlockedNanos < 0) throw new IllegalArgumentException("Max blocked time cannot be negative: " + maxBlockedNanos);
+		return new EvictionPolicy(Long.MAX_VALUE, maxBlockedNanos);
+	}
+	
+	/**
+	 * Return the policy that evicts a consumer that is more than the given number of messages behind the producer or that has kept the producer from dispatching for more than the given number of nanoseconds.
+	 * 
+	 * @param maxLag the maximum number of messages a consumer can be behind the producer
+	 * @param maxBlockedNanos the maximum time a consumer can block the producer, in nanoseconds
+	 * @return the combined policy
+	 */
+	public static EvictionPolicy maxLagOrBlockedTime(long maxLag, long maxBlockedNanos) {
+		maxLag(maxLag); // check
+		maxBlockedTime(maxBlockedNanos); // check
+		return new EvictionPolicy(maxLag, maxBlockedNanos);
+	}
+	
+	final boolean isEnabled() {
+		return maxLag != Long.MAX_VALUE || maxBlockedNanos != Long.MAX_VALUE;
+	}
+	
+	final long getMaxLag() {
+		return maxLag;
+	}
+	
+	final long getMaxBlockedNanos() {
+		return maxBlockedNanos;
+	}
+	
+	@Override
+	public String toString() {
+		if (!isEnabled()) return "none";
+		if (maxBlockedNanos == Long.MAX_VALUE) return "maxLag(" + maxLag + ")";
+		if (maxLag == Long.MAX_VALUE) return "maxBlockedTime(" + maxBlockedNanos + ")";
+		return "maxLagOrBlockedTime(" + maxLag + ", " + maxBlockedNanos + ")";
+	}
+}
@@ -0,0 +1,34 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.broadcaster;
+
+/**
+ * <p>Where a consumer added to a live {@link AtomicBroadcaster} with <code>addConsumer</code> starts fetching from.</p>
+ */
+public enum JoinPosition {
+	
+	/**
+	 * Start at the head of the broadcaster, so the new consumer only receives the messages sent from now on.
+	 */
+	HEAD,
+	
+	/**
+	 * Start at the oldest message that is still in the broadcaster, in other words, the oldest message the slowest consumer has not acknowledged yet,
+	 * so the new consumer first receives again what is still there before getting the new messages. Without any other consumer there is nothing
+	 * the producer is not allowed to overwrite, so this is the same as {@link #HEAD}.
+	 */
+	OLDEST_AVAILABLE
+}
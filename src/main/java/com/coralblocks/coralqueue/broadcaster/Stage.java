@@ -0,0 +1,52 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.broadcaster;
+
+/**
+ * <p>A stage of a pipeline of consumers over an {@link AtomicBroadcaster}, in other words, a set of consumers that fetch the messages in parallel.
+ * You get the first stage from <code>broadcaster.after(consumers)</code> and add the next ones with {@link #then(int...)}:</p>
+ * 
+ * <pre>
+ * broadcaster.after(decoder).then(risk, audit).then(executor);
+ * </pre>
+ * 
+ * <p>Each consumer of a stage only fetches the messages that all the consumers of the previous stage are done with.</p>
+ */
+public final class Stage {
+	
+	private final AtomicBroadcaster<?> broadcaster;
+	private final int[] consumers;
+	
+	Stage(AtomicBroadcaster<?> broadcaster, int[] consumers) {
+		this.broadcaster = broadcaster;
+		this.consumers = consumers;
+	}
+	
+	/**
+	 * Add the next stage, so that the given consumers only fetch the messages that all the consumers of this stage are done with.
+	 * 
+	 * @param consumers the consumers of the next stage
+	 * @return the next stage
+	 */
+	public final Stage then(int ... consumers) {
+		for(int i = 0; i < consumers.length; i++) {
+			for(int j = 0; j < this.consumers.length; j++) {
+				broadcaster.addDependency(consumers[i], this.consumers[j]);
+			}
+		}
+		return new Stage(broadcaster, consumers);
+	}
+}
@@ -15,14 +15,31 @@
  */
 package com.coralblocks.coralqueue.demultiplexer;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import com.coralblocks.coralqueue.queue.AtomicQueue;
-import com.coralblocks.coralqueue.queue.Queue;
 import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.Doorbell;
 import com.coralblocks.coralqueue.util.MathUtils;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
 
 /**
- * An implementation of {@link Demultiplexer} that uses <i>memory barriers</i> to synchronize producer and consumers sequences.
- * Two different consumers will never fetch the same message.
+ * <p>An implementation of {@link Demultiplexer} that uses <i>memory barriers</i> to synchronize producer and consumers sequences.
+ * Two different consumers will never fetch the same message.</p>
+ * 
+ * <p>By default <code>nextToDispatch()</code> sends one message to each consumer in turn. You can pass a different {@link DispatchPolicy} to the constructor
+ * to send each message to the consumer with the smallest backlog instead, so that a slow consumer gets fewer messages, or to send runs of messages to the same consumer.
+ * Note that <code>flush()</code> only publishes to the consumers that received messages since the last flush.</p>
+ * 
+ * <p>You can also route messages by a <code>long</code> key with {@link #nextToDispatchForKey(long)}, so that all messages with the same key (e.g. the same account) go to the same
+ * consumer, in order. Keys are hashed to slots and slots are assigned to consumers by rendezvous hashing. When some keys are hotter than others you can call {@link #rebalance()}
+ * to move a slot from the busiest consumer to the least busy one. A slot only moves after the old consumer has fetched all its messages (the <i>drain barrier</i>),
+ * so the order of the messages of a key is never broken. Until then <code>nextToDispatchForKey</code> returns null for the keys of that slot, as if the queue was full.</p>
+ * 
+ * <p>Consumers can be deactivated and activated again, from any thread, with {@link #deactivateConsumer(int)} and {@link #activateConsumer(int)}. The producer stops dispatching to a
+ * deactivated consumer after its next <code>flush()</code>, and the keys of a deactivated consumer move to an active one (through the same drain barrier). The deactivated consumer should keep
+ * fetching until {@link #isDrained(int)} returns true. Messages dispatched explicitly with <code>nextToDispatch(int)</code> still go to the consumer you choose.</p>
  *
  * @param <E> The data transfer mutable object to be used by this demultiplexer
  */
@@ -30,24 +47,56 @@ public class AtomicDemultiplexer<E> implements Demultiplexer<E> {
 	
 	public static final int DEFAULT_CAPACITY = 1024;
 
-	private final Queue<E>[] queues;
+	private final AtomicQueue<E>[] queues;
 	private final int numberOfConsumers;
 	private int currQueueToDispatch = 0;
+	private int dispatchedInRun = 0;
+	private final int runLength;
+	private final int refreshInterval;
+	private int refreshCountdown = 0;
 	private boolean[] needsToFlush;
 	private final Consumer<E>[] consumers;
+	private final int dispatchType;
+	private long random = 0x9E3779B97F4A7C15L; // xorshift state for the power of two choices
+	
+	public static final int SLOTS_PER_CONSUMER = 64;
+	
+	// key routing (all producer state)
+	private final int slotMask;
+	private final int[] slotOwners;
+	private final long[] slotLoads;
+	private final long[] slotLastSequences;
+	private final long[] consumerLoads;
+	private int migratingSlot = -1;
+	private int migrationTarget;
+	
+	// consumer activation (written by any thread, acknowledged by the producer on flush)
+	private final AtomicIntegerArray active;
+	private final PaddedAtomicLong activationVersion = new PaddedAtomicLong(0);
+	private final PaddedAtomicLong acknowledgedVersion = new PaddedAtomicLong(0);
+	private final AtomicLongArray deactivationVersions;
+	private final boolean[] isActive; // the producer copy
+	private long seenVersion = 0;
+	
+	private Doorbell[] doorbells = null;
+	private int doorbellLane;
 
 	/**
-	 * Creates an <code>AtomicDemultiplexer</code> with the given capacity and number of consumers using the given {@link Builder} to populate it.
+	 * Creates an <code>AtomicDemultiplexer</code> with the given capacity, number of consumers and dispatch policy using the given {@link Builder} to populate it.
 	 * 
 	 * @param capacity the capacity of the <code>AtomicDemultiplexer</code>
 	 * @param builder the {@link Builder} used to populate the <code>AtomicDemultiplexer</code>
 	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicDemultiplexer</code>
+	 * @param dispatchPolicy the {@link DispatchPolicy} used by the producer to choose the consumer of the next message
 	 */
 	@SuppressWarnings("unchecked")
-	public AtomicDemultiplexer(int capacity, Builder<E> builder, int numberOfConsumers) {
+	public AtomicDemultiplexer(int capacity, Builder<E> builder, int numberOfConsumers, DispatchPolicy dispatchPolicy) {
 		MathUtils.ensurePowerOfTwo(capacity);
 		this.numberOfConsumers = numberOfConsumers;
-		this.queues = new Queue[numberOfConsumers];
+		this.dispatchType = dispatchPolicy.getType();
+		this.runLength = dispatchPolicy.getRunLength();
+		this.refreshInterval = dispatchPolicy.getRefreshInterval();
+		this.queues = new AtomicQueue[numberOfConsumers];
 		this.needsToFlush = new boolean[numberOfConsumers];
 		this.consumers = (Consumer<E>[]) new Consumer[numberOfConsumers];
 		for(int i = 0; i < queues.length; i++) {
@@ -55,6 +104,64 @@ public class AtomicDemultiplexer<E> implements Demultiplexer<E> {
 			this.needsToFlush[i] = false;
 			this.consumers[i] = new Consumer<E>(this, i);
 		}
+		int numberOfSlots = Integer.highestOneBit(numberOfConsumers * SLOTS_PER_CONSUMER - 1) << 1; // next power of two
+		this.slotMask = numberOfSlots - 1;
+		this.slotOwners = new int[numberOfSlots];
+		this.slotLoads = new long[numberOfSlots];
+		this.slotLastSequences = new long[numberOfSlots];
+		this.consumerLoads = new long[numberOfConsumers];
+		this.active = new AtomicIntegerArray(numberOfConsumers);
+		this.deactivationVersions = new AtomicLongArray(numberOfConsumers);
+		this.isActive = new boolean[numberOfConsumers];
+		for(int i = 0; i < numberOfConsumers; i++) {
+			this.active.set(i, 1);
+			this.isActive[i] = true;
+		}
+		assignSlots();
+	}
+	
+	private static final long hash(long x) { // the finalizer of MurmurHash3
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return x;
+	}
+	
+	private final void assignSlots() {
+		for(int slot = 0; slot < slotOwners.length; slot++) {
+			slotOwners[slot] = rendezvousOwner(slot, false);
+			slotLoads[slot] = 0;
+			slotLastSequences[slot] = 0;
+		}
+		migratingSlot = -1;
+	}
+	
+	private final int rendezvousOwner(int slot, boolean onlyActive) {
+		// rendezvous hashing: each slot goes to the consumer with the highest hash for the pair, so adding a consumer only moves the slots it wins
+		int owner = -1;
+		long best = Long.MIN_VALUE;
+		for(int c = 0; c < numberOfConsumers; c++) {
+			if (onlyActive && !isActive[c]) continue;
+			long h = hash(slot * 0x9E3779B97F4A7C15L + c);
+			if (owner == -1 || h > best) {
+				best = h;
+				owner = c;
+			}
+		}
+		return owner;
+	}
+
+	/**
+	 * Creates an <code>AtomicDemultiplexer</code> with the given capacity and number of consumers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicDemultiplexer</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicDemultiplexer</code>
+	 */
+	public AtomicDemultiplexer(int capacity, Builder<E> builder, int numberOfConsumers) {
+		this(capacity, builder, numberOfConsumers, DispatchPolicy.roundRobin());
 	}
 
 	/**
@@ -67,6 +174,18 @@ public class AtomicDemultiplexer<E> implements Demultiplexer<E> {
 		this(DEFAULT_CAPACITY, builder, numberOfConsumers);
 	}
 	
+	/**
+	 * Creates an <code>AtomicDemultiplexer</code> with the given capacity, number of consumers and dispatch policy using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicDemultiplexer</code>
+	 * @param klass the class used to populate the <code>AtomicDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicDemultiplexer</code>
+	 * @param dispatchPolicy the {@link DispatchPolicy} used by the producer to choose the consumer of the next message
+	 */
+	public AtomicDemultiplexer(int capacity, Class<E> klass, int numberOfConsumers, DispatchPolicy dispatchPolicy) {
+		this(capacity, Builder.createBuilder(klass), numberOfConsumers, dispatchPolicy);
+	}
+	
 	/**
 	 * Creates an <code>AtomicDemultiplexer</code> with the given capacity and number of consumers using the given class to populate it.
 	 * 
@@ -99,27 +218,145 @@ public class AtomicDemultiplexer<E> implements Demultiplexer<E> {
 	@Override
 	public final void clear() {
 		currQueueToDispatch = 0;
+		dispatchedInRun = 0;
+		refreshCountdown = 0;
 		for(int i = 0; i < queues.length; i++) {
 			queues[i].clear();
 		}
 		for(int i = 0; i < needsToFlush.length; i++) {
 			needsToFlush[i] = false;
 		}
+		assignSlots();
+	}
+	
+	/**
+	 * Return the number of messages dispatched to the given consumer that it has not fetched yet, as last seen by the producer. Only the producer thread can call this method.
+	 * 
+	 * @param consumer the consumer index
+	 * @param refresh true to read the consumer sequence or false to use the last value seen
+	 * @return the backlog of the consumer
+	 */
+	public final long getBacklog(int consumer, boolean refresh) {
+		return queues[consumer].getDepth(refresh);
+	}
+	
+	/**
+	 * Stop dispatching messages to the given consumer. The producer will see it on its next <code>flush()</code>. This method can be called by any thread.
+	 * 
+	 * @param consumer the consumer index
+	 */
+	public final void deactivateConsumer(int consumer) {
+		// hide the version of a previous deactivation first, or isDrained could pair it with the new inactive state
+		deactivationVersions.set(consumer, Long.MAX_VALUE);
+		active.set(consumer, 0);
+		deactivationVersions.set(consumer, activationVersion.incrementAndGet());
+	}
+	
+	/**
+	 * Start dispatching messages to the given consumer again. The producer will see it on its next <code>flush()</code>. This method can be called by any thread.
+	 * 
+	 * @param consumer the consumer index
+	 */
+	public final void activateConsumer(int consumer) {
+		active.set(consumer, 1);
+		activationVersion.incrementAndGet();
+	}
+	
+	/**
+	 * Return true if the given consumer is active, in other words, if it was not deactivated. This method can be called by any thread.
+	 * 
+	 * @param consumer the consumer index
+	 * @return true if the consumer is active
+	 */
+	public final boolean isActive(int consumer) {
+		return active.get(consumer) == 1;
+	}
+	
+	/**
+	 * Return true if the given consumer was deactivated, the producer has seen it and the consumer has fetched everything that was dispatched to it.
+	 * This method can be called by any thread, but it is usually called by the deactivated consumer to know when it can stop.
+	 * 
+	 * @param consumer the consumer index
+	 * @return true if the consumer is deactivated and has nothing else to fetch
+	 */
+	public final boolean isDrained(int consumer) {
+		if (active.get(consumer) == 1) return false;
+		long deactivationVersion = deactivationVersions.get(consumer);
+		return deactivationVersion > 0 && acknowledgedVersion.get() >= deactivationVersion && queues[consumer].isEmpty();
+	}
+	
+	private final void checkActivation() {
+		long version = activationVersion.get();
+		if (version == seenVersion) return;
+		for(int i = 0; i < numberOfConsumers; i++) {
+			isActive[i] = active.get(i) == 1;
+		}
+		seenVersion = version;
+		// everything dispatched with the old flags was already flushed
+		acknowledgedVersion.set(version);
+	}
+	
+	private final int leastLoadedQueue() {
+		// only read the consumer sequences once in a while, in between go by the depths we last saw
+		boolean refresh = refreshCountdown-- == 0;
+		if (refresh) refreshCountdown = refreshInterval - 1;
+		int best = -1;
+		long bestDepth = Long.MAX_VALUE;
+		for(int i = 0; i < numberOfConsumers; i++) {
+			if (!isActive[i]) continue;
+			long depth = queues[i].getDepth(refresh);
+			if (depth < bestDepth) {
+				bestDepth = depth;
+				best = i;
+				if (depth == 0 && !refresh) break;
+			}
+		}
+		return best;
+	}
+	
+	private final int powerOfTwoChoicesQueue() {
+		if (numberOfConsumers == 1) return 0;
+		long r = random;
+		r ^= r << 13;
+		r ^= r >>> 7;
+		r ^= r << 17;
+		random = r;
+		int a = (int) ((r >>> 1) % numberOfConsumers);
+		int b = (int) ((a + 1 + (r >>> 33) % (numberOfConsumers - 1)) % numberOfConsumers); // never the same as a
+		if (!isActive[a]) return isActive[b] ? b : -1;
+		if (!isActive[b]) return a;
+		return queues[b].getDepth(true) < queues[a].getDepth(true) ? b : a;
 	}
 	
 	@Override
 	public final E nextToDispatch() {
+		if (dispatchType != DispatchPolicy.ROUND_ROBIN) {
+			int index = dispatchType == DispatchPolicy.LEAST_LOADED ? leastLoadedQueue() : powerOfTwoChoicesQueue();
+			if (index >= 0) {
+				E e = queues[index].nextToDispatch();
+				if (e != null) {
+					needsToFlush[index] = true;
+					return e;
+				}
+			}
+			// full (or deactivated), fall back to round-robin below...
+		}
 		int count = 0;
 		while(count++ < numberOfConsumers) {
-			E e = queues[currQueueToDispatch].nextToDispatch();
-			if (e != null) {
-				needsToFlush[currQueueToDispatch] = true;
-				if (++currQueueToDispatch == numberOfConsumers) currQueueToDispatch = 0;
-				return e;
-			} else {
-				if (++currQueueToDispatch == numberOfConsumers) currQueueToDispatch = 0;
-				// try the next one until tried numberOfConsumers...
+			if (isActive[currQueueToDispatch]) {
+				E e = queues[currQueueToDispatch].nextToDispatch();
+				if (e != null) {
+					needsToFlush[currQueueToDispatch] = true;
+					if (++dispatchedInRun == runLength) { // with round-robin the run length is 1
+						dispatchedInRun = 0;
+						if (++currQueueToDispatch == numberOfConsumers) currQueueToDispatch = 0;
+					}
+					return e;
+				}
 			}
+			dispatchedInRun = 0;
+			if (++currQueueToDispatch == numberOfConsumers) currQueueToDispatch = 0;
+			// try the next one until tried numberOfConsumers...
 		}
 		return null;
 	}
@@ -141,14 +378,145 @@ public class AtomicDemultiplexer<E> implements Demultiplexer<E> {
 		return null;
 	}
 	
+	/**
+	 * Return the consumer that currently receives the messages with the given key.
+	 * 
+	 * @param key the key
+	 * @return the consumer index
+	 */
+	public final int getConsumerForKey(long key) {
+		return slotOwners[slotOf(key)];
+	}
+	
+	final int slotOf(long key) {
+		return (int) hash(key) & slotMask;
+	}
+	
+	/**
+	 * <p>Return the next object to be dispatched to the consumer of the given key. All the messages with the same key go to the same consumer, in the order they were dispatched.</p>
+	 * 
+	 * <p>If the slot of the key is being moved to another consumer by {@link #rebalance()}, this method returns null until the old consumer has fetched all the messages of the slot.
+	 * Just like when the queue is full, you should flush and try again. The same happens when the consumer of the key was deactivated and its slot is moved to an active consumer.</p>
+	 * 
+	 * @param key the key of the message
+	 * @return the next object to dispatch or null if the queue is full or the key is being moved
+	 */
+	public final E nextToDispatchForKey(long key) {
+		int slot = slotOf(key);
+		int consumer = slotOwners[slot];
+		if (!isActive[consumer] && slot != migratingSlot) {
+			if (migratingSlot != -1 && !finishMigration()) {
+				// we can only move one slot at a time, so wait for the other one to drain
+				int other = slotOwners[migratingSlot];
+				if (needsToFlush[other]) {
+					queues[other].flush(true);
+					needsToFlush[other] = false;
+					if (doorbells != null) doorbells[other].ring(doorbellLane, true);
+				}
+				return null;
+			}
+			int target = rendezvousOwner(slot, true);
+			if (target == -1) return null; // no active consumer
+			migratingSlot = slot;
+			migrationTarget = target;
+		}
+		if (slot == migratingSlot) {
+			if (!finishMigration()) {
+				// the old consumer has not fetched everything yet, make sure what we dispatched to it is flushed or we would wait forever
+				if (needsToFlush[consumer]) {
+					queues[consumer].flush(true);
+					needsToFlush[consumer] = false;
+					if (doorbells != null) doorbells[consumer].ring(doorbellLane, true);
+				}
+				return null;
+			}
+			consumer = slotOwners[slot];
+		}
+		AtomicQueue<E> queue = queues[consumer];
+		E e = queue.nextToDispatch();
+		if (e != null) {
+			needsToFlush[consumer] = true;
+			slotLoads[slot]++;
+			slotLastSequences[slot] = queue.getLastOfferedSequence();
+		}
+		return e;
+	}
+	
+	private final boolean finishMigration() {
+		int slot = migratingSlot;
+		AtomicQueue<E> queue = queues[slotOwners[slot]];
+		if (queue.getLastOfferedSequence() - queue.getDepth(true) < slotLastSequences[slot]) return false; // not drained yet
+		slotOwners[slot] = migrationTarget;
+		slotLastSequences[slot] = 0; // that sequence was from the old queue, the new owner has nothing of this slot yet
+		migratingSlot = -1;
+		return true;
+	}
+	
+	/**
+	 * <p>Move one slot of keys from the consumer that received the most keyed messages since the last call to the consumer that received the least, if that makes the load more even.
+	 * The slot chosen is the busiest one that does not make the least busy consumer the busiest. Call this method periodically from the producer thread (e.g. every 100,000 messages).</p>
+	 * 
+	 * <p>The move only completes after the old consumer has fetched all the messages of the slot, which is checked here, on <code>flush()</code> and when a key of the slot is dispatched.
+	 * Only one slot is moved at a time.</p>
+	 * 
+	 * @return true if a slot is being moved
+	 */
+	public final boolean rebalance() {
+		if (migratingSlot != -1 && !finishMigration()) return true;
+		for(int c = 0; c < numberOfConsumers; c++) consumerLoads[c] = 0;
+		for(int slot = 0; slot < slotOwners.length; slot++) {
+			consumerLoads[slotOwners[slot]] += slotLoads[slot];
+		}
+		int hottest = -1, coldest = -1;
+		for(int c = 0; c < numberOfConsumers; c++) {
+			if (!isActive[c]) continue;
+			if (hottest == -1 || consumerLoads[c] > consumerLoads[hottest]) hottest = c;
+			if (coldest == -1 || consumerLoads[c] < consumerLoads[coldest]) coldest = c;
+		}
+		if (hottest == -1) return false;
+		long maxLoadToMove = (consumerLoads[hottest] - consumerLoads[coldest]) / 2;
+		int slotToMove = -1;
+		long loadToMove = 0;
+		for(int slot = 0; slot < slotOwners.length; slot++) {
+			long load = slotLoads[slot];
+			if (slotOwners[slot] == hottest && load > loadToMove && load <= maxLoadToMove) {
+				slotToMove = slot;
+				loadToMove = load;
+			}
+			slotLoads[slot] = load >> 1; // decay so that the next call looks mostly at the recent load
+		}
+		if (slotToMove == -1) return false;
+		migratingSlot = slotToMove;
+		migrationTarget = coldest;
+		return true;
+	}
+	
 	@Override
 	public final void flush(boolean lazySet) {
 		for(int i = 0; i < numberOfConsumers; i++) {
 			if (needsToFlush[i]) {
 				queues[i].flush(lazySet);
 				needsToFlush[i] = false;
+				if (doorbells != null) doorbells[i].ring(doorbellLane, lazySet);
 			}
 		}
+		if (migratingSlot != -1) finishMigration();
+		checkActivation();
+	}
+	
+	/**
+	 * Ring the {@link Doorbell} of each consumer, with the given lane, every time something is flushed to it. This is used when a consumer reads from many demultiplexers
+	 * (e.g. in an {@link com.coralblocks.coralqueue.mpmc.AtomicMpMc}) so that it only has to look at the ones that have something new. It must be called before the producer starts.
+	 * 
+	 * @param doorbells the doorbells of the consumers, one per consumer
+	 * @param lane the lane of this demultiplexer in the doorbells
+	 */
+	public final void setDoorbells(Doorbell[] doorbells, int lane) {
+		if (doorbells.length != numberOfConsumers) {
+			throw new IllegalArgumentException("Must have one doorbell per consumer: " + doorbells.length + " != " + numberOfConsumers);
+		}
+		this.doorbells = doorbells;
+		this.doorbellLane = lane;
 	}
 	
 	@Override
@@ -0,0 +1,132 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.demultiplexer;
+
+/**
+ * <p>How the producer of an {@link AtomicDemultiplexer} chooses the consumer (i.e. the lane) of the next message when it calls <code>nextToDispatch()</code>
+ * without a consumer index. It is passed to the constructor of the demultiplexer and cannot be changed afterwards.</p>
+ * 
+ * <ul>
+ *   <li>{@link #roundRobin()}: one message to each consumer in turn (the default).</li>
+ *   <li>{@link #batch(int)}: runs of consecutive messages to each consumer in turn, so that the producer writes to one queue at a time and consumers get larger batches.</li>
+ *   <li>{@link #leastLoaded()}: to the consumer with the smallest backlog, looking at all consumers. The backlogs are refreshed from the consumer sequences every {@link #DEFAULT_REFRESH_INTERVAL} dispatches, see {@link #leastLoaded(int)}.</li>
+ *   <li>{@link #powerOfTwoChoices()}: to the consumer with the smallest backlog between two consumers picked at random, so that the cost does not grow with the number of consumers.</li>
+ * </ul>
+ * 
+ * <p>The backlog of a consumer is the number of messages dispatched to it that it has not fetched yet, as seen by the producer. The producer does not read the
+ * consumer sequences on every dispatch, so the backlog it sees may be larger than the real one but never smaller.</p>
+ */
+public final class DispatchPolicy {
+	
+	static final int ROUND_ROBIN = 0;
+	static final int LEAST_LOADED = 1;
+	static final int POWER_OF_TWO_CHOICES = 2;
+	
+	/**
+	 * How many dispatches the least-loaded policy makes, by default, between two refreshes of the backlogs
+	 */
+	public static final int DEFAULT_REFRESH_INTERVAL = 32;
+	
+	private static final DispatchPolicy ROUND_ROBIN_POLICY = new DispatchPolicy(ROUND_ROBIN, 1, 1);
+	private static final DispatchPolicy LEAST_LOADED_POLICY = new DispatchPolicy(LEAST_LOADED, 1, DEFAULT_REFRESH_INTERVAL);
+	private static final DispatchPolicy POWER_OF_TWO_CHOICES_POLICY = new DispatchPolicy(POWER_OF_TWO_CHOICES, 1, 1);
+	
+	private final int type;
+	private final int runLength;
+	private final int refreshInterval;
+	
+	private DispatchPolicy(int type, int runLength, int refreshInterval) {
+		this.type = type;
+		this.runLength = runLength;
+		this.refreshInterval = refreshInterval;
+	}
+	
+	/**
+	 * Return the policy that dispatches one message to each consumer in turn.
+	 * 
+	 * @return the round-robin policy
+	 */
+	public static DispatchPolicy roundRobin() {
+		return ROUND_ROBIN_POLICY;
+	}
+	
+	/**
+	 * Return the policy that dispatches the given number of consecutive messages to each consumer in turn. If the queue of a consumer gets full, the run is cut short
+	 * and the next consumer starts a new one.
+	 * 
+	 * @param runLength the number of consecutive messages sent to the same consumer
+	 * @return the batch policy
+	 */
+	public static DispatchPolicy batch(int runLength) {
+		if (runLength <= 0) throw new IllegalArgumentException("Run length must be positive: " + runLength);
+		if (runLength == 1) return ROUND_ROBIN_POLICY;
+		return new DispatchPolicy(ROUND_ROBIN, runLength, 1);
+	}
+	
+	/**
+	 * Return the policy that dispatches to the consumer with the smallest backlog, refreshing the backlogs every {@link #DEFAULT_REFRESH_INTERVAL} dispatches.
+	 * 
+	 * @return the least-loaded policy
+	 */
+	public static DispatchPolicy leastLoaded() {
+		return LEAST_LOADED_POLICY;
+	}
+	
+	/**
+	 * <p>Return the policy that dispatches to the consumer with the smallest backlog, refreshing the backlogs every given number of dispatches.</p>
+	 * 
+	 * <p>In between, the producer picks the consumer by the backlogs it last saw, without reading any consumer sequence, so a consumer that catches up only gets
+	 * more messages after the next refresh. A smaller interval reacts faster but reads the sequences of all consumers more often.</p>
+	 * 
+	 * @param refreshInterval the number of dispatches between two refreshes of the backlogs (1 to refresh on every dispatch)
+	 * @return the least-loaded policy
+	 */
+	public static DispatchPolicy leastLoaded(int refreshInterval) {
+		if (refreshInterval <= 0) throw new IllegalArgumentException("Refresh interval must be positive: " + refreshInterval);
+		if (refreshInterval == DEFAULT_REFRESH_INTERVAL) return LEAST_LOADED_POLICY;
+		return new DispatchPolicy(LEAST_LOADED, 1, refreshInterval);
+	}
+	
+	/**
+	 * Return the policy that dispatches to the consumer with the smallest backlog between two consumers picked at random.
+	 * 
+	 * @return the power-of-two-choices policy
+	 */
+	public static DispatchPolicy powerOfTwoChoices() {
+		return POWER_OF_TWO_CHOICES_POLICY;
+	}
+	
+	final int getType() {
+		return type;
+	}
+	
+	final int getRunLength() {
+		return runLength;
+	}
+	
+	final int getRefreshInterval() {
+		return refreshInterval;
+	}
+	
+	@Override
+	public String toString() {
+		switch(type) {
+			case ROUND_ROBIN: return runLength == 1 ? "roundRobin" : "batch(" + runLength + ")";
+			case LEAST_LOADED: return "leastLoaded(" + refreshInterval + ")";
+			default: return "powerOfTwoChoices";
+		}
+	}
+}
@@ -0,0 +1,402 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.demultiplexer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.MathUtils;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
+
+/**
+ * <p>A {@link Demultiplexer} where a consumer that has nothing to do steals work from its siblings. Like the {@link AtomicDemultiplexer} each consumer has its own queue,
+ * but when its queue is empty it claims half of the messages waiting in the queue of another consumer. So when one consumer stalls, its backlog is processed by the others
+ * instead of waiting for it. Two different consumers will never fetch the same message, but the messages sent to a consumer are no longer guaranteed to be processed in order.</p>
+ *
+ * <p>Each queue has a claim sequence that is moved forward with a CAS. The owner of the queue claims a window of <code>ownerBatchSize</code> sequences at a time, ahead of the producer,
+ * and reads inside it like a plain queue, with no CAS, only going back to the claim sequence when the window is used up. A thief claims half of the messages waiting beyond the window,
+ * in other words, from the tail of the queue, and checks a single sibling on each idle <code>availableToFetch()</code>. Each batch is marked as done when <code>doneFetching()</code> is called
+ * and the producer only looks at the batches done when it is about to wrap around the queue.</p>
+ * 
+ * <p>You can check how many messages each consumer has stolen from its siblings with {@link #getStolenCount(int)} and how many were stolen from it with {@link #getLostCount(int)}.</p>
+ *
+ * @param <E> The data transfer mutable object to be used by this demultiplexer
+ */
+public class WorkStealingDemultiplexer<E> implements Demultiplexer<E> {
+	
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final int DEFAULT_MIN_BACKLOG_TO_STEAL = 2;
+	public static final int DEFAULT_OWNER_BATCH_SIZE = 64;
+	
+	private static final class Lane<E> {
+		
+		final E[] data;
+		final PaddedAtomicLong offerSequence = new PaddedAtomicLong(0);
+		final PaddedAtomicLong claimSequence = new PaddedAtomicLong(0);
+		final AtomicLongArray doneEnds; // at the index of the first sequence of each batch claimed, the last sequence of the batch once it is done
+		
+		// producer state
+		long lastOfferedSeq = 0;
+		long doneSeq = 0; // all sequences up to this one were fetched
+		long maxSeqBeforeWrapping;
+		boolean needsToFlush = false;
+		
+		@SuppressWarnings("unchecked")
+		Lane(int capacity, Builder<E> builder) {
+			this.data = (E[]) new Object[capacity];
+			for(int i = 0; i < capacity; i++) {
+				this.data[i] = builder.newInstance();
+			}
+			this.doneEnds = new AtomicLongArray(capacity);
+			this.maxSeqBeforeWrapping = capacity;
+		}
+	}
+	
+	private static final class Claim {
+		
+		int lane = -1; // -1 when there is no batch claimed
+		long start; // the first sequence not marked as done yet
+		long end;
+		long lastFetchedSeq;
+	}
+	
+	private static final class Owner {
+		
+		final Claim window = new Claim(); // the sequences claimed ahead in the consumer's own queue, all done when start is past the end
+		final Claim stolen = new Claim(); // the batch stolen from a sibling, if any
+		long availableEnd; // the last sequence of the window flushed by the producer, as seen by the last availableToFetch()
+		int nextVictim;
+	}
+	
+	private final int capacity;
+	private final int capacityMinusOne;
+	private final int numberOfConsumers;
+	private final int minBacklogToSteal;
+	private final int ownerBatchSize;
+	private final Lane<E>[] lanes;
+	private final Owner[] owners;
+	private final Consumer<E>[] consumers;
+	private final AtomicLongArray stolenCounts;
+	private final AtomicLongArray lostCounts;
+	private int currLaneToDispatch = 0;
+	
+	/**
+	 * Creates a <code>WorkStealingDemultiplexer</code> with the given capacity, number of consumers, minimum backlog to steal and owner batch size using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of each consumer queue
+	 * @param builder the {@link Builder} used to populate the <code>WorkStealingDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>WorkStealingDemultiplexer</code>
+	 * @param minBacklogToSteal the minimum number of messages waiting beyond the window of a consumer for another consumer to steal from it
+	 * @param ownerBatchSize the number of sequences a consumer claims ahead in its own queue, which can never be stolen from it
+	 */
+	@SuppressWarnings("unchecked")
+	public WorkStealingDemultiplexer(int capacity, Builder<E> builder, int numberOfConsumers, int minBacklogToSteal, int ownerBatchSize) {
+		MathUtils.ensurePowerOfTwo(capacity);
+		if (minBacklogToSteal < 1) throw new IllegalArgumentException("Minimum backlog to steal must be positive: " + minBacklogToSteal);
+		if (ownerBatchSize < 1 || ownerBatchSize > capacity) throw new IllegalArgumentException("Owner batch size must be between 1 and the capacity: " + ownerBatchSize);
+		this.capacity = capacity;
+		this.capacityMinusOne = capacity - 1;
+		this.numberOfConsumers = numberOfConsumers;
+		this.minBacklogToSteal = minBacklogToSteal;
+		this.ownerBatchSize = ownerBatchSize;
+		this.lanes = (Lane<E>[]) new Lane[numberOfConsumers];
+		this.owners = new Owner[numberOfConsumers];
+		this.consumers = (Consumer<E>[]) new Consumer[numberOfConsumers];
+		this.stolenCounts = new AtomicLongArray(numberOfConsumers);
+		this.lostCounts = new AtomicLongArray(numberOfConsumers);
+		for(int i = 0; i < numberOfConsumers; i++) {
+			this.lanes[i] = new Lane<E>(capacity, builder);
+			this.owners[i] = new Owner();
+			this.owners[i].window.lane = i;
+			this.owners[i].window.start = 1; // nothing claimed yet
+			this.owners[i].nextVictim = i;
+			this.consumers[i] = new Consumer<E>(this, i);
+		}
+	}
+	
+	/**
+	 * Creates a <code>WorkStealingDemultiplexer</code> with the given capacity, number of consumers and minimum backlog to steal using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of each consumer queue
+	 * @param builder the {@link Builder} used to populate the <code>WorkStealingDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>WorkStealingDemultiplexer</code>
+	 * @param minBacklogToSteal the minimum number of messages waiting beyond the window of a consumer for another consumer to steal from it
+	 */
+	public WorkStealingDemultiplexer(int capacity, Builder<E> builder, int numberOfConsumers, int minBacklogToSteal) {
+		this(capacity, builder, numberOfConsumers, minBacklogToSteal, Math.min(DEFAULT_OWNER_BATCH_SIZE, Math.max(1, capacity >> 1)));
+	}
+	
+	/**
+	 * Creates a <code>WorkStealingDemultiplexer</code> with the given capacity and number of consumers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of each consumer queue
+	 * @param builder the {@link Builder} used to populate the <code>WorkStealingDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>WorkStealingDemultiplexer</code>
+	 */
+	public WorkStealingDemultiplexer(int capacity, Builder<E> builder, int numberOfConsumers) {
+		this(capacity, builder, numberOfConsumers, DEFAULT_MIN_BACKLOG_TO_STEAL);
+	}
+	
+	/**
+	 * Creates a <code>WorkStealingDemultiplexer</code> with the default capacity (1024) and number of consumers using the given {@link Builder} to populate it.
+	 * 
+	 * @param builder the {@link Builder} used to populate the <code>WorkStealingDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>WorkStealingDemultiplexer</code>
+	 */
+	public WorkStealingDemultiplexer(Builder<E> builder, int numberOfConsumers) {
+		this(DEFAULT_CAPACITY, builder, numberOfConsumers);
+	}
+	
+	/**
+	 * Creates a <code>WorkStealingDemultiplexer</code> with the given capacity and number of consumers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of each consumer queue
+	 * @param klass the class used to populate the <code>WorkStealingDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>WorkStealingDemultiplexer</code>
+	 */
+	public WorkStealingDemultiplexer(int capacity, Class<E> klass, int numberOfConsumers) {
+		this(capacity, Builder.createBuilder(klass), numberOfConsumers);
+	}
+	
+	/**
+	 * Creates a <code>WorkStealingDemultiplexer</code> with the default capacity (1024) and number of consumers using the given class to populate it.
+	 * 
+	 * @param klass the class used to populate the <code>WorkStealingDemultiplexer</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>WorkStealingDemultiplexer</code>
+	 */
+	public WorkStealingDemultiplexer(Class<E> klass, int numberOfConsumers) {
+		this(Builder.createBuilder(klass), numberOfConsumers);
+	}
+	
+	@Override
+	public final Consumer<E> getConsumer(int index) {
+		if (index >= numberOfConsumers) {
+			throw new RuntimeException("Tried to get a consumer with a bad index: " + index);
+		}
+		return consumers[index];
+	}
+	
+	/**
+	 * Return how many messages the given consumer has stolen from the queues of the other consumers. Any thread can call this method.
+	 * 
+	 * @param consumer the consumer index
+	 * @return the number of messages stolen
+	 */
+	public final long getStolenCount(int consumer) {
+		return stolenCounts.get(consumer);
+	}
+	
+	/**
+	 * Return how many messages were stolen from the queue of the given consumer by the other consumers. Any thread can call this method.
+	 * 
+	 * @param consumer the consumer index
+	 * @return the number of messages lost to other consumers
+	 */
+	public final long getLostCount(int consumer) {
+		return lostCounts.get(consumer);
+	}
+	
+	@Override
+	public final void clear() {
+		currLaneToDispatch = 0;
+		for(int i = 0; i < numberOfConsumers; i++) {
+			Lane<E> lane = lanes[i];
+			lane.offerSequence.set(0);
+			lane.claimSequence.set(0);
+			for(int j = 0; j < capacity; j++) lane.doneEnds.set(j, 0);
+			lane.lastOfferedSeq = 0;
+			lane.doneSeq = 0;
+			lane.maxSeqBeforeWrapping = capacity;
+			lane.needsToFlush = false;
+			Owner owner = owners[i];
+			owner.window.start = 1;
+			owner.window.end = owner.window.lastFetchedSeq = 0;
+			owner.availableEnd = 0;
+			owner.stolen.lane = -1;
+			owner.nextVictim = i;
+			stolenCounts.set(i, 0);
+			lostCounts.set(i, 0);
+		}
+	}
+	
+	private final int calcIndex(long value) {
+		return (int) ((value - 1) & capacityMinusOne);
+	}
+	
+	private final E nextToDispatch(Lane<E> lane) {
+		long seq = lane.lastOfferedSeq + 1;
+		if (seq > lane.maxSeqBeforeWrapping) {
+			// this would wrap the buffer... follow the batches that were done since last time
+			long done = lane.doneSeq;
+			long end;
+			while((end = lane.doneEnds.get(calcIndex(done + 1))) > done) {
+				done = end; // entries left from previous laps are never greater than done
+			}
+			lane.doneSeq = done;
+			lane.maxSeqBeforeWrapping = done + capacity;
+			if (seq > lane.maxSeqBeforeWrapping) return null;
+		}
+		lane.lastOfferedSeq = seq;
+		lane.needsToFlush = true;
+		return lane.data[calcIndex(seq)];
+	}
+	
+	@Override
+	public final E nextToDispatch() {
+		int count = 0;
+		while(count++ < numberOfConsumers) {
+			E e = nextToDispatch(lanes[currLaneToDispatch]);
+			if (++currLaneToDispatch == numberOfConsumers) currLaneToDispatch = 0;
+			if (e != null) return e;
+		}
+		return null;
+	}
+	
+	@Override
+	public final E nextToDispatch(int toConsumerIndex) {
+		
+		if (toConsumerIndex < 0) return nextToDispatch(); // fall back to regular implementation...
+		
+		if (toConsumerIndex >= numberOfConsumers) {
+			throw new RuntimeException("Bad toConsumerIndex: " + toConsumerIndex + " numberOfConsumers=" + numberOfConsumers);
+		}
+		
+		return nextToDispatch(lanes[toConsumerIndex]);
+	}
+	
+	@Override
+	public final void flush(boolean lazySet) {
+		for(int i = 0; i < numberOfConsumers; i++) {
+			Lane<E> lane = lanes[i];
+			if (lane.needsToFlush) {
+				if (lazySet) {
+					lane.offerSequence.lazySet(lane.lastOfferedSeq);
+				} else {
+					lane.offerSequence.set(lane.lastOfferedSeq);
+				}
+				lane.needsToFlush = false;
+			}
+		}
+	}
+	
+	@Override
+	public final void flush() {
+		flush(false);
+	}
+	
+	private final void claimWindow(Owner owner, int laneIndex) {
+		Lane<E> lane = lanes[laneIndex];
+		Claim window = owner.window;
+		while(true) {
+			long claimed = lane.claimSequence.get();
+			// the window can go past what was flushed, the producer keeps filling it and nobody else can take it
+			if (lane.claimSequence.compareAndSet(claimed, claimed + ownerBatchSize)) {
+				// anything between the old window and the new one was stolen
+				window.start = claimed + 1;
+				window.end = claimed + ownerBatchSize;
+				window.lastFetchedSeq = claimed;
+				return;
+			}
+		}
+	}
+	
+	private final long steal(Claim claim, int laneIndex) {
+		Lane<E> lane = lanes[laneIndex];
+		while(true) {
+			long claimed = lane.claimSequence.get();
+			long backlog = lane.offerSequence.get() - claimed;
+			if (backlog < minBacklogToSteal) return 0;
+			long n = (backlog + 1) >> 1; // thieves take half
+			if (lane.claimSequence.compareAndSet(claimed, claimed + n)) {
+				claim.lane = laneIndex;
+				claim.start = claimed + 1;
+				claim.end = claimed + n;
+				claim.lastFetchedSeq = claimed;
+				return n;
+			}
+		}
+	}
+
+	@Override
+	public final long availableToFetch(int consumer) {
+		Owner owner = owners[consumer];
+		Claim stolen = owner.stolen;
+		if (stolen.lane != -1) return stolen.end - stolen.lastFetchedSeq; // still working on the last batch stolen
+		Claim window = owner.window;
+		if (window.start > window.end) claimWindow(owner, consumer); // only when everything in the window is done
+		long offered = lanes[consumer].offerSequence.get();
+		owner.availableEnd = Math.min(offered, window.end);
+		long n = owner.availableEnd - window.lastFetchedSeq;
+		if (n > 0) return n;
+		if (window.lastFetchedSeq >= window.start || numberOfConsumers == 1) return 0; // don't steal before what was fetched is done
+		// nothing to do, try one sibling so an idle poll stays cheap
+		int victim = owner.nextVictim + 1;
+		if (victim == numberOfConsumers) victim = 0;
+		if (victim == consumer && ++victim == numberOfConsumers) victim = 0;
+		owner.nextVictim = victim;
+		n = steal(stolen, victim);
+		if (n > 0) {
+			stolenCounts.lazySet(consumer, stolenCounts.get(consumer) + n);
+			lostCounts.addAndGet(victim, n);
+		}
+		return n;
+	}
+	
+	@Override
+	public final E fetch(int consumer) {
+		Owner owner = owners[consumer];
+		Claim stolen = owner.stolen;
+		if (stolen.lane != -1) {
+			if (stolen.lastFetchedSeq == stolen.end) return null;
+			return lanes[stolen.lane].data[calcIndex(++stolen.lastFetchedSeq)];
+		}
+		Claim window = owner.window;
+		if (window.lastFetchedSeq == owner.availableEnd) return null;
+		return lanes[consumer].data[calcIndex(++window.lastFetchedSeq)];
+	}
+	
+	@Override
+	public final void replace(int consumer, E newVal) {
+		Owner owner = owners[consumer];
+		Claim claim = owner.stolen.lane != -1 ? owner.stolen : owner.window;
+		lanes[claim.lane].data[calcIndex(claim.lastFetchedSeq)] = newVal;
+	}
+	
+	@Override
+	public final void doneFetching(int consumer, boolean lazySet) {
+		Owner owner = owners[consumer];
+		Claim claim = owner.stolen.lane != -1 ? owner.stolen : owner.window;
+		if (claim.lastFetchedSeq < claim.start) return; // nothing fetched
+		AtomicLongArray doneEnds = lanes[claim.lane].doneEnds;
+		if (lazySet) {
+			doneEnds.lazySet(calcIndex(claim.start), claim.lastFetchedSeq);
+		} else {
+			doneEnds.set(calcIndex(claim.start), claim.lastFetchedSeq);
+		}
+		claim.start = claim.lastFetchedSeq + 1; // keep the rest of the batch for the next availableToFetch
+		if (claim == owner.stolen && claim.lastFetchedSeq == claim.end) claim.lane = -1;
+	}
+	
+	@Override
+	public final void doneFetching(int consumer) {
+		doneFetching(consumer, false);
+	}
+
+	@Override
+	public final int getNumberOfConsumers() {
+		return numberOfConsumers;
+	}
+}
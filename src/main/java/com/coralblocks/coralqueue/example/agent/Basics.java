@@ -0,0 +1,200 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.example.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.coralblocks.coralqueue.agent.Agent;
+import com.coralblocks.coralqueue.agent.AgentRunner;
+import com.coralblocks.coralqueue.agent.CompositeAgent;
+import com.coralblocks.coralqueue.queue.AtomicQueue;
+import com.coralblocks.coralqueue.queue.Queue;
+import com.coralblocks.coralqueue.waitstrategy.BusySpinParkBackOffWaitStrategy;
+
+public class Basics {
+	
+	public static class Message {
+		long value;
+		boolean last;
+	}
+	
+	public static class Producer extends Thread {
+		
+		private final Queue<Message>[] queues;
+		private final int messagesToSend;
+		private final int batchSizeToSend;
+		private long busySpinCount = 0;
+		
+		public Producer(Queue<Message>[] queues, int messagesToSend, int batchSizeToSend) {
+			super(Producer.class.getSimpleName()); // name of the thread
+			this.queues = queues;
+			this.messagesToSend = messagesToSend;
+			this.batchSizeToSend = batchSizeToSend;
+		}
+		
+		public long getBusySpinCount() {
+			return busySpinCount;
+		}
+		
+		@Override
+		public final void run() {
+			int idToSend = 1;
+			int remaining = messagesToSend;
+			while(remaining > 0) {
+				int batchToSend = Math.min(batchSizeToSend, remaining);
+				for(int q = 0; q < queues.length; q++) { // same batch to every queue
+					for(int i = 0; i < batchToSend; i++) {
+						Message m;
+						while((m = queues[q].nextToDispatch()) == null) { // <=========
+							// busy spin while waiting (default and fastest wait strategy)
+							busySpinCount++; // save the number of busy-spins, just for extra info later
+						}
+						m.value = idToSend + i; // sending an unique value so the messages sent are unique
+						m.last = m.value == messagesToSend; // is it the last message I'll be sending?
+					}
+					queues[q].flush(); // <=========
+				}
+				idToSend += batchToSend;
+				remaining -= batchToSend;
+			}
+		}
+	}
+	
+	public static class ConsumerAgent implements Agent {
+		
+		private final Queue<Message> queue;
+		private final int index;
+		private final List<Long> messagesReceived = new ArrayList<Long>();
+		private final List<Long> batchesReceived = new ArrayList<Long>();
+		private boolean isDone = false;
+		
+		public ConsumerAgent(Queue<Message> queue, int index) {
+			this.queue = queue;
+			this.index = index;
+		}
+		
+		public List<Long> getMessagesReceived() {
+			return messagesReceived;
+		}
+		
+		public List<Long> getBatchesReceived() {
+			return batchesReceived;
+		}
+		
+		public boolean isDone() {
+			return isDone;
+		}
+		
+		@Override
+		public int doWork() {
+			long avail = queue.availableToFetch(); // <=========
+			if (avail == 0) return 0; // nothing to do, the runner thread will call await() on its wait strategy if all agents are idle
+			for(long i = 0; i < avail; i++) {
+				Message m = queue.fetch(); // <=========
+				messagesReceived.add(m.value); // save just the long value from this message
+				if (m.last) isDone = true; // I'm done!
+			}
+			queue.doneFetching(); // <=========
+			batchesReceived.add(avail); // save the batch sizes received, just so we can double check
+			return (int) avail;
+		}
+		
+		@Override
+		public String getName() {
+			return ConsumerAgent.class.getSimpleName() + "-" + index;
+		}
+	}
+	
+	public static class DoneAgent implements Agent {
+		
+		private final ConsumerAgent[] agents;
+		private AgentRunner runner;
+		
+		public DoneAgent(ConsumerAgent[] agents) {
+			this.agents = agents;
+		}
+		
+		public void setRunner(AgentRunner runner) {
+			this.runner = runner;
+		}
+		
+		@Override
+		public int doWork() {
+			for(int i = 0; i < agents.length; i++) {
+				if (!agents[i].isDone()) return 0;
+			}
+			runner.close(); // all consumers received their last message
+			return 0;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws InterruptedException {
+		
+		final int messagesToSend = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		final int batchSizeToSend = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		final int numberOfQueues = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		
+		Queue<Message>[] queues = (Queue<Message>[]) new Queue[numberOfQueues];
+		ConsumerAgent[] consumers = new ConsumerAgent[numberOfQueues];
+		Agent[] agents = new Agent[numberOfQueues + 1];
+		for(int i = 0; i < numberOfQueues; i++) {
+			queues[i] = new AtomicQueue<Message>(Message.class);
+			agents[i] = consumers[i] = new ConsumerAgent(queues[i], i);
+		}
+		DoneAgent doneAgent = new DoneAgent(consumers);
+		agents[numberOfQueues] = doneAgent;
+		
+		// all consumers in one single thread
+		AgentRunner runner = new AgentRunner(new CompositeAgent("Consumers", agents), new BusySpinParkBackOffWaitStrategy());
+		doneAgent.setRunner(runner);
+		
+		Producer producer = new Producer(queues, messagesToSend, batchSizeToSend);
+		
+		System.out.println("Producer will send " + messagesToSend + " messages in batches of " + batchSizeToSend + " messages to each one of the "
+							+ numberOfQueues + " queues...\n");
+		
+		runner.start();
+		producer.start();
+		
+		producer.join();
+		System.out.println("Thread " + producer.getName() + " done and exited...");
+		
+		runner.join();
+		System.out.println("Thread " + runner.getThread().getName() + " done and exited...");
+		
+		System.out.println();
+		
+		for(int i = 0; i < numberOfQueues; i++) {
+			
+			List<Long> messagesReceived = consumers[i].getMessagesReceived();
+			List<Long> batchesReceived = consumers[i].getBatchesReceived();
+			
+			// Did we receive all messages?
+			if (messagesReceived.size() == messagesToSend) System.out.println("SUCCESS: All messages received by " + consumers[i].getName() + "! => " + messagesToSend);
+			else System.out.println("ERROR: Wrong number of messages received by " + consumers[i].getName() + "! => " + messagesReceived.size());
+			
+			// If we sum all batches received do we get the correct number of messages?
+			long sumOfAllBatches = batchesReceived.stream().mapToLong(Long::longValue).sum();
+			if (sumOfAllBatches != messagesToSend) System.out.println("ERROR: The sum of messages from the batches received is incorrect! => " + sumOfAllBatches);
+		}
+		
+		System.out.println("\nMore info:\n");
+		
+		System.out.println("Producer busy-spin count: " + producer.getBusySpinCount());
+	}
+}
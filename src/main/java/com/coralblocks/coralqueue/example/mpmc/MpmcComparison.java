@@ -0,0 +1,110 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.example.mpmc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.coralblocks.coralqueue.mpmc.AtomicMpMc;
+import com.coralblocks.coralqueue.mpmc.Consumer;
+import com.coralblocks.coralqueue.mpmc.MpMc;
+import com.coralblocks.coralqueue.mpmc.MpmcQueue;
+import com.coralblocks.coralqueue.mpmc.Producer;
+
+/**
+ * <p>Compares the throughput of the {@link AtomicMpMc} (one queue per producer and consumer pair) against the {@link MpmcQueue} (one queue shared by all)
+ * with 1, 2 and 4 producers and consumers. Each producer sends the same number of messages in batches and the consumers fetch them all.</p>
+ *
+ * <p>Numbers are only meaningful on a machine with at least as many cores as threads.</p>
+ */
+public class MpmcComparison {
+	
+	public static class Message {
+		long value;
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		
+		final int messagesToSend = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final int batchSizeToSend = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		final int[] numbers = { 1, 2, 4 };
+		
+		for(int numberOfProducers : numbers) {
+			for(int numberOfConsumers : numbers) {
+				long composedTime = run(new AtomicMpMc<Message>(Message.class, numberOfProducers, numberOfConsumers), messagesToSend, batchSizeToSend);
+				long sharedTime = run(new MpmcQueue<Message>(Message.class, numberOfProducers, numberOfConsumers), messagesToSend, batchSizeToSend);
+				long total = (long) messagesToSend * numberOfProducers;
+				System.out.println("producers=" + numberOfProducers + " consumers=" + numberOfConsumers
+								   + " AtomicMpMc=" + (total * 1_000_000_000L / composedTime) + " msgs/sec"
+								   + " MpmcQueue=" + (total * 1_000_000_000L / sharedTime) + " msgs/sec");
+			}
+		}
+	}
+	
+	private static long run(final MpMc<Message> mpmc, final int messagesToSend, final int batchSizeToSend) throws InterruptedException {
+		
+		final int numberOfProducers = mpmc.getNumberOfProducers();
+		final int numberOfConsumers = mpmc.getNumberOfConsumers();
+		final long totalMessagesToReceive = (long) messagesToSend * numberOfProducers;
+		final AtomicLong totalReceived = new AtomicLong(0);
+		
+		Thread[] threads = new Thread[numberOfProducers + numberOfConsumers];
+		
+		for(int i = 0; i < numberOfProducers; i++) {
+			final Producer<Message> producer = mpmc.getProducer(i);
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int remaining = messagesToSend;
+					while(remaining > 0) {
+						int batchToSend = Math.min(batchSizeToSend, remaining);
+						for(int j = 0; j < batchToSend; j++) {
+							Message m;
+							while((m = producer.nextToDispatch()) == null); // busy spin
+							m.value = remaining - j;
+						}
+						producer.flush();
+						remaining -= batchToSend;
+					}
+				}
+			}, "Producer-" + i);
+		}
+		
+		for(int i = 0; i < numberOfConsumers; i++) {
+			final Consumer<Message> consumer = mpmc.getConsumer(i);
+			threads[numberOfProducers + i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long sum = 0;
+					while(totalReceived.get() < totalMessagesToReceive) {
+						long avail = consumer.availableToFetch();
+						if (avail == 0) continue; // busy spin
+						for(long j = 0; j < avail; j++) {
+							sum += consumer.fetch().value;
+						}
+						consumer.doneFetching();
+						totalReceived.addAndGet(avail);
+					}
+					if (sum == 0) System.out.println(); // so the JIT does not discard the loop
+				}
+			}, "Consumer-" + i);
+		}
+		
+		long start = System.nanoTime();
+		for(Thread t : threads) t.start();
+		for(Thread t : threads) t.join();
+		return System.nanoTime() - start;
+	}
+}
@@ -31,6 +31,14 @@ public class Basics {
 		long value;
 		boolean last;
 		
+		public int getProducerIndex() {
+			return producerIndex;
+		}
+		
+		public long getValue() {
+			return value;
+		}
+		
 		@Override
 		public int hashCode() {
 		    return PRIME * (PRIME + producerIndex) + (int) (value ^ (value >>> 32));
@@ -0,0 +1,71 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.example.multiplexer;
+
+import com.coralblocks.coralqueue.multiplexer.AtomicMultiplexer;
+import com.coralblocks.coralqueue.multiplexer.FetchPolicy;
+
+/**
+ * <p>Measures how fast the consumer of an {@link AtomicMultiplexer} drains its producers with each {@link FetchPolicy}. The lanes are filled up front by the same thread
+ * so that only the consumer side is measured: switching lanes on every message (round-robin) touches a different queue, and so a different cache line, on every fetch,
+ * while reading each lane in batches does not.</p>
+ */
+public class FetchPolicies {
+	
+	public static class Message {
+		long value;
+		long padding1, padding2, padding3, padding4, padding5, padding6, padding7; // one cache line per message
+	}
+	
+	public static void main(String[] args) {
+		
+		final int numberOfProducers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		final int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		
+		int[] weights = new int[numberOfProducers];
+		for(int i = 0; i < numberOfProducers; i++) weights[i] = i % 2 == 0 ? 64 : 16;
+		
+		FetchPolicy[] fetchPolicies = { FetchPolicy.roundRobin(), FetchPolicy.batch(16), FetchPolicy.batch(64), FetchPolicy.weighted(weights), FetchPolicy.priority() };
+		
+		for(int round = 0; round < 2; round++) { // first round is warmup
+			for(FetchPolicy fetchPolicy : fetchPolicies) {
+				AtomicMultiplexer<Message> mux = new AtomicMultiplexer<Message>(capacity, Message.class, numberOfProducers, fetchPolicy);
+				long totalTime = 0;
+				long sum = 0;
+				for(int i = 0; i < iterations; i++) {
+					for(int p = 0; p < numberOfProducers; p++) {
+						for(int j = 0; j < capacity; j++) {
+							mux.nextToDispatch(p).value = j;
+						}
+						mux.flush(p);
+					}
+					long start = System.nanoTime();
+					long avail = mux.availableToFetch();
+					for(long j = 0; j < avail; j++) {
+						sum += mux.fetch().value;
+					}
+					mux.doneFetching();
+					totalTime += System.nanoTime() - start;
+				}
+				if (round == 1) {
+					long messages = (long) iterations * numberOfProducers * capacity;
+					System.out.println(fetchPolicy + ": " + String.format("%.2f", (double) totalTime / messages) + " nanos per message" + (sum == 0 ? "!" : ""));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.example.multiplexer;
+
+import com.coralblocks.coralqueue.multiplexer.AtomicMultiplexer;
+import com.coralblocks.coralqueue.multiplexer.MpscQueue;
+import com.coralblocks.coralqueue.multiplexer.Multiplexer;
+
+/**
+ * <p>Compares the throughput of the {@link AtomicMultiplexer} (one queue per producer) against the {@link MpscQueue} (one queue shared by all producers)
+ * with 2, 4, 8 and 16 producers. Each producer sends the same number of messages in batches and the consumer fetches them all.</p>
+ *
+ * <p>Note that producers contend on the same claim sequence in the {@link MpscQueue}, so it trades throughput for memory and global ordering.
+ * Numbers are only meaningful on a machine with at least as many cores as threads.</p>
+ */
+public class MpscComparison {
+	
+	public static class Message {
+		long value;
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		
+		final int messagesToSend = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		final int batchSizeToSend = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		final int[] numbersOfProducers = { 2, 4, 8, 16 };
+		
+		for(int numberOfProducers : numbersOfProducers) {
+			long muxTime = run(new AtomicMultiplexer<Message>(Message.class, numberOfProducers), messagesToSend, batchSizeToSend);
+			long mpscTime = run(new MpscQueue<Message>(Message.class, numberOfProducers), messagesToSend, batchSizeToSend);
+			long total = (long) messagesToSend * numberOfProducers;
+			System.out.println("producers=" + numberOfProducers
+							   + " AtomicMultiplexer=" + (total * 1_000_000_000L / muxTime) + " msgs/sec"
+							   + " MpscQueue=" + (total * 1_000_000_000L / mpscTime) + " msgs/sec");
+		}
+	}
+	
+	private static long run(final Multiplexer<Message> mux, final int messagesToSend, final int batchSizeToSend) throws InterruptedException {
+		
+		final int numberOfProducers = mux.getNumberOfProducers();
+		final long totalMessagesToReceive = (long) messagesToSend * numberOfProducers;
+		
+		Thread[] producers = new Thread[numberOfProducers];
+		for(int i = 0; i < numberOfProducers; i++) {
+			final int producerIndex = i;
+			producers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int remaining = messagesToSend;
+					while(remaining > 0) {
+						int batchToSend = Math.min(batchSizeToSend, remaining);
+						for(int j = 0; j < batchToSend; j++) {
+							Message m;
+							while((m = mux.nextToDispatch(producerIndex)) == null); // busy spin
+							m.value = remaining - j;
+						}
+						mux.flush(producerIndex);
+						remaining -= batchToSend;
+					}
+				}
+			}, "Producer-" + i);
+		}
+		
+		long start = System.nanoTime();
+		
+		for(int i = 0; i < numberOfProducers; i++) producers[i].start();
+		
+		long received = 0;
+		long sum = 0;
+		while(received < totalMessagesToReceive) {
+			long avail = mux.availableToFetch();
+			if (avail == 0) continue; // busy spin
+			for(long i = 0; i < avail; i++) {
+				sum += mux.fetch().value;
+			}
+			mux.doneFetching();
+			received += avail;
+		}
+		
+		long time = System.nanoTime() - start;
+		
+		for(int i = 0; i < numberOfProducers; i++) producers[i].join();
+		
+		if (sum == 0) System.out.println(); // so the JIT does not discard the loop
+		
+		return time;
+	}
+}
@@ -0,0 +1,134 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.example.waitstrategy;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+import com.coralblocks.coralqueue.queue.AtomicQueue;
+import com.coralblocks.coralqueue.queue.Queue;
+import com.coralblocks.coralqueue.waitstrategy.VirtualThreadWaitStrategy;
+
+/**
+ * <p>Compares busy-spinning platform threads against virtual threads parked with a {@link VirtualThreadWaitStrategy} when you have many mostly-idle queues,
+ * each one with its own consumer. A single producer thread sends messages at a low rate to all queues, round-robin, and we measure the average latency
+ * and the CPU time used by the process.</p>
+ *
+ * <p>Run with <code>spin</code> or <code>virtual</code> as the first argument. Virtual threads need Java 21 or later at runtime, otherwise platform threads
+ * are used with the same wait strategy.</p>
+ */
+public class ManyIdleQueues {
+
+	public static class Message {
+		long sentTime;
+		boolean last;
+	}
+
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch(Exception e) {
+			return null; // not supported in this Java version
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+
+		final boolean virtual = args.length > 0 ? args[0].equals("virtual") : true;
+		final int numberOfQueues = args.length > 1 ? Integer.parseInt(args[1]) : (virtual ? 1000 : Runtime.getRuntime().availableProcessors() - 1);
+		final int messagesPerQueue = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		final long intervalInNanos = args.length > 3 ? Long.parseLong(args[3]) : 10_000;
+
+		final Queue<Message>[] queues = createQueues(numberOfQueues);
+		final VirtualThreadWaitStrategy[] waitStrategies = new VirtualThreadWaitStrategy[numberOfQueues];
+		final long[] totalLatency = new long[numberOfQueues];
+		final Thread[] consumers = new Thread[numberOfQueues];
+
+		ThreadFactory threadFactory = virtual ? virtualThreadFactory() : null;
+
+		System.out.println("Consumers: " + numberOfQueues + " " + (virtual ? (threadFactory != null ? "virtual threads (parking)" : "platform threads (parking)") : "platform threads (busy spinning)"));
+
+		long cpuTimeAtStart = getProcessCpuTime();
+
+		for(int i = 0; i < numberOfQueues; i++) {
+			final int index = i;
+			final VirtualThreadWaitStrategy waitStrategy = virtual ? new VirtualThreadWaitStrategy() : null;
+			waitStrategies[i] = waitStrategy;
+			Runnable consumer = new Runnable() {
+				@Override
+				public void run() {
+					Queue<Message> queue = queues[index];
+					boolean isRunning = true;
+					while(isRunning) {
+						long avail = queue.availableToFetch();
+						if (avail == 0) {
+							if (waitStrategy != null) waitStrategy.await();
+							continue;
+						}
+						if (waitStrategy != null) waitStrategy.reset();
+						long now = System.nanoTime();
+						for(long x = 0; x < avail; x++) {
+							Message m = queue.fetch();
+							totalLatency[index] += now - m.sentTime;
+							if (m.last) isRunning = false;
+						}
+						queue.doneFetching();
+					}
+				}
+			};
+			consumers[i] = threadFactory != null ? threadFactory.newThread(consumer) : new Thread(consumer, "Consumer-" + i);
+			consumers[i].start();
+		}
+
+		for(int j = 0; j < messagesPerQueue; j++) {
+			for(int i = 0; i < numberOfQueues; i++) {
+				Message m;
+				while((m = queues[i].nextToDispatch()) == null); // busy spin
+				m.sentTime = System.nanoTime();
+				m.last = j == messagesPerQueue - 1;
+				queues[i].flush();
+				if (waitStrategies[i] != null) waitStrategies[i].signal(); // wake up the consumer
+				LockSupport.parkNanos(intervalInNanos);
+			}
+		}
+
+		for(int i = 0; i < numberOfQueues; i++) consumers[i].join();
+
+		long cpuTime = getProcessCpuTime() - cpuTimeAtStart;
+
+		long latency = 0;
+		for(int i = 0; i < numberOfQueues; i++) latency += totalLatency[i];
+
+		System.out.println("Messages: " + ((long) numberOfQueues * messagesPerQueue));
+		System.out.println("Average latency: " + (latency / ((long) numberOfQueues * messagesPerQueue)) + " nanos");
+		System.out.println("Process CPU time: " + (cpuTime / 1_000_000) + " millis");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Queue<Message>[] createQueues(int numberOfQueues) {
+		Queue<Message>[] queues = (Queue<Message>[]) new Queue[numberOfQueues];
+		for(int i = 0; i < numberOfQueues; i++) {
+			queues[i] = new AtomicQueue<Message>(64, Message.class);
+		}
+		return queues;
+	}
+
+	private static long getProcessCpuTime() {
+		return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+	}
+}
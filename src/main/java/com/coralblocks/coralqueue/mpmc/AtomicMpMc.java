@@ -16,12 +16,25 @@
 package com.coralblocks.coralqueue.mpmc;
 
 import com.coralblocks.coralqueue.demultiplexer.AtomicDemultiplexer;
-import com.coralblocks.coralqueue.demultiplexer.Demultiplexer;
 import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.Doorbell;
 
 /**
- * An implementation of {@link MpMc} that uses <i>memory barriers</i> to synchronize producers and consumers threads.
- * Two different consumers will never fetch the same message.
+ * <p>An implementation of {@link MpMc} that uses <i>memory barriers</i> to synchronize producers and consumers threads.
+ * Two different consumers will never fetch the same message.</p>
+ * 
+ * <p>Messages can be routed by a <code>long</code> key with {@link #nextToDispatchForKey(int, long)} so that all the messages of a key sent by a producer go to the same consumer, in order.
+ * All producers use the same assignment of keys to consumers, so a key goes to the same consumer no matter which producer sends it. There is no load rebalancing here because
+ * each producer would move its keys on its own. Keys only move when their consumer is deactivated, and every producer moves them to the same active consumer.
+ * See {@link AtomicDemultiplexer#nextToDispatchForKey(long)} for the details.</p>
+ * 
+ * <p>The number of consumers working can change while it runs: {@link #deactivateConsumer(int)} makes all producers stop sending messages to a consumer, which keeps
+ * fetching until {@link #isDrained(int)} returns true and then can stop (e.g. park its thread). {@link #activateConsumer(int)} brings it back.
+ * Producers see the change on their next flush.</p>
+ * 
+ * <p>With <i>sparse polling</i> each producer also rings a {@link Doorbell} of the consumer when it flushes to it, and the consumer only reads the producers that rang it
+ * (plus the ones it did not fully drain). An idle consumer then pays one volatile read per poll instead of one per producer, which matters when you have many producers.
+ * The price is a CAS on the doorbell for the producer, when the consumer has already taken the previous ring.</p>
  *
  * @param <E> The data transfer mutable object to be used by this mpmc
  */
@@ -29,9 +42,9 @@ public class AtomicMpMc<E> implements MpMc<E> {
 	
 	public static final int DEFAULT_CAPACITY = 1024;
 	
-	private final Demultiplexer<E>[] demuxes;
-	private final Producer<E>[] producers;
-	private final Consumer<E>[] consumers;
+	private final AtomicDemultiplexer<E>[] demuxes;
+	private final LaneProducer<E>[] producers;
+	private final LaneConsumer<E>[] consumers;
 	
 	/**
 	 * Creates an <code>AtomicMpMc</code> with the default capacity (1024) and number of consumers and producers using the given class to populate it.
@@ -75,15 +88,48 @@ public class AtomicMpMc<E> implements MpMc<E> {
 	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMc</code>
 	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicMpMc</code>
 	 */
-	@SuppressWarnings("unchecked")
     public AtomicMpMc(int capacity, Builder<E> builder, int numberOfProducers, int numberOfConsumers) {
-		this.demuxes = (Demultiplexer<E>[]) new Demultiplexer[numberOfProducers];
-		this.producers = (Producer<E>[]) new Producer[numberOfProducers];
-		this.consumers = (Consumer<E>[]) new Consumer[numberOfConsumers];
+		this(capacity, builder, numberOfProducers, numberOfConsumers, false);
+	}
+	
+	/**
+	 * Creates an <code>AtomicMpMc</code> with the given capacity and number of consumers and producers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMpMc</code>
+	 * @param klass the class used to populate the <code>AtomicMpMc</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMc</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicMpMc</code>
+	 * @param sparsePolling true to have consumers only read the producers that rang their doorbell
+	 */
+	public AtomicMpMc(int capacity, Class<E> klass, int numberOfProducers, int numberOfConsumers, boolean sparsePolling) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers, numberOfConsumers, sparsePolling);
+	}
+	
+	/**
+	 * Creates an <code>AtomicMpMc</code> with the given capacity and number of consumers and producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMpMc</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicMpMc</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMc</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicMpMc</code>
+	 * @param sparsePolling true to have consumers only read the producers that rang their doorbell
+	 */
+	@SuppressWarnings("unchecked")
+	public AtomicMpMc(int capacity, Builder<E> builder, int numberOfProducers, int numberOfConsumers, boolean sparsePolling) {
+		this.demuxes = (AtomicDemultiplexer<E>[]) new AtomicDemultiplexer[numberOfProducers];
+		this.producers = (LaneProducer<E>[]) new LaneProducer[numberOfProducers];
+		this.consumers = (LaneConsumer<E>[]) new LaneConsumer[numberOfConsumers];
+		
+		Doorbell[] doorbells = null;
+		if (sparsePolling) {
+			doorbells = new Doorbell[numberOfConsumers];
+			for(int i = 0; i < numberOfConsumers; i++) doorbells[i] = new Doorbell(numberOfProducers);
+		}
 		
 		for(int i = 0; i < numberOfProducers; i++) {
-			this.demuxes[i] = new AtomicDemultiplexer<E>(builder, numberOfConsumers);
-			this.producers[i] = new Producer<E>(this.demuxes[i], i);
+			this.demuxes[i] = new AtomicDemultiplexer<E>(capacity, builder, numberOfConsumers);
+			if (doorbells != null) this.demuxes[i].setDoorbells(doorbells, i);
+			this.producers[i] = new LaneProducer<E>(this.demuxes[i], i);
 		}
 		
 		for(int i = 0; i < numberOfConsumers; i++) {
@@ -92,7 +138,7 @@ public class AtomicMpMc<E> implements MpMc<E> {
 			for(int j = 0; j < this.demuxes.length; j++) {
 				c[index++] = this.demuxes[j].getConsumer(i);
 			}
-			this.consumers[i] = new Consumer<E>(c, i);
+			this.consumers[i] = new LaneConsumer<E>(c, i, doorbells != null ? doorbells[i] : null);
 		}
 	}
 	
@@ -105,54 +151,128 @@ public class AtomicMpMc<E> implements MpMc<E> {
 	
 	@Override
 	public final E nextToDispatch(int producerIndex) {
-		Producer<E> producer = getProducer(producerIndex);
+		LaneProducer<E> producer = getProducer(producerIndex);
 		return producer.nextToDispatch();
 	}
 	
 	@Override
 	public final E nextToDispatch(int producerIndex, int toConsumerIndex) {
-		Producer<E> producer = getProducer(producerIndex);
+		LaneProducer<E> producer = getProducer(producerIndex);
 		return producer.nextToDispatch(toConsumerIndex);
 	}
 	
+	/**
+	 * Return the next object to be dispatched by the given producer to the consumer of the given key. See {@link AtomicDemultiplexer#nextToDispatchForKey(long)} for more details.
+	 * 
+	 * @param producerIndex the producer index
+	 * @param key the key of the message
+	 * @return the next object to dispatch or null if the queue is full or the key is being moved
+	 */
+	public final E nextToDispatchForKey(int producerIndex, long key) {
+		getProducer(producerIndex); // check index
+		return demuxes[producerIndex].nextToDispatchForKey(key);
+	}
+	
+	/**
+	 * Return the consumer that currently receives the messages with the given key from the given producer.
+	 * 
+	 * @param producerIndex the producer index
+	 * @param key the key
+	 * @return the consumer index
+	 */
+	public final int getConsumerForKey(int producerIndex, long key) {
+		getProducer(producerIndex); // check index
+		return demuxes[producerIndex].getConsumerForKey(key);
+	}
+	
+	/**
+	 * Make all producers stop sending messages to the given consumer. It takes effect for each producer on its next flush. This method can be called by any thread.
+	 * 
+	 * @param consumerIndex the consumer index
+	 */
+	public final void deactivateConsumer(int consumerIndex) {
+		getConsumer(consumerIndex); // check index
+		for(int i = 0; i < demuxes.length; i++) {
+			demuxes[i].deactivateConsumer(consumerIndex);
+		}
+	}
+	
+	/**
+	 * Make all producers send messages to the given consumer again. It takes effect for each producer on its next flush. This method can be called by any thread.
+	 * 
+	 * @param consumerIndex the consumer index
+	 */
+	public final void activateConsumer(int consumerIndex) {
+		getConsumer(consumerIndex); // check index
+		for(int i = 0; i < demuxes.length; i++) {
+			demuxes[i].activateConsumer(consumerIndex);
+		}
+	}
+	
+	/**
+	 * Return true if the given consumer is active, in other words, if it was not deactivated.
+	 * 
+	 * @param consumerIndex the consumer index
+	 * @return true if the consumer is active
+	 */
+	public final boolean isActive(int consumerIndex) {
+		getConsumer(consumerIndex); // check index
+		return demuxes[0].isActive(consumerIndex);
+	}
+	
+	/**
+	 * Return true if the given consumer was deactivated, all producers have seen it and the consumer has fetched everything that was sent to it.
+	 * See {@link AtomicDemultiplexer#isDrained(int)} for more details.
+	 * 
+	 * @param consumerIndex the consumer index
+	 * @return true if the consumer is deactivated and has nothing else to fetch
+	 */
+	public final boolean isDrained(int consumerIndex) {
+		getConsumer(consumerIndex); // check index
+		for(int i = 0; i < demuxes.length; i++) {
+			if (!demuxes[i].isDrained(consumerIndex)) return false;
+		}
+		return true;
+	}
+	
 	@Override
 	public final void flush(int producerIndex, boolean lazySet) {
-		Producer<E> producer = getProducer(producerIndex);
+		LaneProducer<E> producer = getProducer(producerIndex);
 		producer.flush(lazySet);
 	}
 	
 	@Override
 	public final void flush(int producerIndex) {
-		Producer<E> producer = getProducer(producerIndex);
+		LaneProducer<E> producer = getProducer(producerIndex);
 		producer.flush();
 	}
 	
 	@Override
 	public final long availableToFetch(int consumerIndex) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		return consumer.availableToFetch();
 	}
 	
 	@Override
 	public final E fetch(int consumerIndex) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		return consumer.fetch();
 	}
 	
 	@Override
 	public final void doneFetching(int consumerIndex, boolean lazySet) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		consumer.doneFetching(lazySet);
 	}
 	
 	@Override
 	public final void doneFetching(int consumerIndex) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		consumer.doneFetching();
 	}
 	
 	@Override
-	public final Producer<E> getProducer(int index) {
+	public final LaneProducer<E> getProducer(int index) {
 		if (index >= producers.length) {
 			throw new RuntimeException("Tried to get a producer with a bad index: " + index);
 		}
@@ -160,7 +280,7 @@ public class AtomicMpMc<E> implements MpMc<E> {
 	}
 	
 	@Override
-	public final Consumer<E> getConsumer(int index) {
+	public final LaneConsumer<E> getConsumer(int index) {
 		if (index >= consumers.length) {
 			throw new RuntimeException("Tried to get a consumer with a bad index: " + index);
 		}
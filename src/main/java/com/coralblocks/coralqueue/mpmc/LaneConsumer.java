@@ -0,0 +1,165 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmc;
+
+import com.coralblocks.coralqueue.util.Doorbell;
+
+/**
+ * The consumer holder for the {@link AtomicMpMc}. It contains the demultiplexer {@link com.coralblocks.coralqueue.demultiplexer.Consumer} of each producer (one lane per producer).
+ * 
+ * <p><code>doneFetching()</code> notifies the producers of all the lanes it fetched from with lazy stores and only uses a full memory barrier for the last one, which makes all of them visible.
+ * Under heavy load you can also commit only every N batches with {@link #setBatchesPerCommit(int)}. The commits skipped are done anyway as soon as <code>availableToFetch()</code>
+ * finds nothing to fetch, so producers never wait for a consumer that is idle.</p>
+ * 
+ * @param <E> The data transfer mutable object to be used by this mpmc
+ */
+public final class LaneConsumer<E> extends Consumer<E> {
+	
+	private final com.coralblocks.coralqueue.demultiplexer.Consumer<E>[] consumers;
+	private int currConsumerIndex = 0;
+	private final int nConsumers;
+	private final long[] availToFetch;
+	private final boolean[] needsDoneFetching;
+	private final Doorbell doorbell;
+	private final long[] pendingLanes;
+	private int batchesPerCommit = 1;
+	private int batchesSinceCommit = 0;
+	
+	LaneConsumer(com.coralblocks.coralqueue.demultiplexer.Consumer<E>[] consumers, int index) {
+		this(consumers, index, null);
+	}
+	
+	LaneConsumer(com.coralblocks.coralqueue.demultiplexer.Consumer<E>[] consumers, int index, Doorbell doorbell) {
+		super(index);
+		this.consumers = consumers;
+		this.nConsumers = consumers.length;
+		this.availToFetch = new long[consumers.length];
+		this.needsDoneFetching = new boolean[consumers.length];
+		this.doorbell = doorbell;
+		this.pendingLanes = doorbell != null ? new long[doorbell.getNumberOfWords()] : null;
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#availableToFetch()} for more details.
+	 * 
+	 * @return the number of objects that can be fetched
+	 */
+	@Override
+	public final long availableToFetch() {
+		long total = doorbell != null ? availableToFetchFromRungLanes() : availableToFetchFromAllLanes();
+		if (total == 0 && batchesSinceCommit > 0) commit(false); // idle, so do not make the producers wait for us
+		return total;
+	}
+	
+	private final long availableToFetchFromAllLanes() {
+		long total = 0;
+		for(int i = 0; i < nConsumers; i++) {
+			long x = consumers[i].availableToFetch();
+			availToFetch[i] = x;
+			total += x;
+		}
+		currConsumerIndex = 0;
+		return total;
+	}
+	
+	private final long availableToFetchFromRungLanes() {
+		// only look at the lanes that were rung plus the ones that still had something the last time
+		// (the lanes we do not look at have nothing to fetch and nothing to be done)
+		long total = 0;
+		for(int w = 0; w < pendingLanes.length; w++) {
+			long lanes = pendingLanes[w] | doorbell.take(w);
+			long stillPending = lanes;
+			while(lanes != 0) {
+				int bit = Long.numberOfTrailingZeros(lanes);
+				lanes &= lanes - 1;
+				int i = (w << 6) + bit;
+				long x = consumers[i].availableToFetch();
+				availToFetch[i] = x;
+				total += x;
+				if (x == 0) stillPending &= ~(1L << bit);
+			}
+			pendingLanes[w] = stillPending;
+		}
+		currConsumerIndex = 0;
+		return total;
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#fetch()} for more details.
+	 * 
+	 * @return a data transfer mutable object from the queue
+	 */
+	@Override
+	public final E fetch() {
+		while(true) {
+			if (availToFetch[currConsumerIndex] > 0) {
+				E e = consumers[currConsumerIndex].fetch();
+				needsDoneFetching[currConsumerIndex] = true;
+				if (e == null) {
+					if (++currConsumerIndex == nConsumers) return null;
+				} else {
+					availToFetch[currConsumerIndex]--;
+					return e;
+				}
+			} else {
+				if (++currConsumerIndex == nConsumers) return null;
+			}
+		}
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#doneFetching(boolean)} for more details.
+	 * 
+	 * @param lazySet true to notify the producer in a lazy way or false to notify the producer <b>immediately</b>
+	 */
+	@Override
+	public final void doneFetching(boolean lazySet) {
+		if (++batchesSinceCommit < batchesPerCommit) return;
+		commit(lazySet);
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#doneFetching()} for more details.
+	 */
+	@Override
+	public final void doneFetching() {
+		doneFetching(false);
+	}
+	
+	private final void commit(boolean lazySet) {
+		batchesSinceCommit = 0;
+		int last = -1;
+		for(int i = 0; i < nConsumers; i++) {
+			if (needsDoneFetching[i]) {
+				if (last != -1) consumers[last].doneFetching(true); // the barrier of the last one will make it visible
+				needsDoneFetching[i] = false;
+				last = i;
+			}
+		}
+		if (last != -1) consumers[last].doneFetching(lazySet);
+	}
+	
+	/**
+	 * Only notify the producers of what was fetched every given number of calls to <code>doneFetching()</code>, instead of on every call. It is done anyway when
+	 * <code>availableToFetch()</code> returns zero. It must be called by the consumer thread. Note that the producers can only re-use the objects fetched after they are notified.
+	 * 
+	 * @param batchesPerCommit the number of calls to <code>doneFetching()</code> for each notification (1 to notify on every call, which is the default)
+	 */
+	public final void setBatchesPerCommit(int batchesPerCommit) {
+		if (batchesPerCommit <= 0) throw new IllegalArgumentException("Batches per commit must be positive: " + batchesPerCommit);
+		this.batchesPerCommit = batchesPerCommit;
+	}
+}
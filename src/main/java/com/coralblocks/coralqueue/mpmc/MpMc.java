@@ -46,7 +46,8 @@ public interface MpMc<E> {
 	
 	/**
 	 * <p>Return the next mutable object that can be used by the given producer to dispatch data to the mpmc. The producer thread calling this method must pass its producer index.
-	 * This method allows you to specify the consumer that you want to receive the message.</p>
+	 * This method allows you to specify the consumer that you want to receive the message. An implementation where all consumers share the same queue (e.g. {@link MpmcQueue})
+	 * cannot do that and sends the message to any consumer instead.</p>
 	 * 
 	 * <p>If no object is currently available (i.e. the mpmc is full) this method returns null.</p>
 	 * 
@@ -0,0 +1,282 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.MathUtils;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
+
+/**
+ * <p>An {@link MpMc} implemented as a single circular queue shared by all producers and consumers, instead of one queue per producer and consumer pair like the {@link AtomicMpMc}.
+ * It needs only <code>capacity</code> objects, instead of <code>producers x consumers x capacity</code>, and a consumer polls a single queue, but producers and consumers
+ * contend on the same sequences. Two different consumers will never fetch the same message.</p>
+ *
+ * <p>Each slot has a sequence stamp telling if it is free, published or being consumed. Producers claim slots with a CAS on the tail sequence and publish them on flush by updating their stamps.
+ * Consumers claim a batch of contiguous published slots with a CAS on the head sequence and free them on <code>doneFetching()</code>.</p>
+ *
+ * <p>When the queue is full, <code>nextToDispatch</code> publishes the slots already claimed by the producer before returning null, otherwise producers holding unpublished slots could wait for
+ * each other forever. Messages cannot be sent to a specific consumer, so <code>nextToDispatch(producerIndex, toConsumerIndex)</code> sends them to any consumer, like <code>nextToDispatch(producerIndex)</code>.</p>
+ *
+ * @param <E> The data transfer mutable object to be used by this mpmc
+ */
+public class MpmcQueue<E> implements MpMc<E> {
+	
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	private static final class ProducerState {
+		
+		final long[] sequences;
+		int count = 0;
+		
+		ProducerState(int capacity) {
+			this.sequences = new long[capacity];
+		}
+	}
+	
+	private static final class ConsumerState {
+		
+		long start = 0; // first sequence claimed and not done yet
+		long end = -1; // last sequence claimed
+		long lastFetchedSeq = -1;
+	}
+	
+	private final int capacity;
+	private final int capacityMinusOne;
+	private final E[] data;
+	private final AtomicLongArray stamps; // seq when free for seq, seq + 1 when published, seq + capacity when consumed
+	private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+	private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+	private final ProducerState[] producerStates;
+	private final ConsumerState[] consumerStates;
+	private final SharedProducer<E>[] producers;
+	private final SharedConsumer<E>[] consumers;
+	
+	/**
+	 * Creates a <code>MpmcQueue</code> with the given capacity and number of consumers and producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>MpmcQueue</code>
+	 * @param builder the {@link Builder} used to populate the <code>MpmcQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpmcQueue</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>MpmcQueue</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public MpmcQueue(int capacity, Builder<E> builder, int numberOfProducers, int numberOfConsumers) {
+		MathUtils.ensurePowerOfTwo(capacity);
+		if (capacity < 2) throw new IllegalArgumentException("Capacity must be at least 2: " + capacity); // otherwise published and free stamps would be the same
+		this.capacity = capacity;
+		this.capacityMinusOne = capacity - 1;
+		this.data = (E[]) new Object[capacity];
+		this.stamps = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++) {
+			this.data[i] = builder.newInstance();
+			this.stamps.set(i, i);
+		}
+		this.producerStates = new ProducerState[numberOfProducers];
+		this.producers = (SharedProducer<E>[]) new SharedProducer[numberOfProducers];
+		for(int i = 0; i < numberOfProducers; i++) {
+			producerStates[i] = new ProducerState(capacity);
+			producers[i] = new SharedProducer<E>(this, i);
+		}
+		this.consumerStates = new ConsumerState[numberOfConsumers];
+		this.consumers = (SharedConsumer<E>[]) new SharedConsumer[numberOfConsumers];
+		for(int i = 0; i < numberOfConsumers; i++) {
+			consumerStates[i] = new ConsumerState();
+			consumers[i] = new SharedConsumer<E>(this, i);
+		}
+	}
+	
+	/**
+	 * Creates a <code>MpmcQueue</code> with the default capacity (1024) and number of consumers and producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param builder the {@link Builder} used to populate the <code>MpmcQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpmcQueue</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>MpmcQueue</code>
+	 */
+	public MpmcQueue(Builder<E> builder, int numberOfProducers, int numberOfConsumers) {
+		this(DEFAULT_CAPACITY, builder, numberOfProducers, numberOfConsumers);
+	}
+	
+	/**
+	 * Creates a <code>MpmcQueue</code> with the given capacity and number of consumers and producers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>MpmcQueue</code>
+	 * @param klass the class used to populate the <code>MpmcQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpmcQueue</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>MpmcQueue</code>
+	 */
+	public MpmcQueue(int capacity, Class<E> klass, int numberOfProducers, int numberOfConsumers) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers, numberOfConsumers);
+	}
+	
+	/**
+	 * Creates a <code>MpmcQueue</code> with the default capacity (1024) and number of consumers and producers using the given class to populate it.
+	 * 
+	 * @param klass the class used to populate the <code>MpmcQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpmcQueue</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>MpmcQueue</code>
+	 */
+	public MpmcQueue(Class<E> klass, int numberOfProducers, int numberOfConsumers) {
+		this(DEFAULT_CAPACITY, klass, numberOfProducers, numberOfConsumers);
+	}
+	
+	@Override
+	public final void clear() {
+		tail.set(0);
+		head.set(0);
+		for(int i = 0; i < capacity; i++) {
+			stamps.set(i, i);
+		}
+		for(int i = 0; i < producerStates.length; i++) {
+			producerStates[i].count = 0;
+		}
+		for(int i = 0; i < consumerStates.length; i++) {
+			ConsumerState c = consumerStates[i];
+			c.start = 0;
+			c.end = -1;
+			c.lastFetchedSeq = -1;
+		}
+	}
+	
+	private final int calcIndex(long seq) {
+		return (int) (seq & capacityMinusOne);
+	}
+	
+	@Override
+	public final E nextToDispatch(int producerIndex) {
+		ProducerState p = producerStates[producerIndex];
+		while(true) {
+			long seq = tail.get();
+			if (stamps.get(calcIndex(seq)) != seq) { // not free yet
+				if (seq != tail.get()) continue; // somebody else got it first
+				// the queue is full and the consumers may be waiting for the slots we have claimed, so publish them or all producers could get stuck
+				flush(producerIndex, true);
+				return null;
+			}
+			if (tail.compareAndSet(seq, seq + 1)) {
+				p.sequences[p.count++] = seq;
+				return data[calcIndex(seq)];
+			}
+		}
+	}
+	
+	@Override
+	public final E nextToDispatch(int producerIndex, int toConsumerIndex) {
+		if (toConsumerIndex >= consumers.length) {
+			throw new RuntimeException("Bad toConsumerIndex: " + toConsumerIndex + " numberOfConsumers=" + consumers.length);
+		}
+		return nextToDispatch(producerIndex); // any consumer can fetch it from the shared queue
+	}
+	
+	@Override
+	public final void flush(int producerIndex, boolean lazySet) {
+		ProducerState p = producerStates[producerIndex];
+		int last = p.count - 1;
+		if (last < 0) return;
+		long[] sequences = p.sequences;
+		for(int i = 0; i < last; i++) {
+			long seq = sequences[i];
+			stamps.lazySet(calcIndex(seq), seq + 1);
+		}
+		long seq = sequences[last];
+		if (lazySet) {
+			stamps.lazySet(calcIndex(seq), seq + 1);
+		} else {
+			stamps.set(calcIndex(seq), seq + 1);
+		}
+		p.count = 0;
+	}
+	
+	@Override
+	public final void flush(int producerIndex) {
+		flush(producerIndex, false);
+	}
+	
+	@Override
+	public final long availableToFetch(int consumerIndex) {
+		ConsumerState c = consumerStates[consumerIndex];
+		if (c.end >= c.start) return c.end - c.lastFetchedSeq; // still working on the last batch claimed
+		while(true) {
+			long seq = head.get();
+			long n = 0;
+			while(n < capacity && stamps.get(calcIndex(seq + n)) == seq + n + 1) {
+				n++;
+			}
+			if (n == 0) return 0;
+			if (head.compareAndSet(seq, seq + n)) {
+				c.start = seq;
+				c.end = seq + n - 1;
+				c.lastFetchedSeq = seq - 1;
+				return n;
+			}
+		}
+	}
+	
+	@Override
+	public final E fetch(int consumerIndex) {
+		ConsumerState c = consumerStates[consumerIndex];
+		if (c.lastFetchedSeq == c.end) return null;
+		return data[calcIndex(++c.lastFetchedSeq)];
+	}
+	
+	@Override
+	public final void doneFetching(int consumerIndex, boolean lazySet) {
+		ConsumerState c = consumerStates[consumerIndex];
+		long last = c.lastFetchedSeq;
+		if (last < c.start) return; // nothing fetched
+		for(long seq = c.start; seq < last; seq++) {
+			stamps.lazySet(calcIndex(seq), seq + capacity);
+		}
+		if (lazySet) {
+			stamps.lazySet(calcIndex(last), last + capacity);
+		} else {
+			stamps.set(calcIndex(last), last + capacity);
+		}
+		c.start = last + 1; // whatever was not fetched stays with this consumer for the next availableToFetch
+	}
+	
+	@Override
+	public final void doneFetching(int consumerIndex) {
+		doneFetching(consumerIndex, false);
+	}
+	
+	@Override
+	public final Producer<E> getProducer(int index) {
+		if (index >= producers.length) {
+			throw new RuntimeException("Tried to get a producer with a bad index: " + index);
+		}
+		return producers[index];
+	}
+	
+	@Override
+	public final Consumer<E> getConsumer(int index) {
+		if (index >= consumers.length) {
+			throw new RuntimeException("Tried to get a consumer with a bad index: " + index);
+		}
+		return consumers[index];
+	}
+	
+	@Override
+	public final int getNumberOfConsumers() {
+		return consumers.length;
+	}
+	
+	@Override
+	public final int getNumberOfProducers() {
+		return producers.length;
+	}
+}
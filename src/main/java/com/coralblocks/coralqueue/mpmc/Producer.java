@@ -15,57 +15,45 @@
  */
 package com.coralblocks.coralqueue.mpmc;
 
-import com.coralblocks.coralqueue.demultiplexer.Demultiplexer;
-
 /**
- * A producer holder for the {@link MpMc}. It contains a {@link Demultiplexer} and the producer index. 
+ * A producer holder for the {@link MpMc}. Each implementation has its own subclass: {@link LaneProducer} for the {@link AtomicMpMc} and a shared queue producer for the {@link MpmcQueue}.
  *
  * @param <E> The data transfer mutable object to be used by this mpmc
  */
-public class Producer<E> {
+public abstract class Producer<E> {
 	
-	private final Demultiplexer<E> demux;
 	private final int index;
 	
-	Producer(Demultiplexer<E> demux, int index) {
+	Producer(int index) {
 		this.index = index;
-		this.demux = demux;
 	}
 
 	/**
-	 * See {@link com.coralblocks.coralqueue.demultiplexer.Demultiplexer#nextToDispatch()} for more details.
+	 * See {@link MpMc#nextToDispatch(int)} for more details.
 	 * 
-	 * @return the next mutable object that can be used by the producer or null if the demultiplexer is full
+	 * @return the next mutable object that can be used by the producer or null if the mpmc is full
 	 */
-	public final E nextToDispatch() {
-		return demux.nextToDispatch();
-	}
+	public abstract E nextToDispatch();
 	
 	/**
-	 * See {@link com.coralblocks.coralqueue.demultiplexer.Demultiplexer#nextToDispatch(int)} for more details.
+	 * See {@link MpMc#nextToDispatch(int, int)} for more details.
 	 * 
 	 * @param consumerIndex the consumer that you want to receive the message
-	 * @return the next mutable object that can be used by the producer or null if the demultiplexer is full
+	 * @return the next mutable object that can be used by the producer or null if the mpmc is full
 	 */
-	public final E nextToDispatch(int consumerIndex) {
-		return demux.nextToDispatch(consumerIndex);
-	}
+	public abstract E nextToDispatch(int consumerIndex);
 	
 	/**
-	 * See {@link com.coralblocks.coralqueue.demultiplexer.Demultiplexer#flush(boolean)} for more details.
+	 * See {@link MpMc#flush(int, boolean)} for more details.
 	 * 
 	 * @param lazySet true to flush (i.e. notify the consumer) in a lazy way or false to flush <b>immediately</b>
 	 */
-	public final void flush(boolean lazySet) {
-		demux.flush(lazySet);
-	}
+	public abstract void flush(boolean lazySet);
 	
 	/**
-	 * See {@link com.coralblocks.coralqueue.demultiplexer.Demultiplexer#flush()} for more details.
+	 * See {@link MpMc#flush(int)} for more details.
 	 */
-	public final void flush() {
-		demux.flush();
-	}
+	public abstract void flush();
 	
 	/**
 	 * Return the index of this producer
@@ -0,0 +1,51 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmc;
+
+/**
+ * The consumer holder for the {@link MpmcQueue}.
+ * 
+ * @param <E> The data transfer mutable object to be used by this mpmc
+ */
+final class SharedConsumer<E> extends Consumer<E> {
+	
+	private final MpmcQueue<E> queue;
+	
+	SharedConsumer(MpmcQueue<E> queue, int index) {
+		super(index);
+		this.queue = queue;
+	}
+	
+	@Override
+	public final long availableToFetch() {
+		return queue.availableToFetch(getIndex());
+	}
+	
+	@Override
+	public final E fetch() {
+		return queue.fetch(getIndex());
+	}
+	
+	@Override
+	public final void doneFetching(boolean lazySet) {
+		queue.doneFetching(getIndex(), lazySet);
+	}
+	
+	@Override
+	public final void doneFetching() {
+		queue.doneFetching(getIndex());
+	}
+}
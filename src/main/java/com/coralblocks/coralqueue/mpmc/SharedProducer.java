@@ -0,0 +1,51 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmc;
+
+/**
+ * The producer holder for the {@link MpmcQueue}.
+ *
+ * @param <E> The data transfer mutable object to be used by this mpmc
+ */
+final class SharedProducer<E> extends Producer<E> {
+	
+	private final MpmcQueue<E> queue;
+	
+	SharedProducer(MpmcQueue<E> queue, int index) {
+		super(index);
+		this.queue = queue;
+	}
+
+	@Override
+	public final E nextToDispatch() {
+		return queue.nextToDispatch(getIndex());
+	}
+	
+	@Override
+	public final E nextToDispatch(int consumerIndex) {
+		return queue.nextToDispatch(getIndex(), consumerIndex);
+	}
+	
+	@Override
+	public final void flush(boolean lazySet) {
+		queue.flush(getIndex(), lazySet);
+	}
+	
+	@Override
+	public final void flush() {
+		queue.flush(getIndex());
+	}
+}
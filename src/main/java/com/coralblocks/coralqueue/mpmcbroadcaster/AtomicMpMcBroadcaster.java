@@ -16,12 +16,16 @@
 package com.coralblocks.coralqueue.mpmcbroadcaster;
 
 import com.coralblocks.coralqueue.broadcaster.AtomicBroadcaster;
-import com.coralblocks.coralqueue.broadcaster.Broadcaster;
 import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.Doorbell;
 
 /**
  * An implementation of {@link MpMcBroadcaster} that uses <i>memory barriers</i> to synchronize producer and consumer threads.
- * All consumers receive all messages.
+ * All consumers receive all messages, unless they are organized in groups. In that case each message is delivered to every group,
+ * but only to one consumer inside a group, so a group can be used as a pool of competing consumers. See {@link AtomicBroadcaster} for details.
+ * 
+ * <p>With <i>sparse polling</i> each producer also rings a {@link Doorbell} of every consumer when it flushes, and the consumers only read the producers that rang them
+ * (plus the ones they did not fully drain). An idle consumer then pays one volatile read per poll instead of one per producer, which matters when you have many producers.</p>
  *
  * @param <E> The data transfer mutable object to be used by this mpmc broadcaster
  */
@@ -29,9 +33,9 @@ public class AtomicMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
 	
 	public static final int DEFAULT_CAPACITY = 1024;
 	
-	private final Broadcaster<E>[] broadcasters;
-	private final Producer<E>[] producers;
-	private final Consumer<E>[] consumers;
+	private final AtomicBroadcaster<E>[] broadcasters;
+	private final LaneProducer<E>[] producers;
+	private final LaneConsumer<E>[] consumers;
 	
 	/**
 	 * Creates an <code>AtomicMpMcBroadcaster</code> with the default capacity (1024) and number of consumers and producers using the given class to populate it.
@@ -75,15 +79,75 @@ public class AtomicMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
 	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMcBroadcaster</code>
 	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicMpMcBroadcaster</code>
 	 */
-	@SuppressWarnings("unchecked")
     public AtomicMpMcBroadcaster(int capacity, Builder<E> builder, int numberOfProducers, int numberOfConsumers) {
-		this.broadcasters = (Broadcaster<E>[]) new Broadcaster[numberOfProducers];
-		this.producers = (Producer<E>[]) new Producer[numberOfProducers];
-		this.consumers = (Consumer<E>[]) new Consumer[numberOfConsumers];
+		this(capacity, builder, numberOfProducers, ungrouped(numberOfConsumers));
+	}
+	
+	/**
+	 * Creates an <code>AtomicMpMcBroadcaster</code> with the given capacity, number of producers and groups of consumers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMpMcBroadcaster</code>
+	 * @param klass the class used to populate the <code>AtomicMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMcBroadcaster</code>
+	 * @param consumersPerGroup the number of consumers in each group
+	 */
+	public AtomicMpMcBroadcaster(int capacity, Class<E> klass, int numberOfProducers, int[] consumersPerGroup) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers, consumersPerGroup);
+	}
+	
+	/**
+	 * Creates an <code>AtomicMpMcBroadcaster</code> with the given capacity, number of producers and groups of consumers using the given {@link Builder} to populate it.
+	 * Consumers are numbered in group order, so the first <code>consumersPerGroup[0]</code> consumers belong to group 0, the next <code>consumersPerGroup[1]</code> consumers belong to group 1 and so on.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMpMcBroadcaster</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMcBroadcaster</code>
+	 * @param consumersPerGroup the number of consumers in each group
+	 */
+	public AtomicMpMcBroadcaster(int capacity, Builder<E> builder, int numberOfProducers, int[] consumersPerGroup) {
+		this(capacity, builder, numberOfProducers, consumersPerGroup, false);
+	}
+	
+	/**
+	 * Creates an <code>AtomicMpMcBroadcaster</code> with the given capacity and number of consumers and producers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMpMcBroadcaster</code>
+	 * @param klass the class used to populate the <code>AtomicMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMcBroadcaster</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>AtomicMpMcBroadcaster</code>
+	 * @param sparsePolling true to have consumers only read the producers that rang their doorbell
+	 */
+	public AtomicMpMcBroadcaster(int capacity, Class<E> klass, int numberOfProducers, int numberOfConsumers, boolean sparsePolling) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers, ungrouped(numberOfConsumers), sparsePolling);
+	}
+	
+	/**
+	 * Creates an <code>AtomicMpMcBroadcaster</code> with the given capacity, number of producers and groups of consumers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMpMcBroadcaster</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMpMcBroadcaster</code>
+	 * @param consumersPerGroup the number of consumers in each group
+	 * @param sparsePolling true to have consumers only read the producers that rang their doorbell
+	 */
+	@SuppressWarnings("unchecked")
+	public AtomicMpMcBroadcaster(int capacity, Builder<E> builder, int numberOfProducers, int[] consumersPerGroup, boolean sparsePolling) {
+		this.broadcasters = (AtomicBroadcaster<E>[]) new AtomicBroadcaster[numberOfProducers];
+		this.producers = (LaneProducer<E>[]) new LaneProducer[numberOfProducers];
 		
 		for(int i = 0; i < numberOfProducers; i++) {
-			this.broadcasters[i] = new AtomicBroadcaster<E>(builder, numberOfConsumers);
-			this.producers[i] = new Producer<E>(this.broadcasters[i], i);
+			this.broadcasters[i] = new AtomicBroadcaster<E>(capacity, builder, consumersPerGroup);
+			this.producers[i] = new LaneProducer<E>(this.broadcasters[i], i);
+		}
+		
+		int numberOfConsumers = this.broadcasters[0].getNumberOfConsumers();
+		this.consumers = (LaneConsumer<E>[]) new LaneConsumer[numberOfConsumers];
+		
+		Doorbell[] doorbells = null;
+		if (sparsePolling) {
+			doorbells = new Doorbell[numberOfConsumers];
+			for(int i = 0; i < numberOfConsumers; i++) doorbells[i] = new Doorbell(numberOfProducers);
+			for(int i = 0; i < numberOfProducers; i++) this.broadcasters[i].setDoorbells(doorbells, i);
 		}
 		
 		for(int i = 0; i < numberOfConsumers; i++) {
@@ -92,10 +156,16 @@ public class AtomicMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
 			for(int j = 0; j < this.broadcasters.length; j++) {
 				c[index++] = this.broadcasters[j].getConsumer(i);
 			}
-			this.consumers[i] = new Consumer<E>(c, i);
+			this.consumers[i] = new LaneConsumer<E>(c, i, doorbells != null ? doorbells[i] : null);
 		}
 	}
 	
+	private static int[] ungrouped(int numberOfConsumers) {
+		int[] consumersPerGroup = new int[numberOfConsumers];
+		for(int i = 0; i < numberOfConsumers; i++) consumersPerGroup[i] = 1;
+		return consumersPerGroup;
+	}
+	
 	@Override
 	public final void clear() {
 		for(int i = 0; i < broadcasters.length; i++) {
@@ -105,43 +175,43 @@ public class AtomicMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
 	
 	@Override
 	public final E nextToDispatch(int producerIndex) {
-		Producer<E> producer = getProducer(producerIndex);
+		LaneProducer<E> producer = getProducer(producerIndex);
 		return producer.nextToDispatch();
 	}
 	
 	@Override
 	public final void flush(int producerIndex, boolean lazySet) {
-		Producer<E> producer = getProducer(producerIndex);
+		LaneProducer<E> producer = getProducer(producerIndex);
 		producer.flush(lazySet);
 	}
 	
 	@Override
 	public final void flush(int producerIndex) {
-		Producer<E> producer = getProducer(producerIndex);
+		LaneProducer<E> producer = getProducer(producerIndex);
 		producer.flush();
 	}
 	
 	@Override
 	public final long availableToFetch(int consumerIndex) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		return consumer.availableToFetch();
 	}
 	
 	@Override
 	public final E fetch(int consumerIndex) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		return consumer.fetch();
 	}
 	
 	@Override
 	public final void doneFetching(int consumerIndex, boolean lazySet) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		consumer.doneFetching(lazySet);
 	}
 	
 	@Override
 	public final void doneFetching(int consumerIndex) {
-		Consumer<E> consumer = getConsumer(consumerIndex);
+		LaneConsumer<E> consumer = getConsumer(consumerIndex);
 		consumer.doneFetching();
 	}
 	
@@ -153,7 +223,7 @@ public class AtomicMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
 	}
 	
 	@Override
-	public final Producer<E> getProducer(int index) {
+	public final LaneProducer<E> getProducer(int index) {
 		if (index >= producers.length) {
 			throw new RuntimeException("Tried to get a producer with a bad index: " + index);
 		}
@@ -161,7 +231,7 @@ public class AtomicMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
 	}
 	
 	@Override
-	public final Consumer<E> getConsumer(int index) {
+	public final LaneConsumer<E> getConsumer(int index) {
 		if (index >= consumers.length) {
 			throw new RuntimeException("Tried to get a consumer with a bad index: " + index);
 		}
@@ -177,4 +247,23 @@ public class AtomicMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
 	public final int getNumberOfProducers() {
 		return producers.length;
 	}
+	
+	/**
+	 * Return the number of groups of consumers. Without groups, each consumer is alone in its own group.
+	 * 
+	 * @return the number of groups
+	 */
+	public final int getNumberOfGroups() {
+		return broadcasters[0].getNumberOfGroups();
+	}
+	
+	/**
+	 * Return the group of the given consumer.
+	 * 
+	 * @param consumerIndex the consumer index
+	 * @return the group of the consumer
+	 */
+	public final int getGroup(int consumerIndex) {
+		return broadcasters[0].getGroup(consumerIndex);
+	}
 }
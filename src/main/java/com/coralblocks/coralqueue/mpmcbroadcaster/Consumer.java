@@ -16,27 +16,19 @@
 package com.coralblocks.coralqueue.mpmcbroadcaster;
 
 /**
- * A consumer holder for the {@link MpMcBroadcaster}. It contains a broadcaster {@link com.coralblocks.coralqueue.broadcaster.Consumer} and the consumer index.
+ * A consumer holder for the {@link MpMcBroadcaster}. Each implementation has its own subclass: {@link LaneConsumer} for the {@link AtomicMpMcBroadcaster} and
+ * {@link SequencedConsumer} for the {@link SequencedMpMcBroadcaster}.
  * 
  * Its API is the same as a regular {@link com.coralblocks.coralqueue.queue.Queue}.
  * 
  * @param <E> The data transfer mutable object to be used by this mpmc broadcaster
  */
-public class Consumer<E> {
+public abstract class Consumer<E> {
 	
-	private final com.coralblocks.coralqueue.broadcaster.Consumer<E>[] consumers;
-	private int currConsumerIndex = 0;
 	private final int index;
-	private final int nConsumers;
-	private final long[] availToFetch;
-	private final boolean[] needsDoneFetching;
 	
-	Consumer(com.coralblocks.coralqueue.broadcaster.Consumer<E>[] consumers, int index) {
-		this.consumers = consumers;
+	Consumer(int index) {
 		this.index = index;
-		this.nConsumers = consumers.length;
-		this.availToFetch = new long[consumers.length];
-		this.needsDoneFetching = new boolean[consumers.length];
 	}
 	
 	/**
@@ -44,59 +36,26 @@ public class Consumer<E> {
 	 * 
 	 * @return the number of objects that can be fetched
 	 */
-	public final long availableToFetch() {
-		long total = 0;
-		for(int i = 0; i < nConsumers; i++) {
-			long x = consumers[i].availableToFetch();
-			availToFetch[i] = x;
-			total += x;
-			needsDoneFetching[i] = false;
-		}
-		currConsumerIndex = 0;
-		return total;
-	}
+	public abstract long availableToFetch();
 	
 	/**
 	 * See {@link com.coralblocks.coralqueue.queue.Queue#fetch()} for more details.
 	 * 
 	 * @return a data transfer mutable object from the queue
 	 */
-	public final E fetch() {
-		while(true) {
-			if (availToFetch[currConsumerIndex] > 0) {
-				E e = consumers[currConsumerIndex].fetch();
-				needsDoneFetching[currConsumerIndex] = true;
-				if (e == null) {
-					if (++currConsumerIndex == nConsumers) return null;
-				} else {
-					availToFetch[currConsumerIndex]--;
-					return e;
-				}
-			} else {
-				if (++currConsumerIndex == nConsumers) return null;
-			}
-		}
-	}
+	public abstract E fetch();
 	
 	/**
 	 * See {@link com.coralblocks.coralqueue.queue.Queue#doneFetching(boolean)} for more details.
 	 * 
 	 * @param lazySet true to notify the producer in a lazy way or false to notify the producer <b>immediately</b>
 	 */
-	public final void doneFetching(boolean lazySet) {
-		for(int i = 0; i < nConsumers; i++) {
-			if (needsDoneFetching[i]) consumers[i].doneFetching(lazySet);
-		}
-	}
+	public abstract void doneFetching(boolean lazySet);
 	
 	/**
 	 * See {@link com.coralblocks.coralqueue.queue.Queue#doneFetching()} for more details.
 	 */
-	public final void doneFetching() {
-		for(int i = 0; i < nConsumers; i++) {
-			if (needsDoneFetching[i]) consumers[i].doneFetching();
-		}
-	}
+	public abstract void doneFetching();
 	
 	/**
 	 * Return the index of this consumer
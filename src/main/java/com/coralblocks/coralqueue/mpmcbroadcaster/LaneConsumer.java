@@ -0,0 +1,141 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmcbroadcaster;
+
+import com.coralblocks.coralqueue.util.Doorbell;
+
+/**
+ * The consumer holder for the {@link AtomicMpMcBroadcaster}. It contains the broadcaster {@link com.coralblocks.coralqueue.broadcaster.Consumer} of each producer (one lane per producer).
+ * 
+ * @param <E> The data transfer mutable object to be used by this mpmc broadcaster
+ */
+public final class LaneConsumer<E> extends Consumer<E> {
+	
+	private final com.coralblocks.coralqueue.broadcaster.Consumer<E>[] consumers;
+	private int currConsumerIndex = 0;
+	private final int nConsumers;
+	private final long[] availToFetch;
+	private final boolean[] needsDoneFetching;
+	private final Doorbell doorbell;
+	private final long[] pendingLanes;
+	
+	LaneConsumer(com.coralblocks.coralqueue.broadcaster.Consumer<E>[] consumers, int index) {
+		this(consumers, index, null);
+	}
+	
+	LaneConsumer(com.coralblocks.coralqueue.broadcaster.Consumer<E>[] consumers, int index, Doorbell doorbell) {
+		super(index);
+		this.consumers = consumers;
+		this.nConsumers = consumers.length;
+		this.availToFetch = new long[consumers.length];
+		this.needsDoneFetching = new boolean[consumers.length];
+		this.doorbell = doorbell;
+		this.pendingLanes = doorbell != null ? new long[doorbell.getNumberOfWords()] : null;
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#availableToFetch()} for more details.
+	 * 
+	 * @return the number of objects that can be fetched
+	 */
+	@Override
+	public final long availableToFetch() {
+		if (doorbell != null) return availableToFetchFromRungLanes();
+		long total = 0;
+		for(int i = 0; i < nConsumers; i++) {
+			long x = consumers[i].availableToFetch();
+			availToFetch[i] = x;
+			total += x;
+			needsDoneFetching[i] = false;
+		}
+		currConsumerIndex = 0;
+		return total;
+	}
+	
+	private final long availableToFetchFromRungLanes() {
+		// only look at the lanes that were rung plus the ones that still had something the last time
+		// (the lanes we do not look at have nothing to fetch and nothing to be done)
+		long total = 0;
+		for(int w = 0; w < pendingLanes.length; w++) {
+			long lanes = pendingLanes[w] | doorbell.take(w);
+			long stillPending = lanes;
+			while(lanes != 0) {
+				int bit = Long.numberOfTrailingZeros(lanes);
+				lanes &= lanes - 1;
+				int i = (w << 6) + bit;
+				long x = consumers[i].availableToFetch();
+				availToFetch[i] = x;
+				total += x;
+				needsDoneFetching[i] = false;
+				if (x == 0) stillPending &= ~(1L << bit);
+			}
+			pendingLanes[w] = stillPending;
+		}
+		currConsumerIndex = 0;
+		return total;
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#fetch()} for more details.
+	 * 
+	 * @return a data transfer mutable object from the queue
+	 */
+	@Override
+	public final E fetch() {
+		while(true) {
+			if (availToFetch[currConsumerIndex] > 0) {
+				E e = consumers[currConsumerIndex].fetch();
+				needsDoneFetching[currConsumerIndex] = true;
+				if (e == null) {
+					if (++currConsumerIndex == nConsumers) return null;
+				} else {
+					availToFetch[currConsumerIndex]--;
+					return e;
+				}
+			} else {
+				if (++currConsumerIndex == nConsumers) return null;
+			}
+		}
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#doneFetching(boolean)} for more details.
+	 * 
+	 * @param lazySet true to notify the producer in a lazy way or false to notify the producer <b>immediately</b>
+	 */
+	@Override
+	public final void doneFetching(boolean lazySet) {
+		for(int i = 0; i < nConsumers; i++) {
+			if (needsDoneFetching[i]) {
+				consumers[i].doneFetching(lazySet);
+				needsDoneFetching[i] = false;
+			}
+		}
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.queue.Queue#doneFetching()} for more details.
+	 */
+	@Override
+	public final void doneFetching() {
+		for(int i = 0; i < nConsumers; i++) {
+			if (needsDoneFetching[i]) {
+				consumers[i].doneFetching();
+				needsDoneFetching[i] = false;
+			}
+		}
+	}
+}
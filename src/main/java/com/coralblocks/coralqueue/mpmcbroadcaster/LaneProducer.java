@@ -0,0 +1,61 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmcbroadcaster;
+
+import com.coralblocks.coralqueue.broadcaster.Broadcaster;
+
+/**
+ * The producer holder for the {@link AtomicMpMcBroadcaster}. It contains the {@link Broadcaster} of the producer.
+ *
+ * @param <E> The data transfer mutable object to be used by this mpmc broadcaster
+ */
+public final class LaneProducer<E> extends Producer<E> {
+	
+	private final Broadcaster<E> broadcaster;
+	
+	LaneProducer(Broadcaster<E> broadcaster, int index) {
+		super(index);
+		this.broadcaster = broadcaster;
+	}
+
+	/**
+	 * See {@link com.coralblocks.coralqueue.broadcaster.Broadcaster#nextToDispatch()} for more details.
+	 * 
+	 * @return the next mutable object that can be used by the producer or null if the broadcaster is full
+	 */
+	@Override
+	public final E nextToDispatch() {
+		return broadcaster.nextToDispatch();
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.broadcaster.Broadcaster#flush(boolean)} for more details.
+	 * 
+	 * @param lazySet true to flush (i.e. notify the consumer) in a lazy way or false to flush <b>immediately</b>
+	 */
+	@Override
+	public final void flush(boolean lazySet) {
+		broadcaster.flush(lazySet);
+	}
+	
+	/**
+	 * See {@link com.coralblocks.coralqueue.broadcaster.Broadcaster#flush()} for more details.
+	 */
+	@Override
+	public final void flush() {
+		broadcaster.flush();
+	}
+}
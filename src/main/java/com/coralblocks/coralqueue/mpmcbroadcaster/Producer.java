@@ -15,47 +15,38 @@
  */
 package com.coralblocks.coralqueue.mpmcbroadcaster;
 
-import com.coralblocks.coralqueue.broadcaster.Broadcaster;
-
 /**
- * A producer holder for the {@link MpMcBroadcaster}. It contains a {@link Broadcaster} and the producer index. 
+ * A producer holder for the {@link MpMcBroadcaster}. Each implementation has its own subclass: {@link LaneProducer} for the {@link AtomicMpMcBroadcaster} and a sequenced producer
+ * for the {@link SequencedMpMcBroadcaster}.
  *
  * @param <E> The data transfer mutable object to be used by this mpmc broadcaster
  */
-public class Producer<E> {
+public abstract class Producer<E> {
 	
-	private final Broadcaster<E> broadcaster;
 	private final int index;
 	
-	Producer(Broadcaster<E> broadcaster, int index) {
+	Producer(int index) {
 		this.index = index;
-		this.broadcaster = broadcaster;
 	}
 
 	/**
-	 * See {@link com.coralblocks.coralqueue.broadcaster.Broadcaster#nextToDispatch()} for more details.
+	 * See {@link MpMcBroadcaster#nextToDispatch(int)} for more details.
 	 * 
-	 * @return the next mutable object that can be used by the producer or null if the broadcaster is full
+	 * @return the next mutable object that can be used by the producer or null if the mpmc broadcaster is full
 	 */
-	public final E nextToDispatch() {
-		return broadcaster.nextToDispatch();
-	}
+	public abstract E nextToDispatch();
 	
 	/**
-	 * See {@link com.coralblocks.coralqueue.broadcaster.Broadcaster#flush(boolean)} for more details.
+	 * See {@link MpMcBroadcaster#flush(int, boolean)} for more details.
 	 * 
 	 * @param lazySet true to flush (i.e. notify the consumer) in a lazy way or false to flush <b>immediately</b>
 	 */
-	public final void flush(boolean lazySet) {
-		broadcaster.flush(lazySet);
-	}
+	public abstract void flush(boolean lazySet);
 	
 	/**
-	 * See {@link com.coralblocks.coralqueue.broadcaster.Broadcaster#flush()} for more details.
+	 * See {@link MpMcBroadcaster#flush(int)} for more details.
 	 */
-	public final void flush() {
-		broadcaster.flush();
-	}
+	public abstract void flush();
 	
 	/**
 	 * Return the index of this producer
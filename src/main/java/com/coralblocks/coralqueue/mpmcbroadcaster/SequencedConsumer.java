@@ -0,0 +1,60 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmcbroadcaster;
+
+/**
+ * The consumer holder for the {@link SequencedMpMcBroadcaster}. On top of the regular consumer API it gives the global sequence of the last message fetched.
+ * 
+ * @param <E> The data transfer mutable object to be used by this mpmc broadcaster
+ */
+public final class SequencedConsumer<E> extends Consumer<E> {
+	
+	private final SequencedMpMcBroadcaster<E> sequenced;
+	
+	SequencedConsumer(SequencedMpMcBroadcaster<E> sequenced, int index) {
+		super(index);
+		this.sequenced = sequenced;
+	}
+	
+	@Override
+	public final long availableToFetch() {
+		return sequenced.availableToFetch(getIndex());
+	}
+	
+	@Override
+	public final E fetch() {
+		return sequenced.fetch(getIndex());
+	}
+	
+	@Override
+	public final void doneFetching(boolean lazySet) {
+		sequenced.doneFetching(getIndex(), lazySet);
+	}
+	
+	@Override
+	public final void doneFetching() {
+		sequenced.doneFetching(getIndex());
+	}
+	
+	/**
+	 * See {@link SequencedMpMcBroadcaster#getLastFetchedSequence(int)} for more details.
+	 * 
+	 * @return the global sequence of the last message fetched
+	 */
+	public final long getLastFetchedSequence() {
+		return sequenced.getLastFetchedSequence(getIndex());
+	}
+}
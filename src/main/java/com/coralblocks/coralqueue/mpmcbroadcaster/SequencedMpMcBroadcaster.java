@@ -0,0 +1,299 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmcbroadcaster;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.MathUtils;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
+
+/**
+ * <p>A {@link MpMcBroadcaster} where all consumers see all messages in the exact same global order. The {@link AtomicMpMcBroadcaster} has one broadcaster per producer
+ * and its consumers go through them one after the other, so two consumers can see the messages of different producers interleaved differently. Here all producers
+ * write to a single circular queue shared by everybody, so there is only one order, which is what you need to feed replicated state machines.</p>
+ *
+ * <p>Each producer claims its next sequence with a CAS on a shared claim sequence and publishes its claimed slots on flush by writing their sequences in a parallel array of availability flags.
+ * A producer only keeps the contiguous range of sequences it claimed since its last flush. If another producer claims a sequence in between, the range it had is published right away,
+ * because its messages were already written. Each consumer only fetches contiguous slots that were published, so a producer that has claimed but not yet flushed holds back the messages of the producers behind it. The global
+ * sequence of the last message fetched by a consumer (starting at 1) can be obtained through {@link #getLastFetchedSequence(int)} or {@link SequencedConsumer#getLastFetchedSequence()}.</p>
+ *
+ * <p>When the queue is full, <code>nextToDispatch</code> publishes the slots already claimed by the producer before returning null. Otherwise producers
+ * holding unpublished slots in a full queue would wait for each other forever. The producers wait for the slowest consumer.</p>
+ *
+ * @param <E> The data transfer mutable object to be used by this mpmc broadcaster
+ */
+public class SequencedMpMcBroadcaster<E> implements MpMcBroadcaster<E> {
+	
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	private final int capacity;
+	private final int capacityMinusOne;
+	private final E[] data;
+	private final AtomicLongArray published;
+	private final PaddedAtomicLong claimSequence = new PaddedAtomicLong(0);
+	private final ProducerState[] producerStates;
+	private final ConsumerState[] consumerStates;
+	private final SequencedProducer<E>[] producers;
+	private final SequencedConsumer<E>[] consumers;
+	
+	private static final class ProducerState {
+		
+		long runStart = 0; // first sequence claimed and not published yet
+		long runEnd = 0; // last sequence claimed and not published yet, zero if none
+		long maxSeqBeforeWrapping;
+		
+		ProducerState(int capacity) {
+			this.maxSeqBeforeWrapping = capacity;
+		}
+	}
+	
+	private static final class ConsumerState {
+		
+		long lastFetchedSeq = 0;
+		long lastAvailableSeq = 0;
+		final PaddedAtomicLong fetchSequence = new PaddedAtomicLong(0);
+	}
+	
+	/**
+	 * Creates a <code>SequencedMpMcBroadcaster</code> with the given capacity and number of consumers and producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>SequencedMpMcBroadcaster</code>
+	 * @param builder the {@link Builder} used to populate the <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>SequencedMpMcBroadcaster</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public SequencedMpMcBroadcaster(int capacity, Builder<E> builder, int numberOfProducers, int numberOfConsumers) {
+		MathUtils.ensurePowerOfTwo(capacity);
+		this.capacity = capacity;
+		this.capacityMinusOne = capacity - 1;
+		this.data = (E[]) new Object[capacity];
+		for(int i = 0; i < capacity; i++) {
+			this.data[i] = builder.newInstance();
+		}
+		this.published = new AtomicLongArray(capacity);
+		this.producerStates = new ProducerState[numberOfProducers];
+		this.producers = (SequencedProducer<E>[]) new SequencedProducer[numberOfProducers];
+		for(int i = 0; i < numberOfProducers; i++) {
+			producerStates[i] = new ProducerState(capacity);
+			producers[i] = new SequencedProducer<E>(this, i);
+		}
+		this.consumerStates = new ConsumerState[numberOfConsumers];
+		this.consumers = (SequencedConsumer<E>[]) new SequencedConsumer[numberOfConsumers];
+		for(int i = 0; i < numberOfConsumers; i++) {
+			consumerStates[i] = new ConsumerState();
+			consumers[i] = new SequencedConsumer<E>(this, i);
+		}
+	}
+	
+	/**
+	 * Creates a <code>SequencedMpMcBroadcaster</code> with the default capacity (1024) and number of consumers and producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param builder the {@link Builder} used to populate the <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>SequencedMpMcBroadcaster</code>
+	 */
+	public SequencedMpMcBroadcaster(Builder<E> builder, int numberOfProducers, int numberOfConsumers) {
+		this(DEFAULT_CAPACITY, builder, numberOfProducers, numberOfConsumers);
+	}
+	
+	/**
+	 * Creates a <code>SequencedMpMcBroadcaster</code> with the given capacity and number of consumers and producers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>SequencedMpMcBroadcaster</code>
+	 * @param klass the class used to populate the <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>SequencedMpMcBroadcaster</code>
+	 */
+	public SequencedMpMcBroadcaster(int capacity, Class<E> klass, int numberOfProducers, int numberOfConsumers) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers, numberOfConsumers);
+	}
+	
+	/**
+	 * Creates a <code>SequencedMpMcBroadcaster</code> with the default capacity (1024) and number of consumers and producers using the given class to populate it.
+	 * 
+	 * @param klass the class used to populate the <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfProducers the number of producers that will use this <code>SequencedMpMcBroadcaster</code>
+	 * @param numberOfConsumers the number of consumers that will use this <code>SequencedMpMcBroadcaster</code>
+	 */
+	public SequencedMpMcBroadcaster(Class<E> klass, int numberOfProducers, int numberOfConsumers) {
+		this(DEFAULT_CAPACITY, klass, numberOfProducers, numberOfConsumers);
+	}
+	
+	@Override
+	public final void clear() {
+		claimSequence.set(0);
+		for(int i = 0; i < capacity; i++) {
+			published.set(i, 0);
+		}
+		for(int i = 0; i < producerStates.length; i++) {
+			producerStates[i].runStart = 0;
+			producerStates[i].runEnd = 0;
+			producerStates[i].maxSeqBeforeWrapping = capacity;
+		}
+		for(int i = 0; i < consumerStates.length; i++) {
+			ConsumerState c = consumerStates[i];
+			c.lastFetchedSeq = 0;
+			c.lastAvailableSeq = 0;
+			c.fetchSequence.set(0);
+		}
+	}
+	
+	private final int calcIndex(long value) {
+		return (int) ((value - 1) & capacityMinusOne);
+	}
+	
+	private final long calcMaxSeqBeforeWrapping() {
+		long min = Long.MAX_VALUE;
+		for(int i = 0; i < consumerStates.length; i++) {
+			min = Math.min(consumerStates[i].fetchSequence.get(), min);
+		}
+		return min + capacity;
+	}
+	
+	private final long claim(int producerIndex) {
+		ProducerState p = producerStates[producerIndex];
+		while(true) {
+			long seq = claimSequence.get() + 1;
+			if (seq > p.maxSeqBeforeWrapping) {
+				// this would wrap the buffer... calculate the new one...
+				p.maxSeqBeforeWrapping = calcMaxSeqBeforeWrapping();
+				if (seq > p.maxSeqBeforeWrapping) {
+					// the queue is full and the consumers may be waiting for the slots we have claimed, so publish them or all producers could get stuck
+					flush(producerIndex, true);
+					return -1;
+				}
+			}
+			if (claimSequence.compareAndSet(seq - 1, seq)) {
+				if (p.runEnd == 0 || p.runEnd != seq - 1) {
+					// somebody else claimed after our last one, so our range cannot grow, publish it (its messages were already written) and start a new one
+					if (p.runEnd != 0) publish(p.runStart, p.runEnd, true);
+					p.runStart = seq;
+				}
+				p.runEnd = seq;
+				return seq;
+			}
+		}
+	}
+	
+	@Override
+	public final E nextToDispatch(int producerIndex) {
+		long seq = claim(producerIndex);
+		if (seq == -1) return null;
+		return data[calcIndex(seq)];
+	}
+	
+	private final void publish(long start, long end, boolean lazySet) {
+		for(long seq = start; seq < end; seq++) {
+			published.lazySet(calcIndex(seq), seq);
+		}
+		if (lazySet) {
+			published.lazySet(calcIndex(end), end);
+		} else {
+			published.set(calcIndex(end), end);
+		}
+	}
+	
+	@Override
+	public final void flush(int producerIndex, boolean lazySet) {
+		ProducerState p = producerStates[producerIndex];
+		if (p.runEnd == 0) return;
+		publish(p.runStart, p.runEnd, lazySet);
+		p.runEnd = 0;
+	}
+	
+	@Override
+	public final void flush(int producerIndex) {
+		flush(producerIndex, false);
+	}
+	
+	@Override
+	public final long availableToFetch(int consumerIndex) {
+		ConsumerState c = consumerStates[consumerIndex];
+		long seq = c.lastAvailableSeq + 1;
+		long max = c.lastFetchedSeq + capacity;
+		while(seq <= max && published.get(calcIndex(seq)) == seq) {
+			seq++;
+		}
+		c.lastAvailableSeq = seq - 1;
+		return c.lastAvailableSeq - c.lastFetchedSeq;
+	}
+	
+	@Override
+	public final E fetch(int consumerIndex) {
+		ConsumerState c = consumerStates[consumerIndex];
+		if (c.lastFetchedSeq == c.lastAvailableSeq) return null;
+		return data[calcIndex(++c.lastFetchedSeq)];
+	}
+	
+	/**
+	 * Return the global sequence of the last message fetched by the given consumer. All consumers see the same message with the same sequence.
+	 * The first message sent has sequence 1, so zero means that nothing was fetched yet.
+	 * 
+	 * @param consumerIndex the consumer index
+	 * @return the global sequence of the last message fetched
+	 */
+	public final long getLastFetchedSequence(int consumerIndex) {
+		return consumerStates[consumerIndex].lastFetchedSeq;
+	}
+	
+	@Override
+	public final void doneFetching(int consumerIndex, boolean lazySet) {
+		ConsumerState c = consumerStates[consumerIndex];
+		if (lazySet) {
+			c.fetchSequence.lazySet(c.lastFetchedSeq);
+		} else {
+			c.fetchSequence.set(c.lastFetchedSeq);
+		}
+	}
+	
+	@Override
+	public final void doneFetching(int consumerIndex) {
+		doneFetching(consumerIndex, false);
+	}
+	
+	@Override
+	public final void disableConsumer(int consumerIndex) {
+		consumerStates[consumerIndex].fetchSequence.set(Long.MAX_VALUE - capacity);
+	}
+	
+	@Override
+	public final Producer<E> getProducer(int index) {
+		if (index >= producers.length) {
+			throw new RuntimeException("Tried to get a producer with a bad index: " + index);
+		}
+		return producers[index];
+	}
+	
+	@Override
+	public final SequencedConsumer<E> getConsumer(int index) {
+		if (index >= consumers.length) {
+			throw new RuntimeException("Tried to get a consumer with a bad index: " + index);
+		}
+		return consumers[index];
+	}
+	
+	@Override
+	public final int getNumberOfConsumers() {
+		return consumers.length;
+	}
+	
+	@Override
+	public final int getNumberOfProducers() {
+		return producers.length;
+	}
+}
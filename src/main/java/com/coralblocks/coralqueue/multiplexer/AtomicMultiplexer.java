@@ -16,11 +16,19 @@
 package com.coralblocks.coralqueue.multiplexer;
 
 import com.coralblocks.coralqueue.queue.AtomicQueue;
-import com.coralblocks.coralqueue.queue.Queue;
 import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
 
 /**
- * An implementation of {@link Multiplexer} that uses <i>memory barriers</i> to synchronize producers and consumer sequences.
+ * <p>An implementation of {@link Multiplexer} that uses <i>memory barriers</i> to synchronize producers and consumer sequences.</p>
+ * 
+ * <p>The number of producers is the number of lanes (i.e. internal queues) and you can use them by index. Alternatively, when producer threads come and go,
+ * you can treat the lanes as a pool: {@link #register()} claims a free lane for the calling thread and {@link #unregister(Producer)} gives it back.
+ * A lane is only handed out again after the consumer has drained it. Do not mix the two approaches in the same multiplexer.
+ * Once lanes are registered, the consumer only reads the lanes in use (registered or not drained yet) and skips the free ones with a single volatile read for every 64 lanes.</p>
+ * 
+ * <p>By default the consumer fetches one message from each producer in turn. You can pass a different {@link FetchPolicy} to the constructor to read each producer
+ * in batches, to give producers different weights or to give them strict priorities.</p>
  *
  * @param <E> The data transfer mutable object to be used by this multiplexer
  */
@@ -29,24 +37,42 @@ public class AtomicMultiplexer<E> implements Multiplexer<E> {
 	public static final int DEFAULT_CAPACITY = 1024;
 	
 	private final int numberOfProducers;
-	private final Queue<E>[] queues;
+	private final AtomicQueue<E>[] queues;
 	private final long[] avail;
 	private int producerIndex = 0;
 	private final Producer<E>[] producers;
+	private final PaddedAtomicLong[] registered; // one bit per lane, set by register() and cleared by unregister()
+	private final PaddedAtomicLong[] inUse; // one bit per lane, set by register() and only cleared by the consumer once the lane is unregistered and drained
+	private volatile boolean pooled = false;
+	private boolean pooledSeen = false; // consumer-only
+	private final boolean strictPriority;
+	private final int[] quanta;
+	private int deficit;
 	
 	/**
-	 * Creates an <code>AtomicMultiplexer</code> with the given capacity and number of producers using the given {@link Builder} to populate it.
+	 * Creates an <code>AtomicMultiplexer</code> with the given capacity, number of producers and fetch policy using the given {@link Builder} to populate it.
 	 * 
 	 * @param capacity the capacity of the <code>AtomicMultiplexer</code>
 	 * @param builder the {@link Builder} used to populate the <code>AtomicMultiplexer</code>
 	 * @param numberOfProducers the number of producers that will use this <code>AtomicMultiplexer</code>
+	 * @param fetchPolicy the {@link FetchPolicy} used by the consumer to choose the producer of the next message
 	 */
 	@SuppressWarnings("unchecked")
-    public AtomicMultiplexer(int capacity, Builder<E> builder, int numberOfProducers) {
+    public AtomicMultiplexer(int capacity, Builder<E> builder, int numberOfProducers, FetchPolicy fetchPolicy) {
 		this.numberOfProducers = numberOfProducers;
-		this.queues = (Queue<E>[]) new AtomicQueue[numberOfProducers];
+		this.strictPriority = fetchPolicy.getType() == FetchPolicy.PRIORITY;
+		this.quanta = fetchPolicy.createQuanta(numberOfProducers);
+		this.deficit = quanta[0];
+		this.queues = (AtomicQueue<E>[]) new AtomicQueue[numberOfProducers];
 		this.producers = (Producer<E>[]) new Producer[numberOfProducers];
 		this.avail = new long[numberOfProducers];
+		int numberOfWords = (numberOfProducers + 63) >>> 6;
+		this.registered = new PaddedAtomicLong[numberOfWords];
+		this.inUse = new PaddedAtomicLong[numberOfWords];
+		for(int i = 0; i < numberOfWords; i++) {
+			registered[i] = new PaddedAtomicLong(0);
+			inUse[i] = new PaddedAtomicLong(0);
+		}
 		for(int i = 0; i < numberOfProducers; i++) {
 			queues[i] = new AtomicQueue<E>(capacity, builder);
 			producers[i] = new Producer<E>(this, i);
@@ -54,6 +80,17 @@ public class AtomicMultiplexer<E> implements Multiplexer<E> {
 		}
 	}
 	
+	/**
+	 * Creates an <code>AtomicMultiplexer</code> with the given capacity and number of producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMultiplexer</code>
+	 * @param builder the {@link Builder} used to populate the <code>AtomicMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMultiplexer</code>
+	 */
+	public AtomicMultiplexer(int capacity, Builder<E> builder, int numberOfProducers) {
+		this(capacity, builder, numberOfProducers, FetchPolicy.roundRobin());
+	}
+	
 	/**
 	 * Creates an <code>AtomicMultiplexer</code> with the default capacity (1024) and number of producers using the given {@link Builder} to populate it.
 	 * 
@@ -64,6 +101,18 @@ public class AtomicMultiplexer<E> implements Multiplexer<E> {
 		this(DEFAULT_CAPACITY, builder, numberOfProducers);
 	}
 	
+	/**
+	 * Creates an <code>AtomicMultiplexer</code> with the given capacity, number of producers and fetch policy using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>AtomicMultiplexer</code>
+	 * @param klass the class used to populate the <code>AtomicMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>AtomicMultiplexer</code>
+	 * @param fetchPolicy the {@link FetchPolicy} used by the consumer to choose the producer of the next message
+	 */
+	public AtomicMultiplexer(int capacity, Class<E> klass, int numberOfProducers, FetchPolicy fetchPolicy) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers, fetchPolicy);
+	}
+	
 	/**
 	 * Creates an <code>AtomicMultiplexer</code> with the given capacity and number of producers using the given class to populate it.
 	 * 
@@ -88,12 +137,87 @@ public class AtomicMultiplexer<E> implements Multiplexer<E> {
 	@Override
 	public final void clear() {
 		producerIndex = 0;
+		deficit = quanta[0];
 		for(int i = 0; i < queues.length; i++) {
 			queues[i].clear();
 		}
 		for(int i = 0; i < avail.length; i++) {
 			avail[i] = -1;
 		}
+		for(int i = 0; i < registered.length; i++) {
+			registered[i].set(0);
+			inUse[i].set(0);
+		}
+		pooled = false;
+		pooledSeen = false;
+	}
+
+	/**
+	 * <p>Claim a free lane for the calling thread and return its producer. A lane that was unregistered is only returned after the consumer has fetched everything
+	 * that was sent through it and polled it again. This method can be called by any thread at any time and does not produce garbage.</p>
+	 * 
+	 * @return the producer of the lane claimed or null if there are no free lanes
+	 */
+	public final Producer<E> register() {
+		if (!pooled) pooled = true;
+		for(int i = 0; i < numberOfProducers; i++) {
+			PaddedAtomicLong word = registered[i >>> 6];
+			long mask = 1L << i; // shift distance is taken modulo 64
+			while(true) {
+				long bits = word.get();
+				if ((bits & mask) != 0 || (inUse[i >>> 6].get() & mask) != 0) break; // taken or not drained yet
+				if (word.compareAndSet(bits, bits | mask)) {
+					// the consumer reads the registered bit after this one, so it never frees a lane that is registered
+					setBit(inUse[i >>> 6], mask);
+					return producers[i];
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static void setBit(PaddedAtomicLong word, long mask) {
+		while(true) {
+			long bits = word.get();
+			if (word.compareAndSet(bits, bits | mask)) return;
+		}
+	}
+	
+	private static boolean clearBit(PaddedAtomicLong word, long mask) {
+		while(true) {
+			long bits = word.get();
+			if ((bits & mask) == 0) return false;
+			if (word.compareAndSet(bits, bits & ~mask)) return true;
+		}
+	}
+	
+	/**
+	 * <p>Give back the lane of a producer returned by {@link #register()}. Anything the producer has flushed is still delivered to the consumer, so it must
+	 * flush before calling this method and must not be used afterwards.</p>
+	 * 
+	 * @param producer the producer to unregister
+	 */
+	public final void unregister(Producer<E> producer) {
+		int index = producer.getIndex();
+		if (index >= numberOfProducers || producers[index] != producer) {
+			throw new IllegalArgumentException("Producer does not belong to this multiplexer: " + index);
+		}
+		if (!clearBit(registered[index >>> 6], 1L << index)) {
+			throw new RuntimeException("Producer is not registered: " + index);
+		}
+	}
+	
+	/**
+	 * Return the number of producers currently registered through {@link #register()}.
+	 * 
+	 * @return the number of registered producers
+	 */
+	public final int getNumberOfRegisteredProducers() {
+		int count = 0;
+		for(int i = 0; i < registered.length; i++) {
+			count += Long.bitCount(registered[i].get());
+		}
+		return count;
 	}
 
 	@Override
@@ -120,6 +244,7 @@ public class AtomicMultiplexer<E> implements Multiplexer<E> {
 
 	@Override
     public final long availableToFetch() {
+		if (pooledSeen || (pooledSeen = pooled)) return availableToFetchFromLanesInUse();
 		long total = 0;
 		for(int i = 0; i < numberOfProducers; i++) {
 			long x = queues[i].availableToFetch();
@@ -132,15 +257,50 @@ public class AtomicMultiplexer<E> implements Multiplexer<E> {
 		return total;
     }
 
+	private final long availableToFetchFromLanesInUse() {
+		long total = 0;
+		for(int w = 0; w < inUse.length; w++) {
+			long bits = inUse[w].get();
+			if (bits == 0) continue; // nobody here
+			long open = registered[w].get(); // read after the lanes in use, so a lane we see in use that was just registered is seen registered too
+			while(bits != 0) {
+				int bit = Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int i = (w << 6) + bit;
+				long x = queues[i].availableToFetch();
+				if (x == 0) {
+					avail[i] = -1;
+					// unregistered after its last flush and drained, so it can be handed out again
+					if ((open & (1L << bit)) == 0) clearBit(inUse[w], 1L << bit);
+				} else {
+					total += (avail[i] = x);
+				}
+			}
+		}
+		return total;
+	}
+
 	@Override
     public final E fetch() {
-		for(int i = 0; i < numberOfProducers; i++) {
-			int index = producerIndex++;
-			if (producerIndex == numberOfProducers) producerIndex = 0;
-			if (avail[index] > 0) {
+		if (strictPriority) {
+			for(int i = 0; i < numberOfProducers; i++) {
+				if (avail[i] > 0) {
+					avail[i]--;
+					return queues[i].fetch();
+				}
+			}
+			return null;
+		}
+		// deficit round-robin: stay in the current lane until its quantum is used or it has nothing else available
+		for(int i = 0; i <= numberOfProducers; i++) {
+			int index = producerIndex;
+			if (deficit > 0 && avail[index] > 0) {
+				deficit--;
 				avail[index]--;
 				return queues[index].fetch();
 			}
+			if (++producerIndex == numberOfProducers) producerIndex = 0;
+			deficit = quanta[producerIndex];
 		}
 		return null;
 	}
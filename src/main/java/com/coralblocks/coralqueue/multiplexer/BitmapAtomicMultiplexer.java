@@ -0,0 +1,212 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.multiplexer;
+
+import com.coralblocks.coralqueue.queue.AtomicQueue;
+import com.coralblocks.coralqueue.queue.Queue;
+import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
+
+/**
+ * <p>A {@link Multiplexer} like the {@link AtomicMultiplexer} but with a readiness bitmap, so that the consumer does not have to check every producer on every poll.
+ * When a producer flushes it also sets its bit in the bitmap (one padded <code>long</code> for every 64 producers) and the consumer only checks the producers whose bits are set.</p>
+ *
+ * <p>An idle poll costs one volatile read for every 64 producers instead of one for every producer, and a busy poll scales with the number of active producers.
+ * The price is a read (and a CAS, only when the bit is not already set) in each producer flush. A <code>lazySet</code> flush always pays the CAS, because its store can be reordered after the read.</p>
+ */
+public class BitmapAtomicMultiplexer<E> implements Multiplexer<E> {
+	
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	private final int numberOfProducers;
+	private final Queue<E>[] queues;
+	private final Producer<E>[] producers;
+	private final PaddedAtomicLong[] readyBits;
+	private final long[] pendingBits; // consumer-only: producers that may still have something to fetch
+	private final long[] avail;
+	private final int[] activeProducers;
+	private int numberOfActiveProducers = 0;
+	private int activeIndex = 0;
+	
+	/**
+	 * Creates a <code>BitmapAtomicMultiplexer</code> with the given capacity and number of producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>BitmapAtomicMultiplexer</code>
+	 * @param builder the {@link Builder} used to populate the <code>BitmapAtomicMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>BitmapAtomicMultiplexer</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public BitmapAtomicMultiplexer(int capacity, Builder<E> builder, int numberOfProducers) {
+		this.numberOfProducers = numberOfProducers;
+		this.queues = (Queue<E>[]) new AtomicQueue[numberOfProducers];
+		this.producers = (Producer<E>[]) new Producer[numberOfProducers];
+		this.avail = new long[numberOfProducers];
+		this.activeProducers = new int[numberOfProducers];
+		for(int i = 0; i < numberOfProducers; i++) {
+			queues[i] = new AtomicQueue<E>(capacity, builder);
+			producers[i] = new Producer<E>(this, i);
+		}
+		int numberOfWords = (numberOfProducers + 63) >>> 6;
+		this.readyBits = new PaddedAtomicLong[numberOfWords];
+		this.pendingBits = new long[numberOfWords];
+		for(int i = 0; i < numberOfWords; i++) {
+			readyBits[i] = new PaddedAtomicLong(0);
+		}
+	}
+	
+	/**
+	 * Creates a <code>BitmapAtomicMultiplexer</code> with the default capacity (1024) and number of producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param builder the {@link Builder} used to populate the <code>BitmapAtomicMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>BitmapAtomicMultiplexer</code>
+	 */
+	public BitmapAtomicMultiplexer(Builder<E> builder, int numberOfProducers) {
+		this(DEFAULT_CAPACITY, builder, numberOfProducers);
+	}
+	
+	/**
+	 * Creates a <code>BitmapAtomicMultiplexer</code> with the given capacity and number of producers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>BitmapAtomicMultiplexer</code>
+	 * @param klass the class used to populate the <code>BitmapAtomicMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>BitmapAtomicMultiplexer</code>
+	 */
+	public BitmapAtomicMultiplexer(int capacity, Class<E> klass, int numberOfProducers) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers);
+	}
+	
+	/**
+	 * Creates a <code>BitmapAtomicMultiplexer</code> with the default capacity (1024) and number of producers using the given class to populate it.
+	 * 
+	 * @param klass the class used to populate the <code>BitmapAtomicMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>BitmapAtomicMultiplexer</code>
+	 */
+	public BitmapAtomicMultiplexer(Class<E> klass, int numberOfProducers) {
+		this(DEFAULT_CAPACITY, klass, numberOfProducers);
+	}
+	
+	@Override
+	public final void clear() {
+		for(int i = 0; i < queues.length; i++) {
+			queues[i].clear();
+			avail[i] = 0;
+		}
+		for(int i = 0; i < readyBits.length; i++) {
+			readyBits[i].set(0);
+			pendingBits[i] = 0;
+		}
+		numberOfActiveProducers = 0;
+		activeIndex = 0;
+	}
+	
+	@Override
+	public final E nextToDispatch(int producer) {
+		return queues[producer].nextToDispatch();
+	}
+	
+	@Override
+	public final E nextToDispatch(int producer, E swap) {
+		return queues[producer].nextToDispatch(swap);
+	}
+	
+	private final void markReady(int producer, boolean lazySet) {
+		PaddedAtomicLong word = readyBits[producer >>> 6];
+		long mask = 1L << producer; // shift distance is taken modulo 64
+		while(true) {
+			long bits = word.get();
+			// a lazySet flush can be reordered after the read above, so the consumer could clear the bit before seeing our flush: always write the bit in that case
+			if (!lazySet && (bits & mask) != 0) return; // already set, the consumer has not cleared it yet so it will see our flush
+			if (word.compareAndSet(bits, bits | mask)) return;
+		}
+	}
+	
+	@Override
+	public final void flush(int producer, boolean lazySet) {
+		queues[producer].flush(lazySet);
+		markReady(producer, lazySet);
+	}
+	
+	@Override
+	public final void flush(int producer) {
+		queues[producer].flush();
+		markReady(producer, false);
+	}
+	
+	@Override
+	public final long availableToFetch() {
+		long total = 0;
+		numberOfActiveProducers = 0;
+		activeIndex = 0;
+		for(int w = 0; w < readyBits.length; w++) {
+			PaddedAtomicLong word = readyBits[w];
+			// clear the bits before reading the queues, so a flush after our read will set its bit again
+			if (word.get() != 0) pendingBits[w] |= word.getAndSet(0);
+			long bits = pendingBits[w];
+			while(bits != 0) {
+				int bit = Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int producer = (w << 6) + bit;
+				long x = queues[producer].availableToFetch();
+				if (x == 0) {
+					pendingBits[w] &= ~(1L << bit); // drained, the producer will set its bit again on its next flush
+				} else {
+					avail[producer] = x;
+					activeProducers[numberOfActiveProducers++] = producer;
+					total += x;
+				}
+			}
+		}
+		return total;
+	}
+	
+	@Override
+	public final E fetch() {
+		for(int i = 0; i < numberOfActiveProducers; i++) {
+			int producer = activeProducers[activeIndex++];
+			if (activeIndex == numberOfActiveProducers) activeIndex = 0;
+			if (avail[producer] > 0) {
+				avail[producer]--;
+				return queues[producer].fetch();
+			}
+		}
+		return null;
+	}
+	
+	@Override
+	public final void doneFetching(boolean lazySet) {
+		for(int i = 0; i < numberOfActiveProducers; i++) {
+			queues[activeProducers[i]].doneFetching(lazySet);
+		}
+	}
+	
+	@Override
+	public final void doneFetching() {
+		doneFetching(false);
+	}
+	
+	@Override
+	public final int getNumberOfProducers() {
+		return numberOfProducers;
+	}
+	
+	@Override
+	public final Producer<E> getProducer(int index) {
+		if (index >= numberOfProducers) {
+			throw new RuntimeException("Tried to get a producer with a bad index: " + index);
+		}
+		return producers[index];
+	}
+}
@@ -0,0 +1,119 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.multiplexer;
+
+import java.util.Arrays;
+
+/**
+ * <p>How the consumer of an {@link AtomicMultiplexer} chooses the producer (i.e. the lane) of the next message it fetches when more than one producer has messages available.
+ * It is passed to the constructor of the multiplexer and cannot be changed afterwards.</p>
+ * 
+ * <ul>
+ *   <li>{@link #roundRobin()}: one message from each producer in turn (the default).</li>
+ *   <li>{@link #batch(int)}: up to a <i>quantum</i> of messages from each producer in turn, so that the consumer reads each lane contiguously.</li>
+ *   <li>{@link #weighted(int...)}: deficit round-robin where each producer has its own quantum, so a producer with weight 4 gets four times the share of a producer with weight 1.</li>
+ *   <li>{@link #priority()}: strict priority by producer index, where producer 0 has the highest priority. A lower priority producer is only read when all the higher priority ones are empty.</li>
+ * </ul>
+ */
+public final class FetchPolicy {
+	
+	static final int ROUND_ROBIN = 0;
+	static final int BATCH = 1;
+	static final int WEIGHTED = 2;
+	static final int PRIORITY = 3;
+	
+	private static final FetchPolicy ROUND_ROBIN_POLICY = new FetchPolicy(ROUND_ROBIN, 1, null);
+	private static final FetchPolicy PRIORITY_POLICY = new FetchPolicy(PRIORITY, 0, null);
+	
+	private final int type;
+	private final int quantum;
+	private final int[] weights;
+	
+	private FetchPolicy(int type, int quantum, int[] weights) {
+		this.type = type;
+		this.quantum = quantum;
+		this.weights = weights;
+	}
+	
+	/**
+	 * Return the policy that fetches one message from each producer in turn.
+	 * 
+	 * @return the round-robin policy
+	 */
+	public static FetchPolicy roundRobin() {
+		return ROUND_ROBIN_POLICY;
+	}
+	
+	/**
+	 * Return the policy that fetches up to the given number of messages from each producer in turn.
+	 * 
+	 * @param quantum the maximum number of messages fetched from a producer before moving to the next one
+	 * @return the batch-per-producer policy
+	 */
+	public static FetchPolicy batch(int quantum) {
+		if (quantum <= 0) throw new IllegalArgumentException("Quantum must be positive: " + quantum);
+		return new FetchPolicy(BATCH, quantum, null);
+	}
+	
+	/**
+	 * Return the deficit round-robin policy, where each producer can have up to its weight in messages fetched before moving to the next one.
+	 * 
+	 * @param weights the weight of each producer, by producer index
+	 * @return the weighted policy
+	 */
+	public static FetchPolicy weighted(int ... weights) {
+		for(int i = 0; i < weights.length; i++) {
+			if (weights[i] <= 0) throw new IllegalArgumentException("Weight must be positive: " + weights[i] + " (producer " + i + ")");
+		}
+		return new FetchPolicy(WEIGHTED, 0, weights.clone());
+	}
+	
+	/**
+	 * Return the policy that always fetches from the producer with the lowest index that has messages available.
+	 * 
+	 * @return the strict priority policy
+	 */
+	public static FetchPolicy priority() {
+		return PRIORITY_POLICY;
+	}
+	
+	final int getType() {
+		return type;
+	}
+	
+	final int[] createQuanta(int numberOfProducers) {
+		int[] quanta = new int[numberOfProducers];
+		if (type == WEIGHTED) {
+			if (weights.length != numberOfProducers) {
+				throw new IllegalArgumentException("Number of weights does not match the number of producers: " + weights.length + " != " + numberOfProducers);
+			}
+			System.arraycopy(weights, 0, quanta, 0, numberOfProducers);
+		} else {
+			for(int i = 0; i < numberOfProducers; i++) quanta[i] = quantum;
+		}
+		return quanta;
+	}
+	
+	@Override
+	public String toString() {
+		switch(type) {
+			case ROUND_ROBIN: return "roundRobin";
+			case BATCH: return "batch(" + quantum + ")";
+			case WEIGHTED: return "weighted" + Arrays.toString(weights).replace('[', '(').replace(']', ')');
+			default: return "priority";
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.multiplexer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.MathUtils;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
+
+/**
+ * <p>A {@link Multiplexer} implemented as a single circular queue shared by all producers, instead of one {@link com.coralblocks.coralqueue.queue.AtomicQueue} per producer like
+ * the {@link AtomicMultiplexer}. Memory does not grow with the number of producers and the consumer receives the messages in the global order they were claimed by the producers.</p>
+ *
+ * <p>Each producer claims its next sequence with a CAS on a shared claim sequence and publishes a claimed slot by writing its sequence in a parallel array of availability flags.
+ * As the object returned by <code>nextToDispatch</code> must be ready when you call it again, a slot is published as soon as the producer claims its next one, and the last one is published on flush.
+ * Each producer therefore only keeps track of a single pending sequence, whatever the capacity. The consumer only fetches contiguous slots that were published, so a producer that has claimed but
+ * not yet flushed its last slot holds back the messages of the producers behind it.</p>
+ *
+ * <p>When the queue is full, <code>nextToDispatch</code> publishes the slot already claimed by the producer before returning null. Otherwise producers
+ * holding unpublished slots in a full queue would wait for each other forever. Like with any other multiplexer, the objects returned by previous calls to
+ * <code>nextToDispatch</code> must be ready to be consumed when you call it again.</p>
+ *
+ * <p>Note that the claim is a CAS (and not a <code>getAndAdd</code>) so that <code>nextToDispatch</code> can return null when the queue is full, as required by the {@link Multiplexer} interface.</p>
+ */
+public class MpscQueue<E> implements Multiplexer<E> {
+	
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	private final int capacity;
+	private final int capacityMinusOne;
+	private final E[] data;
+	private final AtomicLongArray published;
+	private final PaddedAtomicLong claimSequence = new PaddedAtomicLong(0);
+	private final PaddedAtomicLong fetchSequence = new PaddedAtomicLong(0);
+	private final Claims[] claims;
+	private final Producer<E>[] producers;
+	private long lastFetchedSeq = 0;
+	private long lastAvailableSeq = 0;
+	
+	private static final class Claims {
+		
+		long pending = 0; // the last sequence claimed and not yet published, zero if none
+		long maxSeqBeforeWrapping;
+		
+		Claims(int capacity) {
+			this.maxSeqBeforeWrapping = capacity;
+		}
+	}
+	
+	/**
+	 * Creates a <code>MpscQueue</code> with the given capacity and number of producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>MpscQueue</code>
+	 * @param builder the {@link Builder} used to populate the <code>MpscQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpscQueue</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public MpscQueue(int capacity, Builder<E> builder, int numberOfProducers) {
+		MathUtils.ensurePowerOfTwo(capacity);
+		this.capacity = capacity;
+		this.capacityMinusOne = capacity - 1;
+		this.data = (E[]) new Object[capacity];
+		for(int i = 0; i < capacity; i++) {
+			this.data[i] = builder.newInstance();
+		}
+		this.published = new AtomicLongArray(capacity);
+		this.claims = new Claims[numberOfProducers];
+		this.producers = (Producer<E>[]) new Producer[numberOfProducers];
+		for(int i = 0; i < numberOfProducers; i++) {
+			claims[i] = new Claims(capacity);
+			producers[i] = new Producer<E>(this, i);
+		}
+	}
+	
+	/**
+	 * Creates a <code>MpscQueue</code> with the default capacity (1024) and number of producers using the given {@link Builder} to populate it.
+	 * 
+	 * @param builder the {@link Builder} used to populate the <code>MpscQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpscQueue</code>
+	 */
+	public MpscQueue(Builder<E> builder, int numberOfProducers) {
+		this(DEFAULT_CAPACITY, builder, numberOfProducers);
+	}
+	
+	/**
+	 * Creates a <code>MpscQueue</code> with the given capacity and number of producers using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of the <code>MpscQueue</code>
+	 * @param klass the class used to populate the <code>MpscQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpscQueue</code>
+	 */
+	public MpscQueue(int capacity, Class<E> klass, int numberOfProducers) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers);
+	}
+	
+	/**
+	 * Creates a <code>MpscQueue</code> with the default capacity (1024) and number of producers using the given class to populate it.
+	 * 
+	 * @param klass the class used to populate the <code>MpscQueue</code>
+	 * @param numberOfProducers the number of producers that will use this <code>MpscQueue</code>
+	 */
+	public MpscQueue(Class<E> klass, int numberOfProducers) {
+		this(DEFAULT_CAPACITY, klass, numberOfProducers);
+	}
+	
+	@Override
+	public final void clear() {
+		lastFetchedSeq = 0;
+		lastAvailableSeq = 0;
+		claimSequence.set(0);
+		fetchSequence.set(0);
+		for(int i = 0; i < capacity; i++) {
+			published.set(i, 0);
+		}
+		for(int i = 0; i < claims.length; i++) {
+			claims[i].pending = 0;
+			claims[i].maxSeqBeforeWrapping = capacity;
+		}
+	}
+	
+	private final int calcIndex(long value) {
+		return (int) ((value - 1) & capacityMinusOne);
+	}
+	
+	private final long claim(int producer) {
+		Claims c = claims[producer];
+		while(true) {
+			long seq = claimSequence.get() + 1;
+			if (seq > c.maxSeqBeforeWrapping) {
+				// this would wrap the buffer... calculate the new one...
+				c.maxSeqBeforeWrapping = fetchSequence.get() + capacity;
+				if (seq > c.maxSeqBeforeWrapping) {
+					// the queue is full and the consumer may be waiting for the slots we have claimed, so publish them or all producers could get stuck
+					flush(producer, true);
+					return -1;
+				}
+			}
+			if (claimSequence.compareAndSet(seq - 1, seq)) {
+				// the object of our previous claim is ready now, so publish it
+				long pending = c.pending;
+				if (pending != 0) published.lazySet(calcIndex(pending), pending);
+				c.pending = seq;
+				return seq;
+			}
+		}
+	}
+	
+	@Override
+	public final E nextToDispatch(int producer) {
+		long seq = claim(producer);
+		if (seq == -1) return null;
+		return data[calcIndex(seq)];
+	}
+	
+	@Override
+	public final E nextToDispatch(int producer, E swap) {
+		long seq = claim(producer);
+		if (seq == -1) return null;
+		int index = calcIndex(seq);
+		E val = data[index];
+		data[index] = swap;
+		return val;
+	}
+	
+	@Override
+	public final void flush(int producer, boolean lazySet) {
+		Claims c = claims[producer];
+		long seq = c.pending;
+		if (seq == 0) return;
+		if (lazySet) {
+			published.lazySet(calcIndex(seq), seq);
+		} else {
+			published.set(calcIndex(seq), seq);
+		}
+		c.pending = 0;
+	}
+	
+	@Override
+	public final void flush(int producer) {
+		flush(producer, false);
+	}
+	
+	@Override
+	public final long availableToFetch() {
+		long seq = lastAvailableSeq + 1;
+		long max = lastFetchedSeq + capacity;
+		while(seq <= max && published.get(calcIndex(seq)) == seq) {
+			seq++;
+		}
+		lastAvailableSeq = seq - 1;
+		return lastAvailableSeq - lastFetchedSeq;
+	}
+	
+	@Override
+	public final E fetch() {
+		if (lastFetchedSeq == lastAvailableSeq) return null;
+		return data[calcIndex(++lastFetchedSeq)];
+	}
+	
+	@Override
+	public final void doneFetching(boolean lazySet) {
+		if (lazySet) {
+			fetchSequence.lazySet(lastFetchedSeq);
+		} else {
+			fetchSequence.set(lastFetchedSeq);
+		}
+	}
+	
+	@Override
+	public final void doneFetching() {
+		fetchSequence.set(lastFetchedSeq); // no lazySet by default...
+	}
+	
+	@Override
+	public final int getNumberOfProducers() {
+		return producers.length;
+	}
+	
+	@Override
+	public final Producer<E> getProducer(int index) {
+		if (index >= producers.length) {
+			throw new RuntimeException("Tried to get a producer with a bad index: " + index);
+		}
+		return producers[index];
+	}
+}
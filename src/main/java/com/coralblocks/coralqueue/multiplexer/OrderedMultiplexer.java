@@ -0,0 +1,346 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.multiplexer;
+
+import java.util.function.ToLongFunction;
+
+import com.coralblocks.coralqueue.queue.AtomicQueue;
+import com.coralblocks.coralqueue.util.Builder;
+import com.coralblocks.coralqueue.util.PaddedAtomicLong;
+
+/**
+ * <p>A {@link Multiplexer} that delivers the messages of all producers ordered by their timestamps (e.g. the event time of a market data update), instead of
+ * round-robin. You give it a function that extracts a primitive <code>long</code> timestamp from a message and the consumer receives a k-way merge of the producers,
+ * done with a heap over the heads of the producer queues that does not produce any garbage.</p>
+ *
+ * <p>Each producer must send its messages in timestamp order. A message is only released to the consumer when no producer can still send a message with a lower timestamp,
+ * in other words, when every producer has either a message waiting or has already sent a message with a timestamp greater than or equal to it. A producer that goes quiet would then hold
+ * everything back, so you can also give it a <i>lateness bound</i>: any message with a timestamp below the highest timestamp seen minus the lateness bound (the <i>watermark</i>) is released
+ * without waiting for the other producers. The highest timestamp seen is taken from the last message of each producer when it flushes. A message that arrives after others with greater timestamps were released is delivered anyway and counted by {@link #getLateCount()}.</p>
+ *
+ * @param <E> The data transfer mutable object to be used by this multiplexer
+ */
+public class OrderedMultiplexer<E> implements Multiplexer<E> {
+	
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final long NO_LATENESS_BOUND = Long.MAX_VALUE; // always wait for all producers
+	
+	private final int numberOfProducers;
+	private final AtomicQueue<E>[] queues;
+	private final Producer<E>[] producers;
+	private final ToLongFunction<E> timestampExtractor;
+	private final long latenessBound;
+	
+	// producer state
+	private static final int PADDING = 16; // so that producers do not write to the same cache line
+	private final E[] lastDispatched;
+	private final PaddedAtomicLong[] flushedTimestamps;
+	
+	// consumer state
+	private final long[] lastTimestamps; // the timestamp of the last message merged from each lane
+	private final long[] remaining; // the messages of each lane not merged yet
+	private final long[] pending; // the messages of each lane merged but not fetched yet
+	private final boolean[] touched; // whether we moved the queue of each lane since the last doneFetching
+	private final boolean[] inHeap;
+	private final int[] heapLanes;
+	private final long[] heapKeys;
+	private int heapSize;
+	private final int[] order;
+	private final E[] merged;
+	private int orderSize = 0;
+	private int orderIndex = 0;
+	private long maxTimestampSeen = Long.MIN_VALUE;
+	private long lastTimestampReleased = Long.MIN_VALUE;
+	private long lateCount = 0;
+	
+	/**
+	 * Creates an <code>OrderedMultiplexer</code> with the given capacity, number of producers, timestamp extractor and lateness bound using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of each producer queue
+	 * @param builder the {@link Builder} used to populate the <code>OrderedMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>OrderedMultiplexer</code>
+	 * @param timestampExtractor the function returning the timestamp of a message
+	 * @param latenessBound how far behind the highest timestamp seen a message can be before it is released without waiting for the other producers or {@link #NO_LATENESS_BOUND}
+	 */
+	@SuppressWarnings("unchecked")
+	public OrderedMultiplexer(int capacity, Builder<E> builder, int numberOfProducers, ToLongFunction<E> timestampExtractor, long latenessBound) {
+		if (latenessBound < 0) throw new IllegalArgumentException("Lateness bound cannot be negative: " + latenessBound);
+		this.numberOfProducers = numberOfProducers;
+		this.timestampExtractor = timestampExtractor;
+		this.latenessBound = latenessBound;
+		this.queues = (AtomicQueue<E>[]) new AtomicQueue[numberOfProducers];
+		this.producers = (Producer<E>[]) new Producer[numberOfProducers];
+		this.lastDispatched = (E[]) new Object[numberOfProducers * PADDING];
+		this.flushedTimestamps = new PaddedAtomicLong[numberOfProducers];
+		this.lastTimestamps = new long[numberOfProducers];
+		this.remaining = new long[numberOfProducers];
+		this.pending = new long[numberOfProducers];
+		this.touched = new boolean[numberOfProducers];
+		this.inHeap = new boolean[numberOfProducers];
+		this.heapLanes = new int[numberOfProducers];
+		this.heapKeys = new long[numberOfProducers];
+		this.order = new int[numberOfProducers * capacity];
+		this.merged = (E[]) new Object[numberOfProducers * capacity];
+		for(int i = 0; i < numberOfProducers; i++) {
+			queues[i] = new AtomicQueue<E>(capacity, builder);
+			producers[i] = new Producer<E>(this, i);
+			lastTimestamps[i] = Long.MIN_VALUE;
+			flushedTimestamps[i] = new PaddedAtomicLong(Long.MIN_VALUE);
+		}
+	}
+	
+	/**
+	 * Creates an <code>OrderedMultiplexer</code> with no lateness bound (i.e. it always waits for all producers) using the given {@link Builder} to populate it.
+	 * 
+	 * @param capacity the capacity of each producer queue
+	 * @param builder the {@link Builder} used to populate the <code>OrderedMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>OrderedMultiplexer</code>
+	 * @param timestampExtractor the function returning the timestamp of a message
+	 */
+	public OrderedMultiplexer(int capacity, Builder<E> builder, int numberOfProducers, ToLongFunction<E> timestampExtractor) {
+		this(capacity, builder, numberOfProducers, timestampExtractor, NO_LATENESS_BOUND);
+	}
+	
+	/**
+	 * Creates an <code>OrderedMultiplexer</code> with the given capacity, number of producers, timestamp extractor and lateness bound using the given class to populate it.
+	 * 
+	 * @param capacity the capacity of each producer queue
+	 * @param klass the class used to populate the <code>OrderedMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>OrderedMultiplexer</code>
+	 * @param timestampExtractor the function returning the timestamp of a message
+	 * @param latenessBound how far behind the highest timestamp seen a message can be before it is released without waiting for the other producers or {@link #NO_LATENESS_BOUND}
+	 */
+	public OrderedMultiplexer(int capacity, Class<E> klass, int numberOfProducers, ToLongFunction<E> timestampExtractor, long latenessBound) {
+		this(capacity, Builder.createBuilder(klass), numberOfProducers, timestampExtractor, latenessBound);
+	}
+	
+	/**
+	 * Creates an <code>OrderedMultiplexer</code> with the default capacity (1024) and no lateness bound (i.e. it always waits for all producers) using the given class to populate it.
+	 * 
+	 * @param klass the class used to populate the <code>OrderedMultiplexer</code>
+	 * @param numberOfProducers the number of producers that will use this <code>OrderedMultiplexer</code>
+	 * @param timestampExtractor the function returning the timestamp of a message
+	 */
+	public OrderedMultiplexer(Class<E> klass, int numberOfProducers, ToLongFunction<E> timestampExtractor) {
+		this(DEFAULT_CAPACITY, Builder.createBuilder(klass), numberOfProducers, timestampExtractor, NO_LATENESS_BOUND);
+	}
+	
+	@Override
+	public final void clear() {
+		for(int i = 0; i < numberOfProducers; i++) {
+			queues[i].clear();
+			lastTimestamps[i] = Long.MIN_VALUE;
+			remaining[i] = 0;
+			pending[i] = 0;
+			touched[i] = false;
+			inHeap[i] = false;
+			lastDispatched[i * PADDING] = null;
+			flushedTimestamps[i].set(Long.MIN_VALUE);
+		}
+		heapSize = 0;
+		orderSize = 0;
+		orderIndex = 0;
+		for(int i = 0; i < merged.length; i++) merged[i] = null;
+		maxTimestampSeen = Long.MIN_VALUE;
+		lastTimestampReleased = Long.MIN_VALUE;
+		lateCount = 0;
+	}
+	
+	/**
+	 * Return how many messages were delivered with a timestamp lower than the timestamp of a message delivered before them.
+	 * 
+	 * @return the number of late messages
+	 */
+	public final long getLateCount() {
+		return lateCount;
+	}
+
+	@Override
+	public final E nextToDispatch(int producer) {
+		E e = queues[producer].nextToDispatch();
+		if (e != null) lastDispatched[producer * PADDING] = e;
+		return e;
+	}
+	
+	@Override
+	public final E nextToDispatch(int producer, E swap) {
+		E e = queues[producer].nextToDispatch(swap);
+		if (e != null) lastDispatched[producer * PADDING] = swap; // the swap is now in the queue
+		return e;
+	}
+	
+	private final void updateFlushedTimestamp(int producer) {
+		E last = lastDispatched[producer * PADDING];
+		if (last != null) flushedTimestamps[producer].lazySet(timestampExtractor.applyAsLong(last)); // the flush below will publish it
+	}
+
+	@Override
+	public final void flush(int producer, boolean lazySet) {
+		updateFlushedTimestamp(producer);
+		queues[producer].flush(lazySet);
+	}
+
+	@Override
+	public final void flush(int producer) {
+		updateFlushedTimestamp(producer);
+		queues[producer].flush();
+	}
+	
+	private final void heapPush(int lane, long key) {
+		int i = heapSize++;
+		while(i > 0) {
+			int parent = (i - 1) >> 1;
+			if (heapKeys[parent] <= key) break;
+			heapLanes[i] = heapLanes[parent];
+			heapKeys[i] = heapKeys[parent];
+			i = parent;
+		}
+		heapLanes[i] = lane;
+		heapKeys[i] = key;
+	}
+	
+	private final void heapReplaceTop(int lane, long key) {
+		int i = 0;
+		while(true) {
+			int child = (i << 1) + 1;
+			if (child >= heapSize) break;
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+			if (key <= heapKeys[child]) break;
+			heapLanes[i] = heapLanes[child];
+			heapKeys[i] = heapKeys[child];
+			i = child;
+		}
+		heapLanes[i] = lane;
+		heapKeys[i] = key;
+	}
+	
+	private final void heapRemoveTop() {
+		if (--heapSize > 0) heapReplaceTop(heapLanes[heapSize], heapKeys[heapSize]);
+	}
+	
+	private final long peekTimestamp(int lane) {
+		return timestampExtractor.applyAsLong(queues[lane].fetch(false));
+	}
+
+	/**
+	 * <p>Merge the new messages available from all producers and return how many messages can be released in timestamp order. The messages merged by a previous call and
+	 * not fetched yet are kept, so they are neither merged again nor delivered twice. Nothing is removed from the producer queues until you fetch the messages and call <code>doneFetching()</code>.</p>
+	 * 
+	 * @return the number of messages that can be fetched
+	 */
+	@Override
+	public final long availableToFetch() {
+		
+		if (orderIndex > 0) {
+			// move what was not fetched yet to the front
+			int left = orderSize - orderIndex;
+			System.arraycopy(order, orderIndex, order, 0, left);
+			System.arraycopy(merged, orderIndex, merged, 0, left);
+			orderSize = left;
+			orderIndex = 0;
+		}
+		
+		long minEmptyLastTimestamp = Long.MAX_VALUE; // no lane can still send anything below this
+		
+		for(int i = 0; i < numberOfProducers; i++) {
+			// the queue is positioned after the last message we merged, so this is what is new
+			if ((remaining[i] = queues[i].availableToFetch()) > 0) {
+				long flushedTimestamp = flushedTimestamps[i].get();
+				if (flushedTimestamp > maxTimestampSeen) maxTimestampSeen = flushedTimestamp;
+				if (!inHeap[i]) {
+					heapPush(i, peekTimestamp(i));
+					inHeap[i] = true;
+				}
+			} else if (lastTimestamps[i] < minEmptyLastTimestamp) {
+				minEmptyLastTimestamp = lastTimestamps[i];
+			}
+		}
+		
+		long watermark = maxTimestampSeen - latenessBound;
+		if (watermark > maxTimestampSeen) watermark = Long.MIN_VALUE; // overflow (no lateness bound)
+		
+		while(heapSize > 0) {
+			int lane = heapLanes[0];
+			long ts = heapKeys[0];
+			if (ts > minEmptyLastTimestamp && ts > watermark) break; // wait for the empty lanes
+			order[orderSize] = lane;
+			merged[orderSize++] = queues[lane].fetch(); // only committed by doneFetching once the caller fetches it
+			pending[lane]++;
+			touched[lane] = true;
+			lastTimestamps[lane] = ts;
+			if (--remaining[lane] > 0) {
+				heapReplaceTop(lane, peekTimestamp(lane));
+			} else {
+				heapRemoveTop();
+				inHeap[lane] = false;
+				if (ts < minEmptyLastTimestamp) minEmptyLastTimestamp = ts;
+			}
+		}
+		
+		return orderSize - orderIndex;
+	}
+
+	@Override
+	public final E fetch() {
+		if (orderIndex == orderSize) return null;
+		int lane = order[orderIndex];
+		E e = merged[orderIndex++];
+		pending[lane]--;
+		long ts = timestampExtractor.applyAsLong(e);
+		if (ts < lastTimestampReleased) {
+			lateCount++;
+		} else {
+			lastTimestampReleased = ts;
+		}
+		return e;
+	}
+
+	@Override
+	public final void doneFetching(boolean lazySet) {
+		for(int i = 0; i < numberOfProducers; i++) {
+			if (!touched[i]) continue;
+			long left = pending[i];
+			AtomicQueue<E> queue = queues[i];
+			if (left > 0) {
+				// keep the messages merged but not fetched, so go back to release only what was fetched and then forward again
+				queue.rollBack(left);
+				queue.doneFetching(lazySet);
+				for(long j = 0; j < left; j++) queue.fetch();
+			} else {
+				queue.doneFetching(lazySet);
+				touched[i] = false;
+			}
+		}
+	}
+
+	@Override
+	public final void doneFetching() {
+		doneFetching(false);
+	}
+
+	@Override
+	public final int getNumberOfProducers() {
+		return numberOfProducers;
+	}
+	
+	@Override
+	public final Producer<E> getProducer(int index) {
+		if (index >= numberOfProducers) {
+			throw new RuntimeException("Tried to get a producer with a bad index: " + index);
+		}
+		return producers[index];
+	}
+}
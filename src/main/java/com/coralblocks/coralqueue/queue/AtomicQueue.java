@@ -122,6 +122,28 @@ public class AtomicQueue<E> implements Queue<E> {
 		return data[calcIndex(lastOfferedSeq)];
 	}
 	
+	/**
+	 * <p>Return the sequence of the last object returned by <code>nextToDispatch()</code>, starting at 1 for the first one. Only the producer thread can call this method.</p>
+	 * 
+	 * @return the last offered sequence
+	 */
+	public final long getLastOfferedSequence() {
+		return lastOfferedSeq;
+	}
+	
+	/**
+	 * <p>Return the number of objects dispatched by the producer that the consumer has not fetched yet (including the ones not flushed yet). The consumer sequence is only read
+	 * when <code>refresh</code> is true, otherwise the last value seen by the producer is used and the result may be larger than the real one, but never smaller.
+	 * Only the producer thread can call this method.</p>
+	 * 
+	 * @param refresh true to read the consumer sequence or false to use the last value seen
+	 * @return the number of objects waiting to be fetched
+	 */
+	public final long getDepth(boolean refresh) {
+		if (refresh) maxSeqBeforeWrapping = calcMaxSeqBeforeWrapping();
+		return lastOfferedSeq - (maxSeqBeforeWrapping - capacity);
+	}
+	
 	@Override
 	public final E nextToDispatch(E swap) {
 		E val = nextToDispatch();
@@ -150,6 +172,16 @@ public class AtomicQueue<E> implements Queue<E> {
 		return offerSequence.get() - lastFetchedSeq;
 	}
 	
+	/**
+	 * <p>Return true if everything flushed by the producer was fetched and the consumer has called <code>doneFetching()</code>.
+	 * Unlike the other methods, this one can be called by any thread.</p>
+	 * 
+	 * @return true if the queue is empty
+	 */
+	public final boolean isEmpty() {
+		return fetchSequence.get() == offerSequence.get();
+	}
+	
 	@Override
 	public final E fetch(boolean remove) {
 		if (remove) {
@@ -0,0 +1,100 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A set of flags, one per lane, that producers raise to tell a consumer that a lane has something new, so that the consumer does not have to read the sequence of every lane on every poll.
+ * The flags are kept 64 per word and each word sits on its own cache line.</p>
+ * 
+ * <p>A producer must call {@link #ring(int, boolean)} <b>after</b> it flushes the lane. The consumer takes a whole word of flags with {@link #take(int)} <b>before</b> it reads the lanes, so a
+ * flush is never missed: either the consumer sees the flag or the flag is raised again after it was taken. Ringing a flag that is already raised costs a single volatile read,
+ * except after a <code>lazySet</code> flush: its store can be reordered after that read, so the consumer could take the flag and still read the old sequence. In that case the flag is
+ * always written with a CAS.</p>
+ */
+public class Doorbell {
+	
+	private static final int PADDING = 8; // so that each word is in its own cache line
+	
+	private final int numberOfWords;
+	private final AtomicLongArray words;
+	
+	/**
+	 * Creates a new <code>Doorbell</code> for the given number of lanes.
+	 * 
+	 * @param numberOfLanes the number of lanes
+	 */
+	public Doorbell(int numberOfLanes) {
+		this.numberOfWords = (numberOfLanes + 63) >>> 6;
+		this.words = new AtomicLongArray(numberOfWords * PADDING);
+	}
+	
+	/**
+	 * Return the number of words of 64 flags.
+	 * 
+	 * @return the number of words
+	 */
+	public final int getNumberOfWords() {
+		return numberOfWords;
+	}
+	
+	/**
+	 * Raise the flag of the given lane after a volatile flush. This method can be called by any thread.
+	 * 
+	 * @param lane the lane that has something new
+	 */
+	public final void ring(int lane) {
+		ring(lane, false);
+	}
+	
+	/**
+	 * Raise the flag of the given lane. This method can be called by any thread.
+	 * 
+	 * @param lane the lane that has something new
+	 * @param lazySet true if the lane was flushed with a <code>lazySet</code>
+	 */
+	public final void ring(int lane, boolean lazySet) {
+		int index = (lane >>> 6) * PADDING;
+		long bit = 1L << (lane & 63);
+		while(true) {
+			long word = words.get(index);
+			if (!lazySet && (word & bit) != 0) return; // already raised, and our flush was a volatile store so whoever takes it will see it
+			if (words.compareAndSet(index, word, word | bit)) return;
+		}
+	}
+	
+	/**
+	 * Return the flags of the given word and lower them. Bit <code>n</code> of word <code>w</code> is the flag of lane <code>w * 64 + n</code>.
+	 * 
+	 * @param word the word index
+	 * @return the flags that were raised
+	 */
+	public final long take(int word) {
+		int index = word * PADDING;
+		if (words.get(index) == 0) return 0;
+		return words.getAndSet(index, 0);
+	}
+	
+	/**
+	 * Lower all flags. This method is not thread-safe.
+	 */
+	public final void clear() {
+		for(int i = 0; i < numberOfWords; i++) {
+			words.set(i * PADDING, 0);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A preallocated log-linear histogram of non-negative long values (usually nanoseconds). Each power of two is divided into 16 linear sub-buckets,
+ * so any recorded value is placed in a bucket whose width is at most 1/16 (~6%) of its value. The whole range of positive longs is covered
+ * by a fixed number of buckets, so recording never allocates.</p>
+ *
+ * <p>This histogram supports a <b>single writer</b> thread calling {@link #record(long)} and any number of reader threads calling the getters
+ * or {@link #copyTo(LogLinearHistogram)} concurrently. The writer uses lazy sets so recording never blocks and reading never blocks. Note that
+ * a reader can observe the counters in the middle of a recording, in other words, each counter is consistent but the histogram as a whole
+ * may be off by the value being recorded at that moment.</p>
+ */
+public class LogLinearHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The fixed number of buckets of every <code>LogLinearHistogram</code>
+	 */
+	public static final int NUMBER_OF_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong(0);
+	private final AtomicLong totalValue = new AtomicLong(0);
+	private final AtomicLong maxValue = new AtomicLong(0);
+
+	/**
+	 * Return the index of the bucket where the given value is placed. Negative values are placed in the first bucket.
+	 *
+	 * @param value the value
+	 * @return the bucket index
+	 */
+	public static final int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) return value < 0 ? 0 : (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int mantissa = (int) (value >>> shift); // between SUB_BUCKET_COUNT and (2 * SUB_BUCKET_COUNT) - 1
+		return ((shift + 1) << SUB_BUCKET_BITS) + mantissa - SUB_BUCKET_COUNT;
+	}
+
+	/**
+	 * Return the smallest value that is placed in the given bucket.
+	 *
+	 * @param bucketIndex the bucket index
+	 * @return the lower bound (inclusive) of the bucket
+	 */
+	public static final long bucketLowerBound(int bucketIndex) {
+		if (bucketIndex < SUB_BUCKET_COUNT) return bucketIndex;
+		int shift = (bucketIndex >>> SUB_BUCKET_BITS) - 1;
+		long mantissa = (bucketIndex & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+		return mantissa << shift;
+	}
+
+	/**
+	 * Return the largest value that is placed in the given bucket.
+	 *
+	 * @param bucketIndex the bucket index
+	 * @return the upper bound (inclusive) of the bucket
+	 */
+	public static final long bucketUpperBound(int bucketIndex) {
+		if (bucketIndex == NUMBER_OF_BUCKETS - 1) return Long.MAX_VALUE;
+		return bucketLowerBound(bucketIndex + 1) - 1;
+	}
+
+	/**
+	 * Record a value. This method must only be called by the single writer thread.
+	 *
+	 * @param value the value to record
+	 */
+	public final void record(long value) {
+		int index = bucketIndex(value);
+		counts.lazySet(index, counts.get(index) + 1);
+		totalValue.lazySet(totalValue.get() + value);
+		if (value > maxValue.get()) maxValue.lazySet(value);
+		totalCount.lazySet(totalCount.get() + 1);
+	}
+
+	/**
+	 * Return how many values were recorded in the given bucket.
+	 *
+	 * @param bucketIndex the bucket index
+	 * @return the number of values in this bucket
+	 */
+	public final long getCount(int bucketIndex) {
+		return counts.get(bucketIndex);
+	}
+
+	/**
+	 * Return the total number of values recorded.
+	 *
+	 * @return the total number of values recorded
+	 */
+	public final long getTotalCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Return the sum of all values recorded.
+	 *
+	 * @return the sum of all values recorded
+	 */
+	public final long getTotalValue() {
+		return totalValue.get();
+	}
+
+	/**
+	 * Return the maximum value recorded or zero if nothing was recorded.
+	 *
+	 * @return the maximum value recorded
+	 */
+	public final long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Return the average of all values recorded or zero if nothing was recorded.
+	 *
+	 * @return the average value
+	 */
+	public final double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalValue.get() / count;
+	}
+
+	/**
+	 * Return the (upper bound of the bucket of the) value below which the given percentage of the recorded values fall.
+	 *
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the value at this percentile or zero if nothing was recorded
+	 */
+	public final long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) total += counts.get(i);
+		if (total == 0) return 0;
+		long target = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * total);
+		if (target == 0) target = 1;
+		long sum = 0;
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			sum += counts.get(i);
+			if (sum >= target) return Math.min(bucketUpperBound(i), maxValue.get());
+		}
+		return maxValue.get();
+	}
+
+	/**
+	 * Copy all counters of this histogram to the given histogram, without producing any garbage. This can be called by any thread.
+	 *
+	 * @param dest the histogram that will receive a copy of this histogram
+	 */
+	public final void copyTo(LogLinearHistogram dest) {
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			dest.counts.lazySet(i, counts.get(i));
+		}
+		dest.totalValue.lazySet(totalValue.get());
+		dest.maxValue.lazySet(maxValue.get());
+		dest.totalCount.set(totalCount.get());
+	}
+
+	/**
+	 * Reset all counters to zero. This should only be called by the single writer thread or when the histogram is idle.
+	 */
+	public final void clear() {
+		for(int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			counts.lazySet(i, 0);
+		}
+		totalValue.lazySet(0);
+		maxValue.lazySet(0);
+		totalCount.set(0);
+	}
+}
@@ -89,6 +89,10 @@ public abstract class AbstractWaitStrategy implements WaitStrategy {
 		else if (awaitCycleCount == maxAwaitCycleCount) done = true; // don't increment forever
 		else if (++awaitCycleCount == maxAwaitCycleCount) done = true; // increment
 		
+		for(int i = listeners.size() - 1; i >= 0; i--) {
+			listeners.get(i).waiting(this);
+		}
+		
 		awaitOperation();
 		
 		for(int i = listeners.size() - 1; i >= 0; i--) {
@@ -0,0 +1,138 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A wait strategy that sleeps precisely for a given number of nanoseconds by combining parking and busy sleeping. It parks for the coarse portion of the
+ * sleep time and then busy spins on <code>System.nanoTime()</code> for the remaining residual, like the {@link BusySleepWaitStrategy}.</p>
+ *
+ * <p><code>LockSupport.parkNanos(long)</code> usually oversleeps (on Linux by the timer slack, around 50 microseconds by default), so the park time
+ * is the sleep time minus the expected park overshoot. The expected overshoot is calibrated once, the first time it is needed, by parking a few times and
+ * measuring how late the thread wakes up. After that, each wait strategy keeps adjusting its own estimate with every park it does.</p>
+ *
+ * <p>The result is a sleep that is as accurate as a busy sleep but that only burns CPU for the last few microseconds.</p>
+ */
+public class HybridSleepWaitStrategy extends AbstractWaitStrategy {
+
+	public static final long DEFAULT_SLEEP_TIME_IN_NANOS = 100_000;
+	public static final int DEFAULT_CALIBRATION_ITERATIONS = 200;
+	public static final long DEFAULT_CALIBRATION_PARK_TIME_IN_NANOS = 10_000;
+
+	private static volatile long calibratedParkOvershootInNanos = -1;
+
+	private final long sleepTimeInNanos;
+	private long parkOvershootInNanos;
+
+	/**
+	 * Creates a new <code>HybridSleepWaitStrategy</code> with the given expected park overshoot.
+	 *
+	 * @param maxAwaitCycleCount the maximum number of wait cycles before <code>await()</code> starts to return true
+	 * @param sleepTimeInNanos the time to sleep in each <code>await()</code>
+	 * @param parkOvershootInNanos the initial expected park overshoot, in nanoseconds
+	 */
+	public HybridSleepWaitStrategy(long maxAwaitCycleCount, long sleepTimeInNanos, long parkOvershootInNanos) {
+		super(maxAwaitCycleCount);
+		this.sleepTimeInNanos = sleepTimeInNanos;
+		this.parkOvershootInNanos = parkOvershootInNanos;
+	}
+
+	public HybridSleepWaitStrategy(long maxAwaitCycleCount, long sleepTimeInNanos) {
+		this(maxAwaitCycleCount, sleepTimeInNanos, getCalibratedParkOvershoot());
+	}
+
+	public HybridSleepWaitStrategy(long sleepTimeInNanos) {
+		this(DEFAULT_MAX_AWAIT_CYCLE_COUNT, sleepTimeInNanos);
+	}
+
+	public HybridSleepWaitStrategy() {
+		this(DEFAULT_MAX_AWAIT_CYCLE_COUNT, DEFAULT_SLEEP_TIME_IN_NANOS);
+	}
+
+	/**
+	 * Return the park overshoot calibrated for this machine, calibrating it if it was not calibrated yet.
+	 *
+	 * @return the calibrated park overshoot in nanoseconds
+	 */
+	public static final long getCalibratedParkOvershoot() {
+		long overshoot = calibratedParkOvershootInNanos;
+		if (overshoot < 0) {
+			overshoot = calibrateParkOvershoot(DEFAULT_CALIBRATION_ITERATIONS, DEFAULT_CALIBRATION_PARK_TIME_IN_NANOS);
+			calibratedParkOvershootInNanos = overshoot;
+		}
+		return overshoot;
+	}
+
+	/**
+	 * Park the calling thread the given number of times for the given park time and return how late it woke up in the worst case
+	 * (i.e. the 99th percentile of the overshoots observed). This is slow and should only be called at startup.
+	 *
+	 * @param iterations how many times to park
+	 * @param parkTimeInNanos the park time to use
+	 * @return the park overshoot in nanoseconds
+	 */
+	public static final long calibrateParkOvershoot(int iterations, long parkTimeInNanos) {
+		long[] overshoots = new long[iterations];
+		for(int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			LockSupport.parkNanos(parkTimeInNanos);
+			overshoots[i] = Math.max(0, System.nanoTime() - start - parkTimeInNanos);
+		}
+		Arrays.sort(overshoots);
+		return overshoots[(int) ((iterations - 1) * 0.99)];
+	}
+
+	/**
+	 * Return the current expected park overshoot of this wait strategy.
+	 *
+	 * @return the expected park overshoot in nanoseconds
+	 */
+	public final long getParkOvershoot() {
+		return parkOvershootInNanos;
+	}
+
+	@Override
+	protected final void awaitOperation() {
+		sleepFor(sleepTimeInNanos);
+	}
+
+	/**
+	 * Sleep for the given number of nanoseconds, parking for as long as possible and then busy spinning until the time has elapsed.
+	 *
+	 * @param nanos the number of nanoseconds to sleep for
+	 */
+	public final void sleepFor(long nanos) {
+		long start = System.nanoTime();
+		long deadline = start + nanos;
+		long parkTime = nanos - parkOvershootInNanos;
+		if (parkTime > 0) {
+			LockSupport.parkNanos(parkTime);
+			long overshoot = Math.max(0, System.nanoTime() - start - parkTime);
+			if (overshoot > parkOvershootInNanos) {
+				parkOvershootInNanos += (overshoot - parkOvershootInNanos + 1) >> 1; // a late wakeup costs precision so adapt fast
+			} else {
+				parkOvershootInNanos -= (parkOvershootInNanos - overshoot) >> 4; // an early one only costs a bit of CPU so adapt slowly
+			}
+		} else {
+			parkOvershootInNanos -= parkOvershootInNanos >> 4; // so that an outlier does not stop us from parking forever
+		}
+		while(deadline - System.nanoTime() > 0) {
+			Thread.onSpinWait();
+		}
+	}
+}
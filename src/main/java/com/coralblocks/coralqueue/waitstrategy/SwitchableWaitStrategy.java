@@ -0,0 +1,107 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A wait strategy that delegates to another wait strategy, which can be replaced at runtime by any other thread (e.g. a monitoring thread) through {@link #switchTo(WaitStrategy)}.
+ * This allows you to trade CPU for latency while the system is running, for example busy spinning during peak hours and parking otherwise.</p>
+ *
+ * <p>The switch only takes effect on the next <code>reset()</code>, so the waiting thread never changes wait strategies in the middle of a wait. The cost for the waiting thread is one
+ * volatile read per <code>reset()</code>. Listeners registered with this wait strategy are moved to the new wait strategy when the switch takes effect.</p>
+ *
+ * <p>Note that the wait strategy passed to {@link #switchTo(WaitStrategy)} must not be used anywhere else.</p>
+ */
+public class SwitchableWaitStrategy implements WaitStrategy {
+	
+	private WaitStrategy current;
+	private volatile WaitStrategy next;
+	private final List<WaitStrategyListener> listeners = new ArrayList<WaitStrategyListener>(8);
+	
+	public SwitchableWaitStrategy(WaitStrategy waitStrategy) {
+		this.current = waitStrategy;
+		this.next = waitStrategy;
+	}
+	
+	public SwitchableWaitStrategy(String config) {
+		this(WaitStrategies.parse(config));
+	}
+	
+	/**
+	 * Replace the wait strategy being used. This method can be called by any thread and takes effect on the next <code>reset()</code>.
+	 * 
+	 * @param waitStrategy the new wait strategy to use
+	 */
+	public final void switchTo(WaitStrategy waitStrategy) {
+		this.next = waitStrategy;
+	}
+	
+	/**
+	 * Replace the wait strategy being used by a new one created from the given configuration string. See {@link WaitStrategies#parse(String)}.
+	 * This method can be called by any thread and takes effect on the next <code>reset()</code>.
+	 * 
+	 * @param config the configuration string of the new wait strategy
+	 */
+	public final void switchTo(String config) {
+		switchTo(WaitStrategies.parse(config));
+	}
+	
+	/**
+	 * Return the wait strategy that will be used after the next <code>reset()</code>.
+	 * 
+	 * @return the wait strategy being used or about to be used
+	 */
+	public final WaitStrategy getWaitStrategy() {
+		return next;
+	}
+	
+	@Override
+	public void addListener(WaitStrategyListener listener) {
+		if (!listeners.contains(listener)) {
+			listeners.add(listener);
+			current.addListener(listener);
+		}
+	}
+	
+	@Override
+	public void removeListener(WaitStrategyListener listener) {
+		if (listeners.remove(listener)) {
+			current.removeListener(listener);
+		}
+	}
+	
+	@Override
+	public final boolean await() {
+		return current.await();
+	}
+	
+	@Override
+	public final void reset() {
+		current.reset();
+		WaitStrategy waitStrategy = next;
+		if (waitStrategy != current) {
+			for(int i = 0; i < listeners.size(); i++) {
+				WaitStrategyListener listener = listeners.get(i);
+				current.removeListener(listener);
+				waitStrategy.addListener(listener);
+			}
+			waitStrategy.reset();
+			current = waitStrategy;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A wait strategy that parks the waiting thread until the other side calls {@link #signal()}. It never spins and never pins its thread, so it is the
+ * wait strategy to use when consumers run on virtual threads: a parked virtual thread is unmounted and gives its carrier thread back to the scheduler.
+ * That makes it possible to have thousands of mostly-idle queues (e.g. one per client session), each one with its own consumer.</p>
+ *
+ * <p>The producer must call {@link #signal()} after calling <code>flush()</code>. The signal is cheap when the consumer is not parked (a volatile write and a volatile read, no system call) and it
+ * is never lost: if it arrives before the consumer parks, the next <code>await()</code> returns immediately.</p>
+ *
+ * <p>Only one thread can call <code>await()</code> and <code>reset()</code>, but any number of threads can call {@link #signal()}. You can also give it a maximum park time, as
+ * a safety net for producers that do not signal.</p>
+ */
+public class VirtualThreadWaitStrategy extends AbstractWaitStrategy {
+
+	public static final long DEFAULT_MAX_PARK_TIME_IN_NANOS = -1; // park until signaled
+
+	private final long maxParkTimeInNanos;
+	private final AtomicBoolean signaled = new AtomicBoolean(false);
+	private final AtomicReference<Thread> waiter = new AtomicReference<Thread>(null);
+
+	/**
+	 * Creates a new <code>VirtualThreadWaitStrategy</code>.
+	 *
+	 * @param maxAwaitCycleCount the maximum number of wait cycles before <code>await()</code> starts to return true
+	 * @param maxParkTimeInNanos the maximum time to park waiting for a signal or a negative number to park until signaled
+	 */
+	public VirtualThreadWaitStrategy(long maxAwaitCycleCount, long maxParkTimeInNanos) {
+		super(maxAwaitCycleCount);
+		this.maxParkTimeInNanos = maxParkTimeInNanos;
+	}
+
+	public VirtualThreadWaitStrategy(long maxParkTimeInNanos) {
+		this(DEFAULT_MAX_AWAIT_CYCLE_COUNT, maxParkTimeInNanos);
+	}
+
+	public VirtualThreadWaitStrategy() {
+		this(DEFAULT_MAX_AWAIT_CYCLE_COUNT, DEFAULT_MAX_PARK_TIME_IN_NANOS);
+	}
+
+	/**
+	 * Wake up the waiting thread, if it is parked, or make its next <code>await()</code> return immediately. This should be called by the producer after it flushes.
+	 */
+	public final void signal() {
+		signaled.set(true);
+		Thread thread = waiter.get();
+		if (thread != null) LockSupport.unpark(thread);
+	}
+
+	@Override
+	protected final void awaitOperation() {
+		// announce that we are about to park before checking for a signal, so either we see the signal or the producer sees us
+		waiter.set(Thread.currentThread());
+		if (!signaled.getAndSet(false)) {
+			if (maxParkTimeInNanos < 0) {
+				LockSupport.park(this);
+			} else {
+				LockSupport.parkNanos(this, maxParkTimeInNanos);
+			}
+		}
+		waiter.lazySet(null);
+	}
+}
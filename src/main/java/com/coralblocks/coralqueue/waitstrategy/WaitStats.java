@@ -0,0 +1,190 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.coralblocks.coralqueue.util.LogLinearHistogram;
+
+/**
+ * <p>The statistics collected by a {@link WaitStatsListener}, per phase. A phase is each one of the (leaf) wait strategies inside a
+ * {@link CompositeWaitStrategy}, in the order they are used. A simple (i.e. non-composite) wait strategy has only one phase.</p>
+ *
+ * <p>For each phase we have the number of <code>await()</code> calls, the time spent waiting in that phase, the number of waits (i.e. the cycles of
+ * <code>await()</code> calls ending with a <code>reset()</code>) that reached that phase as their last one and a histogram with the durations of these waits.</p>
+ *
+ * <p>When there are more phases than room for them, for example because a {@link SwitchableWaitStrategy} moved to many different wait strategies over time,
+ * the last phase is renamed to {@link #OTHER_PHASE_NAME} and collects the statistics of all the phases that did not fit.</p>
+ *
+ * <p>Use {@link WaitStatsListener#snapshot(WaitStats)} to copy the live statistics from a listener to a <code>WaitStats</code> object that you own, without producing garbage.</p>
+ */
+public class WaitStats {
+	
+	/**
+	 * The name of the last phase when there are more phases than room for them. All the phases that do not fit are folded into it.
+	 */
+	public static final String OTHER_PHASE_NAME = "other";
+
+	private final int maxNumberOfPhases;
+	private final String[] phaseNames;
+	private final AtomicLongArray awaitCounts;
+	private final AtomicLongArray timeSpentInNanos;
+	private final AtomicLongArray reachedCounts;
+	private final LogLinearHistogram[] waitHistograms;
+	private volatile int numberOfPhases = 0;
+
+	/**
+	 * Creates a new <code>WaitStats</code> with room for the given maximum number of phases.
+	 *
+	 * @param maxNumberOfPhases the maximum number of phases
+	 */
+	public WaitStats(int maxNumberOfPhases) {
+		this.maxNumberOfPhases = maxNumberOfPhases;
+		this.phaseNames = new String[maxNumberOfPhases];
+		this.awaitCounts = new AtomicLongArray(maxNumberOfPhases);
+		this.timeSpentInNanos = new AtomicLongArray(maxNumberOfPhases);
+		this.reachedCounts = new AtomicLongArray(maxNumberOfPhases);
+		this.waitHistograms = new LogLinearHistogram[maxNumberOfPhases];
+		for(int i = 0; i < maxNumberOfPhases; i++) {
+			this.waitHistograms[i] = new LogLinearHistogram();
+		}
+	}
+
+	/**
+	 * Return the maximum number of phases this object can hold.
+	 *
+	 * @return the maximum number of phases
+	 */
+	public final int getMaxNumberOfPhases() {
+		return maxNumberOfPhases;
+	}
+
+	/**
+	 * Return the number of phases seen so far.
+	 *
+	 * @return the number of phases
+	 */
+	public final int getNumberOfPhases() {
+		return numberOfPhases;
+	}
+
+	/**
+	 * Return the name of a phase, which is the simple class name of its wait strategy.
+	 *
+	 * @param phase the zero-based phase index
+	 * @return the name of the phase
+	 */
+	public final String getPhaseName(int phase) {
+		return phaseNames[phase];
+	}
+
+	/**
+	 * Return how many times <code>await()</code> was called in this phase.
+	 *
+	 * @param phase the zero-based phase index
+	 * @return the number of <code>await()</code> calls
+	 */
+	public final long getAwaitCount(int phase) {
+		return awaitCounts.get(phase);
+	}
+
+	/**
+	 * Return the time spent waiting in this phase, in nanoseconds.
+	 *
+	 * @param phase the zero-based phase index
+	 * @return the time spent in nanoseconds
+	 */
+	public final long getTimeSpentInNanos(int phase) {
+		return timeSpentInNanos.get(phase);
+	}
+
+	/**
+	 * Return how many waits had this phase as the last phase reached before <code>reset()</code> was called.
+	 *
+	 * @param phase the zero-based phase index
+	 * @return the number of waits that reached this phase and no further
+	 */
+	public final long getReachedCount(int phase) {
+		return reachedCounts.get(phase);
+	}
+
+	/**
+	 * Return the histogram with the total durations, in nanoseconds, of the waits that had this phase as the last phase reached.
+	 *
+	 * @param phase the zero-based phase index
+	 * @return the histogram of wait durations
+	 */
+	public final LogLinearHistogram getWaitHistogram(int phase) {
+		return waitHistograms[phase];
+	}
+
+	final int addPhase(String name) {
+		int phase = numberOfPhases;
+		if (phase == maxNumberOfPhases) {
+			// no more room, so the last phase takes this one and all the ones after it
+			phaseNames[phase - 1] = OTHER_PHASE_NAME;
+			return phase - 1;
+		}
+		phaseNames[phase] = name;
+		numberOfPhases = phase + 1;
+		return phase;
+	}
+
+	final void awaited(int phase, long elapsedNanos) {
+		awaitCounts.lazySet(phase, awaitCounts.get(phase) + 1);
+		if (elapsedNanos > 0) timeSpentInNanos.lazySet(phase, timeSpentInNanos.get(phase) + elapsedNanos);
+	}
+
+	final void done(int lastPhase, long elapsedNanos, long waitDurationInNanos) {
+		if (elapsedNanos > 0) timeSpentInNanos.lazySet(lastPhase, timeSpentInNanos.get(lastPhase) + elapsedNanos);
+		reachedCounts.lazySet(lastPhase, reachedCounts.get(lastPhase) + 1);
+		waitHistograms[lastPhase].record(waitDurationInNanos);
+	}
+
+	final void copyTo(WaitStats dest) {
+		if (dest.maxNumberOfPhases < maxNumberOfPhases) {
+			throw new IllegalArgumentException("Destination is too small! maxNumberOfPhases=" + dest.maxNumberOfPhases);
+		}
+		int n = numberOfPhases;
+		for(int i = 0; i < n; i++) {
+			dest.phaseNames[i] = phaseNames[i];
+			dest.awaitCounts.lazySet(i, awaitCounts.get(i));
+			dest.timeSpentInNanos.lazySet(i, timeSpentInNanos.get(i));
+			dest.reachedCounts.lazySet(i, reachedCounts.get(i));
+			waitHistograms[i].copyTo(dest.waitHistograms[i]);
+		}
+		dest.numberOfPhases = n;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		int n = numberOfPhases;
+		for(int i = 0; i < n; i++) {
+			LogLinearHistogram h = waitHistograms[i];
+			if (i > 0) sb.append('\n');
+			sb.append("phase=").append(i).append(" (").append(phaseNames[i]).append(')');
+			sb.append(" awaits=").append(getAwaitCount(i));
+			sb.append(" timeSpentNanos=").append(getTimeSpentInNanos(i));
+			sb.append(" reached=").append(getReachedCount(i));
+			sb.append(" avgWaitNanos=").append((long) h.getMean());
+			sb.append(" p50=").append(h.getValueAtPercentile(50));
+			sb.append(" p99=").append(h.getValueAtPercentile(99));
+			sb.append(" max=").append(h.getMax());
+		}
+		return sb.toString();
+	}
+}
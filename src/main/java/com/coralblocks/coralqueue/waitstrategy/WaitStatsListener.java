@@ -0,0 +1,137 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+/**
+ * <p>A {@link WaitStrategyListener} that collects statistics about where the idle time of a wait strategy goes, without producing any garbage.
+ * Register it with <code>waitStrategy.addListener(listener)</code>. When registered with a {@link CompositeWaitStrategy} each one of its
+ * wait strategies becomes a <i>phase</i>, numbered in the order they are used (0 for the first one, 1 for the second one, etc.).</p>
+ *
+ * <p>For each phase it records the number of <code>await()</code> calls, the time spent and how many waits ended (i.e. <code>reset()</code> was called)
+ * in that phase, together with a log-linear histogram of their durations. See {@link WaitStats}.</p>
+ *
+ * <p>A wait starts right before the wait operation of its first <code>await()</code>. The time of each <code>await()</code> is measured from the previous
+ * <code>await()</code> callback of the same wait (or from the start of the wait for the first one), so it includes your own polling in between. Note that
+ * <code>System.nanoTime()</code> is called on every <code>await()</code>, which adds a few nanoseconds to each busy-spin cycle.</p>
+ *
+ * <p>If there are more phases than the maximum number of phases, the ones that do not fit are folded into the last phase. See {@link WaitStats#OTHER_PHASE_NAME}.</p>
+ *
+ * <p>This listener must be used by a single thread (the thread calling <code>await()</code> and <code>reset()</code>) but you can call {@link #snapshot(WaitStats)}
+ * from any other thread (e.g. a monitoring thread) at any time without blocking the waiting thread.</p>
+ */
+public class WaitStatsListener implements WaitStrategyListener {
+
+	public static final int DEFAULT_MAX_NUMBER_OF_PHASES = 8;
+
+	private final WaitStats stats;
+	private final WaitStrategy[] phases;
+	private int numberOfPhases = 0;
+	private boolean overflow = false;
+
+	private long awaitsInCurrentWait = 0;
+	private boolean started = false;
+	private long waitStartTime;
+	private long lastAwaitTime;
+	private int lastPhaseReached;
+
+	/**
+	 * Creates a new <code>WaitStatsListener</code> with room for the given maximum number of phases.
+	 *
+	 * @param maxNumberOfPhases the maximum number of phases (i.e. wait strategies inside a composite wait strategy)
+	 */
+	public WaitStatsListener(int maxNumberOfPhases) {
+		this.stats = new WaitStats(maxNumberOfPhases);
+		this.phases = new WaitStrategy[maxNumberOfPhases];
+	}
+
+	/**
+	 * Creates a new <code>WaitStatsListener</code> with room for the default maximum number of phases (8).
+	 */
+	public WaitStatsListener() {
+		this(DEFAULT_MAX_NUMBER_OF_PHASES);
+	}
+
+	private final int phaseOf(WaitStrategy waitStrategy) {
+		for(int i = 0; i < numberOfPhases; i++) {
+			if (phases[i] == waitStrategy) return i;
+		}
+		if (numberOfPhases == phases.length) {
+			// no more room, so fold it into the last phase
+			if (!overflow) {
+				stats.addPhase(waitStrategy.getClass().getSimpleName());
+				overflow = true;
+			}
+			return numberOfPhases - 1;
+		}
+		// first time we see it, and as a composite always goes from its first to its last wait strategy, phases are found in order
+		int phase = stats.addPhase(waitStrategy.getClass().getSimpleName());
+		phases[phase] = waitStrategy;
+		numberOfPhases++;
+		return phase;
+	}
+
+	@Override
+	public void waiting(WaitStrategy waitStrategy) {
+		if (awaitsInCurrentWait == 0 && !started) {
+			waitStartTime = lastAwaitTime = System.nanoTime();
+			started = true;
+		}
+	}
+
+	@Override
+	public void waited(WaitStrategy waitStrategy, boolean isDone) {
+		long now = System.nanoTime();
+		int phase = phaseOf(waitStrategy);
+		if (awaitsInCurrentWait++ == 0) {
+			// a wait strategy that does not call waiting() only lets us mark the start of the wait here
+			if (!started) waitStartTime = lastAwaitTime = now;
+			lastPhaseReached = phase;
+		} else if (phase > lastPhaseReached) {
+			lastPhaseReached = phase;
+		}
+		stats.awaited(phase, now - lastAwaitTime);
+		lastAwaitTime = now;
+	}
+
+	@Override
+	public void reset(WaitStrategy waitStrategy) {
+		// a composite resets all its wait strategies so only the first reset after a wait counts
+		if (awaitsInCurrentWait == 0) return;
+		long now = System.nanoTime();
+		stats.done(lastPhaseReached, now - lastAwaitTime, now - waitStartTime);
+		awaitsInCurrentWait = 0;
+		started = false;
+	}
+
+	/**
+	 * Return a new <code>WaitStats</code> big enough to be used with {@link #snapshot(WaitStats)}. You should create it once and re-use it.
+	 *
+	 * @return a new <code>WaitStats</code> to receive snapshots
+	 */
+	public final WaitStats createSnapshot() {
+		return new WaitStats(phases.length);
+	}
+
+	/**
+	 * Copy the current statistics to the given <code>WaitStats</code> without producing any garbage. This method can be called by any thread
+	 * and never blocks the waiting thread.
+	 *
+	 * @param dest the <code>WaitStats</code> that will receive the statistics
+	 */
+	public final void snapshot(WaitStats dest) {
+		stats.copyTo(dest);
+	}
+}
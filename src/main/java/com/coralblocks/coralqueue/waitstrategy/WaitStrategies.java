@@ -0,0 +1,221 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+/**
+ * <p>A factory to create wait strategies from a configuration string, so you can change the wait strategy of a producer or consumer without recompiling your code.</p>
+ *
+ * <p>The configuration string is a comma-separated list of phases, each one becoming a wait strategy inside a {@link CompositeWaitStrategy} (a single phase returns the wait strategy itself).
+ * Each phase is <code>name[:param][*count]</code>, where <code>count</code> is the maximum number of <code>await()</code> calls before moving to the next phase. Durations are a number
+ * followed by <code>ns</code>, <code>us</code>, <code>ms</code> or <code>s</code> and <code>start-max[/step]</code> is a backing off range. A number without a unit is taken in the natural
+ * unit of its wait strategy, in other words, milliseconds for <code>sleep</code> and nanoseconds for all the others.</p>
+ *
+ * <ul>
+ *   <li><code>spin[:count]</code>: {@link BusySpinWaitStrategy}</li>
+ *   <li><code>yield[:count]</code>: {@link YieldWaitStrategy}</li>
+ *   <li><code>park[:duration]</code> or <code>park:start-max[/step]</code>: {@link ParkWaitStrategy} or {@link ParkBackOffWaitStrategy}</li>
+ *   <li><code>sleep[:duration]</code> or <code>sleep:start-max[/step]</code>: {@link SleepWaitStrategy} or {@link SleepBackOffWaitStrategy} (whole milliseconds only)</li>
+ *   <li><code>busysleep[:duration]</code> or <code>busysleep:start-max[/step]</code>: {@link BusySleepWaitStrategy} or {@link BusySleepBackOffWaitStrategy}</li>
+ *   <li><code>hybrid[:duration]</code>: {@link HybridSleepWaitStrategy}</li>
+ *   <li><code>signal[:maxDuration]</code>: {@link VirtualThreadWaitStrategy}</li>
+ * </ul>
+ *
+ * <p>For example, <code>"spin:1000000,yield:100,park:1us-1ms"</code> busy spins 1,000,000 times, then yields 100 times, then parks backing off from 1 microsecond to 1 millisecond.</p>
+ */
+public class WaitStrategies {
+	
+	/**
+	 * The prefix of the system properties read by {@link #fromSystemProperty(String, String)}
+	 */
+	public static final String PROPERTY_PREFIX = "coralqueue.waitStrategy.";
+	
+	private WaitStrategies() {
+		
+	}
+	
+	/**
+	 * Create a new wait strategy from the given configuration string.
+	 * 
+	 * @param config the configuration string
+	 * @return a new wait strategy
+	 * @throws IllegalArgumentException if the configuration string is invalid
+	 */
+	public static WaitStrategy parse(String config) {
+		String[] phases = config.trim().split("\\s*,\\s*");
+		WaitStrategy[] waitStrategies = new WaitStrategy[phases.length];
+		for(int i = 0; i < phases.length; i++) {
+			waitStrategies[i] = parsePhase(phases[i], i == phases.length - 1);
+		}
+		if (waitStrategies.length == 1) return waitStrategies[0];
+		return new CompositeWaitStrategy(waitStrategies);
+	}
+	
+	/**
+	 * <p>Create a new wait strategy from the configuration string in the system property <code>coralqueue.waitStrategy.&lt;name&gt;</code> or from the given default configuration
+	 * string if the system property is not set. This allows each data structure, producer or consumer to have its own default, which can be overridden from the command line
+	 * with <code>-Dcoralqueue.waitStrategy.&lt;name&gt;=...</code>.</p>
+	 * 
+	 * @param name the name of this wait strategy, for example <code>"marketData.consumer"</code>
+	 * @param defaultConfig the configuration string to use when the system property is not set
+	 * @return a new wait strategy
+	 * @throws IllegalArgumentException if the configuration string is invalid
+	 */
+	public static WaitStrategy fromSystemProperty(String name, String defaultConfig) {
+		return parse(System.getProperty(PROPERTY_PREFIX + name, defaultConfig));
+	}
+	
+	private static final long NANOS = 1L;
+	private static final long MILLIS = 1_000_000L;
+	
+	private static WaitStrategy parsePhase(String phase, boolean isLast) {
+		
+		String name = phase;
+		String param = null;
+		long count = AbstractWaitStrategy.DEFAULT_MAX_AWAIT_CYCLE_COUNT;
+		
+		int star = name.indexOf('*');
+		if (star > 0) {
+			count = parseLong(phase, name.substring(star + 1));
+			name = name.substring(0, star);
+		}
+		
+		int colon = name.indexOf(':');
+		if (colon > 0) {
+			param = name.substring(colon + 1).trim();
+			name = name.substring(0, colon);
+		}
+		
+		name = name.trim().toLowerCase();
+		
+		if (name.equals("spin") || name.equals("yield")) {
+			if (param != null) {
+				if (star > 0) throw new IllegalArgumentException("Count given twice: " + phase);
+				count = parseLong(phase, param);
+			}
+		}
+		
+		if (count < 0 && !isLast) {
+			throw new IllegalArgumentException("Only the last phase can wait forever, please give a count: " + phase);
+		}
+		
+		switch(name) {
+			case "spin":
+				return new BusySpinWaitStrategy(count);
+			case "yield":
+				return new YieldWaitStrategy(count);
+			case "park":
+				if (param == null) return new ParkWaitStrategy(count, ParkWaitStrategy.DEFAULT_PARK_TIME_IN_NANOS);
+				if (isRange(param)) {
+					long[] range = parseRange(phase, param, ParkBackOffWaitStrategy.DEFAULT_STEP_IN_NANOS, NANOS);
+					return new ParkBackOffWaitStrategy(count, range[0], range[1], (int) range[2]);
+				}
+				return new ParkWaitStrategy(count, parseDuration(phase, param, NANOS));
+			case "sleep":
+				if (param == null) return new SleepWaitStrategy(count, SleepWaitStrategy.DEFAULT_SLEEP_TIME_IN_MILLIS);
+				if (isRange(param)) {
+					long[] range = parseRange(phase, param, SleepBackOffWaitStrategy.DEFAULT_STEP_IN_MILLIS * MILLIS, MILLIS);
+					return new SleepBackOffWaitStrategy(count, toMillis(phase, range[0]), toMillis(phase, range[1]), (int) toMillis(phase, range[2]));
+				}
+				return new SleepWaitStrategy(count, toMillis(phase, parseDuration(phase, param, MILLIS)));
+			case "busysleep":
+				if (param == null) return new BusySleepWaitStrategy(count, BusySleepWaitStrategy.DEFAULT_SLEEP_TIME_IN_NANOS);
+				if (isRange(param)) {
+					long[] range = parseRange(phase, param, BusySleepBackOffWaitStrategy.DEFAULT_STEP_IN_NANOS, NANOS);
+					return new BusySleepBackOffWaitStrategy(count, range[0], range[1], (int) range[2]);
+				}
+				return new BusySleepWaitStrategy(count, parseDuration(phase, param, NANOS));
+			case "hybrid":
+				if (param == null) return new HybridSleepWaitStrategy(count, HybridSleepWaitStrategy.DEFAULT_SLEEP_TIME_IN_NANOS);
+				return new HybridSleepWaitStrategy(count, parseDuration(phase, param, NANOS));
+			case "signal":
+				if (param == null) return new VirtualThreadWaitStrategy(count, VirtualThreadWaitStrategy.DEFAULT_MAX_PARK_TIME_IN_NANOS);
+				return new VirtualThreadWaitStrategy(count, parseDuration(phase, param, NANOS));
+			default:
+				throw new IllegalArgumentException("Unknown wait strategy: " + phase);
+		}
+	}
+	
+	private static boolean isRange(String param) {
+		return param.indexOf('-') > 0;
+	}
+	
+	private static long[] parseRange(String phase, String param, long defaultStep, long unit) {
+		long step = defaultStep;
+		int slash = param.indexOf('/');
+		if (slash > 0) {
+			step = parseDuration(phase, param.substring(slash + 1), unit);
+			param = param.substring(0, slash);
+		}
+		int dash = param.indexOf('-');
+		long start = parseDuration(phase, param.substring(0, dash), unit);
+		long max = parseDuration(phase, param.substring(dash + 1), unit);
+		if (start > max || step <= 0 || step > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid range: " + phase);
+		}
+		return new long[] { start, max, step };
+	}
+	
+	/**
+	 * Parse a duration like <code>"500ns"</code>, <code>"10us"</code>, <code>"1ms"</code> or <code>"2s"</code> into nanoseconds. A number without a unit is taken as nanoseconds.
+	 * 
+	 * @param duration the duration to parse
+	 * @return the duration in nanoseconds
+	 * @throws IllegalArgumentException if the duration is invalid
+	 */
+	public static long parseDuration(String duration) {
+		return parseDuration(duration, duration, NANOS);
+	}
+	
+	private static long parseDuration(String phase, String duration, long unit) {
+		String s = duration.trim().toLowerCase();
+		long multiplier = unit;
+		if (s.endsWith("ns")) {
+			s = s.substring(0, s.length() - 2);
+			multiplier = 1L;
+		} else if (s.endsWith("us")) {
+			s = s.substring(0, s.length() - 2);
+			multiplier = 1_000L;
+		} else if (s.endsWith("ms")) {
+			s = s.substring(0, s.length() - 2);
+			multiplier = 1_000_000L;
+		} else if (s.endsWith("s")) {
+			s = s.substring(0, s.length() - 1);
+			multiplier = 1_000_000_000L;
+		}
+		long value = parseLong(phase, s);
+		if (value < 0) throw new IllegalArgumentException("Negative duration '" + duration + "' in: " + phase);
+		try {
+			return Math.multiplyExact(value, multiplier);
+		} catch(ArithmeticException e) {
+			throw new IllegalArgumentException("Duration '" + duration + "' is too long in: " + phase, e);
+		}
+	}
+	
+	private static long toMillis(String phase, long nanos) {
+		if (nanos % 1_000_000L != 0) {
+			throw new IllegalArgumentException("Sleep time must be in whole milliseconds: " + phase);
+		}
+		return nanos / 1_000_000L;
+	}
+	
+	private static long parseLong(String phase, String s) {
+		try {
+			return Long.parseLong(s.trim().replace("_", ""));
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number '" + s + "' in: " + phase, e);
+		}
+	}
+}
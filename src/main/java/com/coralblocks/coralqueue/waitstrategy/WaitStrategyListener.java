@@ -21,6 +21,15 @@ package com.coralblocks.coralqueue.waitstrategy;
  */
 public interface WaitStrategyListener {
 	
+	/**
+	 * The wait strategy is about to wait (i.e. method <code>await()</code> was called and is about to perform its wait operation)
+	 * 
+	 * @param waitStrategy the wait strategy providing this callback
+	 */
+	default public void waiting(WaitStrategy waitStrategy) {
+		
+	}
+	
 	/**
 	 * The wait strategy has waited (i.e. method <code>await()</code> was called)
 	 * 
@@ -0,0 +1,157 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.agent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coralblocks.coralqueue.example.agent.Basics.ConsumerAgent;
+import com.coralblocks.coralqueue.example.agent.Basics.DoneAgent;
+import com.coralblocks.coralqueue.example.agent.Basics.Message;
+import com.coralblocks.coralqueue.example.agent.Basics.Producer;
+import com.coralblocks.coralqueue.queue.AtomicQueue;
+import com.coralblocks.coralqueue.queue.Queue;
+import com.coralblocks.coralqueue.waitstrategy.BusySpinParkBackOffWaitStrategy;
+import com.coralblocks.coralqueue.waitstrategy.ParkWaitStrategy;
+
+public class AgentRunnerTest {
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testAll() throws InterruptedException {
+		
+		final int messagesToSend = 10000;
+		final int batchSizeToSend = 100;
+		final int numberOfQueues = 10;
+		
+		Queue<Message>[] queues = (Queue<Message>[]) new Queue[numberOfQueues];
+		ConsumerAgent[] consumers = new ConsumerAgent[numberOfQueues];
+		Agent[] agents = new Agent[numberOfQueues + 1];
+		for(int i = 0; i < numberOfQueues; i++) {
+			queues[i] = new AtomicQueue<Message>(Message.class);
+			agents[i] = consumers[i] = new ConsumerAgent(queues[i], i);
+		}
+		DoneAgent doneAgent = new DoneAgent(consumers);
+		agents[numberOfQueues] = doneAgent;
+		
+		AgentRunner runner = new AgentRunner(new CompositeAgent(agents), new BusySpinParkBackOffWaitStrategy(1000));
+		doneAgent.setRunner(runner);
+		
+		Producer producer = new Producer(queues, messagesToSend, batchSizeToSend);
+		
+		runner.start();
+		producer.start();
+		
+		producer.join();
+		runner.join();
+		
+		Assert.assertFalse(runner.isRunning());
+		
+		for(int i = 0; i < numberOfQueues; i++) {
+			
+			List<Long> messagesReceived = consumers[i].getMessagesReceived();
+			List<Long> batchesReceived = consumers[i].getBatchesReceived();
+		
+			// Did we receive all messages?
+			Assert.assertEquals(messagesToSend, messagesReceived.size());
+			
+			// Were there any duplicates?
+			Assert.assertEquals(messagesReceived.size(), messagesReceived.stream().distinct().count());
+			
+			// If we sum all batches do we get the correct number of messages?
+			long sumOfAllBatches = batchesReceived.stream().mapToLong(Long::longValue).sum();
+			Assert.assertEquals(messagesToSend, sumOfAllBatches);
+		}
+	}
+	
+	private static class LifecycleAgent implements Agent {
+		
+		private final boolean failToStart;
+		private final boolean failToWork;
+		volatile boolean started = false;
+		volatile boolean closed = false;
+		
+		LifecycleAgent(boolean failToStart, boolean failToWork) {
+			this.failToStart = failToStart;
+			this.failToWork = failToWork;
+		}
+		
+		@Override
+		public void onStart() {
+			if (failToStart) throw new IllegalStateException("Cannot start!");
+			started = true;
+		}
+		
+		@Override
+		public int doWork() {
+			if (failToWork) throw new IllegalStateException("Cannot work!");
+			return 0;
+		}
+		
+		@Override
+		public void onClose() {
+			closed = true;
+		}
+	}
+	
+	@Test
+	public void testFailToStart() throws InterruptedException {
+		
+		LifecycleAgent first = new LifecycleAgent(false, false);
+		LifecycleAgent second = new LifecycleAgent(true, false);
+		LifecycleAgent third = new LifecycleAgent(false, false);
+		
+		AgentRunner runner = new AgentRunner(new CompositeAgent(first, second, third));
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		runner.getThread().setUncaughtExceptionHandler((thread, t) -> error.set(t));
+		
+		runner.start();
+		runner.join();
+		
+		Assert.assertFalse(runner.isRunning());
+		Assert.assertTrue(error.get() instanceof IllegalStateException);
+		
+		// the first one was started so it was closed, the others were never started so they were not closed
+		Assert.assertTrue(first.started);
+		Assert.assertTrue(first.closed);
+		Assert.assertFalse(second.closed);
+		Assert.assertFalse(third.started);
+		Assert.assertFalse(third.closed);
+	}
+	
+	@Test
+	public void testErrorHandling() throws InterruptedException {
+		
+		LifecycleAgent agent = new LifecycleAgent(false, true);
+		
+		AgentRunner runner = new AgentRunner(agent, new ParkWaitStrategy(1000));
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		runner.getThread().setUncaughtExceptionHandler((thread, t) -> error.set(t));
+		
+		runner.start();
+		while(error.get() == null) Thread.yield();
+		
+		Assert.assertTrue(runner.isRunning()); // the runner keeps going
+		runner.close();
+		runner.join();
+		
+		Assert.assertEquals("Cannot work!", error.get().getMessage());
+		Assert.assertTrue(agent.closed);
+	}
+}
@@ -15,12 +15,17 @@
  */
 package com.coralblocks.coralqueue.broadcaster;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.coralblocks.coralqueue.example.broadcaster.Basics.Consumer;
 import com.coralblocks.coralqueue.example.broadcaster.Basics.Message;
 import com.coralblocks.coralqueue.example.broadcaster.Basics.Producer;
+import com.coralblocks.coralqueue.util.Doorbell;
+import com.coralblocks.coralqueue.util.MutableLong;
 
 
 public class AtomicBroadcasterTest {
@@ -68,4 +73,624 @@ public class AtomicBroadcasterTest {
 			Assert.assertEquals(messagesToSend, sumOfAllBatches);
 		}
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testSlowestConsumer() {
+		
+		AtomicBroadcaster<StringBuilder> broadcaster = new AtomicBroadcaster<StringBuilder>(4, StringBuilder.class, 3);
+		
+		for(int i = 0; i < 4; i++) broadcaster.nextToDispatch().setLength(0);
+		Assert.assertNull(broadcaster.nextToDispatch());
+		broadcaster.flush();
+		
+		for(int c = 0; c < 3; c++) {
+			long toFetch = c == 1 ? 1 : 4;
+			Assert.assertEquals(4, broadcaster.availableToFetch(c));
+			for(int i = 0; i < toFetch; i++) broadcaster.fetch(c);
+			broadcaster.doneFetching(c);
+		}
+		
+		Assert.assertEquals(1, broadcaster.getSlowestConsumer());
+		Assert.assertEquals(3, broadcaster.getLag(1));
+		Assert.assertEquals(0, broadcaster.getLag(0));
+		
+		// consumer 1 holds the producer
+		Assert.assertNotNull(broadcaster.nextToDispatch());
+		Assert.assertNull(broadcaster.nextToDispatch());
+		
+		broadcaster.availableToFetch(1);
+		for(int i = 0; i < 3; i++) broadcaster.fetch(1);
+		broadcaster.doneFetching(1);
+		
+		for(int i = 0; i < 3; i++) Assert.assertNotNull(broadcaster.nextToDispatch());
+		Assert.assertNull(broadcaster.nextToDispatch());
+		broadcaster.flush();
+		
+		// now the other two are behind
+		Assert.assertEquals(0, broadcaster.getSlowestConsumer());
+		Assert.assertEquals(4, broadcaster.getLag(2));
+	}
+	
+	@Test
+	public void testEvictionByLag() {
+		
+		AtomicBroadcaster<StringBuilder> broadcaster = new AtomicBroadcaster<StringBuilder>(8, StringBuilder.class, 2, EvictionPolicy.maxLag(2));
+		
+		for(int i = 0; i < 3; i++) broadcaster.nextToDispatch().setLength(0);
+		broadcaster.flush();
+		
+		Assert.assertEquals(3, broadcaster.availableToFetch(0));
+		for(int i = 0; i < 3; i++) broadcaster.fetch(0);
+		broadcaster.doneFetching(0);
+		
+		// consumer 1 has not fetched anything, so it is now too far behind
+		Assert.assertFalse(broadcaster.isEvicted(1));
+		Assert.assertNotNull(broadcaster.nextToDispatch());
+		Assert.assertTrue(broadcaster.isEvicted(1));
+		Assert.assertFalse(broadcaster.isEvicted(0));
+		Assert.assertEquals(0, broadcaster.availableToFetch(1));
+		broadcaster.flush();
+		
+		// it comes back at the head
+		Assert.assertFalse(broadcaster.rejoin(0));
+		Assert.assertTrue(broadcaster.getConsumer(1).rejoin());
+		Assert.assertFalse(broadcaster.isEvicted(1));
+		Assert.assertEquals(0, broadcaster.availableToFetch(1));
+		
+		broadcaster.nextToDispatch().setLength(0);
+		broadcaster.flush();
+		Assert.assertEquals(1, broadcaster.availableToFetch(1));
+		Assert.assertEquals(2, broadcaster.availableToFetch(0));
+	}
+	
+	@Test
+	public void testDoneFetchingAfterEviction() {
+		
+		AtomicBroadcaster<StringBuilder> broadcaster = new AtomicBroadcaster<StringBuilder>(8, StringBuilder.class, 3, EvictionPolicy.maxLag(2));
+		broadcaster.after(0).then(1);
+		
+		for(int i = 0; i < 3; i++) broadcaster.nextToDispatch().setLength(0);
+		broadcaster.flush();
+		
+		// consumer 0 is in the middle of its batch, consumer 2 is done with everything
+		Assert.assertEquals(3, broadcaster.availableToFetch(0));
+		for(int i = 0; i < 3; i++) broadcaster.fetch(0);
+		Assert.assertEquals(3, broadcaster.availableToFetch(2));
+		for(int i = 0; i < 3; i++) broadcaster.fetch(2);
+		broadcaster.doneFetching(2);
+		
+		// consumers 0 and 1 are too far behind
+		Assert.assertNotNull(broadcaster.nextToDispatch());
+		broadcaster.flush();
+		Assert.assertTrue(broadcaster.isEvicted(0));
+		Assert.assertTrue(broadcaster.isEvicted(1));
+		
+		// consumer 0 finishes its batch, but that does not bring back its old position
+		broadcaster.doneFetching(0);
+		Assert.assertTrue(broadcaster.isEvicted(0));
+		Assert.assertEquals(0, broadcaster.getLag(0));
+		Assert.assertEquals(2, broadcaster.getSlowestConsumer());
+		
+		// consumer 1 comes back and is not held back by consumer 0 anymore
+		Assert.assertTrue(broadcaster.rejoin(1));
+		broadcaster.nextToDispatch().setLength(0);
+		broadcaster.flush();
+		Assert.assertEquals(1, broadcaster.availableToFetch(1));
+		broadcaster.fetch(1);
+		broadcaster.doneFetching(1);
+		Assert.assertEquals(2, broadcaster.availableToFetch(2));
+		for(int i = 0; i < 2; i++) broadcaster.fetch(2);
+		broadcaster.doneFetching(2);
+		
+		// and a consumer joining at the oldest message starts after what everybody else is done with
+		int joined = broadcaster.addConsumer(JoinPosition.OLDEST_AVAILABLE).getIndex();
+		Assert.assertEquals(0, broadcaster.availableToFetch(joined));
+	}
+	
+	@Test
+	public void testEvictionByBlockedTime() throws InterruptedException {
+		
+		AtomicBroadcaster<StringBuilder> broadcaster = new AtomicBroadcaster<StringBuilder>(4, StringBuilder.class, 2, EvictionPolicy.maxBlockedTime(1_000_000));
+		
+		for(int i = 0; i < 4; i++) broadcaster.nextToDispatch().setLength(0);
+		broadcaster.flush();
+		
+		Assert.assertEquals(4, broadcaster.availableToFetch(0));
+		for(int i = 0; i < 4; i++) broadcaster.fetch(0);
+		broadcaster.doneFetching(0);
+		
+		Assert.assertNull(broadcaster.nextToDispatch()); // consumer 1 starts to block the producer
+		Assert.assertFalse(broadcaster.isEvicted(1));
+		
+		Thread.sleep(10);
+		
+		Assert.assertNotNull(broadcaster.nextToDispatch());
+		Assert.assertTrue(broadcaster.isEvicted(1));
+	}
+	
+	@Test
+	public void testJoinAndLeave() {
+		
+		AtomicBroadcaster<StringBuilder> broadcaster = new AtomicBroadcaster<StringBuilder>(8, StringBuilder.class, 1);
+		
+		for(int i = 0; i < 5; i++) {
+			StringBuilder sb = broadcaster.nextToDispatch();
+			sb.setLength(0);
+			sb.append(i);
+		}
+		broadcaster.flush();
+		
+		Assert.assertEquals(5, broadcaster.availableToFetch(0));
+		for(int i = 0; i < 2; i++) broadcaster.fetch(0);
+		broadcaster.doneFetching(0);
+		
+		int head = broadcaster.addConsumer(JoinPosition.HEAD).getIndex();
+		int oldest = broadcaster.addConsumer(JoinPosition.OLDEST_AVAILABLE).getIndex();
+		Assert.assertEquals(1, head);
+		Assert.assertEquals(2, oldest);
+		Assert.assertEquals(3, broadcaster.getNumberOfConsumers());
+		Assert.assertEquals(3, broadcaster.getNumberOfGroups());
+		
+		Assert.assertEquals(0, broadcaster.availableToFetch(head));
+		Assert.assertEquals(3, broadcaster.availableToFetch(oldest)); // what consumer 0 has not acknowledged yet
+		Assert.assertEquals("2", broadcaster.fetch(oldest, false).toString());
+		
+		StringBuilder sb = broadcaster.nextToDispatch();
+		sb.setLength(0);
+		sb.append(5);
+		broadcaster.flush();
+		Assert.assertEquals(1, broadcaster.availableToFetch(head));
+		Assert.assertEquals("5", broadcaster.fetch(head).toString());
+		broadcaster.doneFetching(head);
+		Assert.assertEquals(4, broadcaster.availableToFetch(oldest));
+		
+		// the slow ones leave so the producer now only waits for the head consumer
+		broadcaster.removeConsumer(0);
+		broadcaster.getConsumer(oldest).remove();
+		Assert.assertEquals(3, broadcaster.getNumberOfConsumers());
+		for(int i = 0; i < 8; i++) Assert.assertNotNull(broadcaster.nextToDispatch());
+		Assert.assertNull(broadcaster.nextToDispatch());
+		broadcaster.flush();
+		
+		try {
+			broadcaster.removeConsumer(0);
+			Assert.fail();
+		} catch(RuntimeException e) {
+			// already removed
+		}
+		try {
+			broadcaster.getLag(0);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// a removed consumer has no cursor
+		}
+		try {
+			broadcaster.rejoin(0);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// same thing
+		}
+		
+		// a new consumer re-uses a free index and the producer waits for it too
+		int tap = broadcaster.addConsumer(JoinPosition.OLDEST_AVAILABLE).getIndex();
+		Assert.assertEquals(0, tap);
+		Assert.assertEquals(8, broadcaster.availableToFetch(tap));
+		Assert.assertEquals(8, broadcaster.availableToFetch(head));
+		for(int i = 0; i < 8; i++) broadcaster.fetch(head);
+		broadcaster.doneFetching(head);
+		Assert.assertNull(broadcaster.nextToDispatch());
+		for(int i = 0; i < 8; i++) broadcaster.fetch(tap);
+		broadcaster.doneFetching(tap);
+		Assert.assertNotNull(broadcaster.nextToDispatch());
+	}
+	
+	public static class Tick {
+		long value;
+	}
+	
+	@Test
+	public void testNoJoinOrLeaveWithDoorbells() {
+		
+		AtomicBroadcaster<StringBuilder> broadcaster = new AtomicBroadcaster<StringBuilder>(8, StringBuilder.class, 3);
+		broadcaster.removeConsumer(1);
+		
+		// the doorbells are dense, one per consumer, so they cannot skip a removed one
+		Doorbell[] doorbells = new Doorbell[] { new Doorbell(1), new Doorbell(1), new Doorbell(1) };
+		try {
+			broadcaster.setDoorbells(doorbells, 0);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		broadcaster.addConsumer(JoinPosition.HEAD);
+		broadcaster.setDoorbells(doorbells, 0);
+		
+		try {
+			broadcaster.addConsumer(JoinPosition.HEAD);
+			Assert.fail();
+		} catch(RuntimeException e) {
+			// expected
+		}
+		try {
+			broadcaster.removeConsumer(2);
+			Assert.fail();
+		} catch(RuntimeException e) {
+			// expected
+		}
+		Assert.assertEquals(3, broadcaster.getNumberOfConsumers());
+		
+		broadcaster.nextToDispatch().setLength(0);
+		broadcaster.flush();
+		for(int i = 0; i < 3; i++) {
+			Assert.assertEquals(1, doorbells[i].take(0));
+			Assert.assertEquals(1, broadcaster.getConsumer(i).availableToFetch());
+		}
+	}
+	
+	@Test
+	public void testJoinWhileRunning() throws InterruptedException {
+		
+		final int messagesToSend = 20_000;
+		final AtomicBroadcaster<Tick> broadcaster = new AtomicBroadcaster<Tick>(64, Tick.class, 1);
+		final AtomicInteger joined = new AtomicInteger(0);
+		
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 1; i <= messagesToSend; i++) {
+					if (i == messagesToSend) {
+						while(joined.get() != 3) Thread.yield(); // so that everybody gets the last one
+					}
+					Tick tick;
+					while((tick = broadcaster.nextToDispatch()) == null) Thread.yield(); // this test has more threads than cpus
+					tick.value = i;
+					broadcaster.flush(true);
+				}
+				broadcaster.flush();
+			}
+		}, "Producer");
+		
+		final long[] received = new long[4];
+		final boolean[] inOrder = new boolean[4];
+		Thread[] consumers = new Thread[4];
+		for(int c = 0; c < consumers.length; c++) {
+			final int index = c;
+			consumers[c] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// consumer 0 is there from the start, the others join while the producer is running, and leave at the end
+					int consumer = index == 0 ? 0 : broadcaster.addConsumer(index % 2 == 0 ? JoinPosition.HEAD : JoinPosition.OLDEST_AVAILABLE).getIndex();
+					if (index != 0) joined.incrementAndGet();
+					long last = -1;
+					boolean ok = true;
+					while(last != messagesToSend) {
+						long avail = broadcaster.availableToFetch(consumer);
+						if (avail == 0) Thread.yield();
+						for(long i = 0; i < avail; i++) {
+							long value = broadcaster.fetch(consumer).value;
+							if (last != -1 && value != last + 1) ok = false;
+							last = value;
+							received[index]++;
+						}
+						if (avail > 0) broadcaster.doneFetching(consumer);
+					}
+					if (index != 0) broadcaster.removeConsumer(consumer);
+					inOrder[index] = ok;
+				}
+			}, "Consumer-" + c);
+		}
+		
+		consumers[0].start();
+		producer.start();
+		for(int c = 1; c < consumers.length; c++) {
+			Thread.sleep(5);
+			consumers[c].start();
+		}
+		
+		producer.join();
+		for(int c = 0; c < consumers.length; c++) consumers[c].join();
+		
+		Assert.assertEquals(messagesToSend, received[0]);
+		for(int c = 0; c < consumers.length; c++) {
+			Assert.assertTrue(inOrder[c]);
+			Assert.assertTrue(received[c] > 0);
+		}
+	}
+	
+	@Test
+	public void testDependencies() {
+		
+		AtomicBroadcaster<StringBuilder> broadcaster = new AtomicBroadcaster<StringBuilder>(8, StringBuilder.class, 4);
+		
+		final int decoder = 0, risk = 1, audit = 2, executor = 3;
+		broadcaster.after(decoder).then(risk, audit).then(executor);
+		
+		for(int i = 0; i < 3; i++) broadcaster.nextToDispatch();
+		broadcaster.flush();
+		
+		Assert.assertEquals(3, broadcaster.availableToFetch(decoder));
+		Assert.assertEquals(0, broadcaster.availableToFetch(risk));
+		Assert.assertEquals(0, broadcaster.availableToFetch(audit));
+		Assert.assertEquals(0, broadcaster.availableToFetch(executor));
+		
+		for(int i = 0; i < 2; i++) broadcaster.fetch(decoder);
+		Assert.assertEquals(0, broadcaster.availableToFetch(risk)); // not done yet
+		broadcaster.doneFetching(decoder);
+		Assert.assertEquals(2, broadcaster.availableToFetch(risk));
+		Assert.assertEquals(2, broadcaster.availableToFetch(audit));
+		
+		for(int i = 0; i < 2; i++) broadcaster.fetch(risk);
+		broadcaster.doneFetching(risk);
+		Assert.assertEquals(0, broadcaster.availableToFetch(executor)); // audit is not done yet
+		broadcaster.fetch(audit);
+		broadcaster.doneFetching(audit);
+		Assert.assertEquals(1, broadcaster.availableToFetch(executor));
+		
+		try {
+			broadcaster.after(executor).then(decoder);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// cycle
+		}
+		
+		try {
+			broadcaster.after(risk).then(risk);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// cycle
+		}
+	}
+	
+	public static class Order {
+		long id;
+		long decoded;
+		boolean riskChecked;
+		boolean audited;
+	}
+	
+	@Test
+	public void testPipeline() throws InterruptedException {
+		
+		final int messagesToSend = 20_000;
+		final AtomicBroadcaster<Order> broadcaster = new AtomicBroadcaster<Order>(64, Order.class, new int[] { 1, 2, 1, 1 });
+		
+		final int decoder = 0, risk = 1, audit = 3, executor = 4; // consumers 1 and 2 are a group sharing the risk checks
+		broadcaster.after(decoder).then(risk, audit).then(executor);
+		final AtomicBoolean done = new AtomicBoolean(false);
+		
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 1; i <= messagesToSend; i++) {
+					Order order;
+					while((order = broadcaster.nextToDispatch()) == null) Thread.yield(); // this test has more threads than cpus
+					order.id = i;
+					order.decoded = 0;
+					order.riskChecked = false;
+					order.audited = false;
+					broadcaster.flush(true);
+				}
+				broadcaster.flush();
+			}
+		}, "Producer");
+		
+		final long[] received = new long[5];
+		final boolean[] ok = new boolean[5];
+		Thread[] consumers = new Thread[5];
+		for(int c = 0; c < consumers.length; c++) {
+			final int index = c;
+			consumers[c] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					boolean isOk = true;
+					while(true) {
+						long avail = broadcaster.availableToFetch(index);
+						if (avail == 0) {
+							if (done.get()) break; // the executor got everything so everybody is done
+							Thread.yield();
+							continue;
+						}
+						for(long i = 0; i < avail; i++) {
+							Order order = broadcaster.fetch(index);
+							if (index == decoder) {
+								order.decoded = order.id * 2;
+							} else if (index == risk || index == 2) {
+								if (order.decoded != order.id * 2) isOk = false;
+								order.riskChecked = true;
+							} else if (index == audit) {
+								if (order.decoded != order.id * 2) isOk = false;
+								order.audited = true;
+							} else {
+								if (!order.riskChecked || !order.audited || order.id != received[index] + 1) isOk = false;
+							}
+							received[index]++;
+						}
+						broadcaster.doneFetching(index);
+						if (index == executor && received[index] == messagesToSend) done.set(true);
+					}
+					ok[index] = isOk;
+				}
+			}, "Consumer-" + c);
+			consumers[c].start();
+		}
+		
+		producer.start();
+		producer.join();
+		for(int c = 0; c < consumers.length; c++) consumers[c].join();
+		
+		Assert.assertEquals(messagesToSend, received[decoder]);
+		Assert.assertEquals(messagesToSend, received[risk] + received[2]);
+		Assert.assertEquals(messagesToSend, received[audit]);
+		Assert.assertEquals(messagesToSend, received[executor]);
+		for(int c = 0; c < consumers.length; c++) Assert.assertTrue(ok[c]);
+	}
+	
+	@Test
+	public void testGroupSharesBacklog() {
+		
+		AtomicBroadcaster<MutableLong> broadcaster = new AtomicBroadcaster<MutableLong>(64, MutableLong.class, new int[] { 1, 3 });
+		
+		for(int i = 0; i < 12; i++) broadcaster.nextToDispatch().set(i);
+		broadcaster.flush();
+		
+		// each member of the group claims its share of the backlog, instead of the first one taking everything
+		Assert.assertEquals(12, broadcaster.availableToFetch(0));
+		Assert.assertEquals(4, broadcaster.availableToFetch(1));
+		Assert.assertEquals(3, broadcaster.availableToFetch(2));
+		Assert.assertEquals(2, broadcaster.availableToFetch(3));
+		
+		// the claims are disjoint and in order
+		long expected = 0;
+		for(int c = 1; c <= 3; c++) {
+			long avail = broadcaster.availableToFetch(c);
+			for(long i = 0; i < avail; i++) Assert.assertEquals(expected++, broadcaster.fetch(c).get());
+			broadcaster.doneFetching(c);
+		}
+		Assert.assertEquals(9, expected);
+		
+		// with a fixed batch size
+		broadcaster.setClaimBatchSize(2, 2);
+		long avail = broadcaster.availableToFetch(0);
+		for(long i = 0; i < avail; i++) broadcaster.fetch(0);
+		broadcaster.doneFetching(0);
+		for(int i = 0; i < 5; i++) broadcaster.nextToDispatch().set(12 + i);
+		broadcaster.flush();
+		
+		Assert.assertEquals(2, broadcaster.availableToFetch(1));
+		Assert.assertEquals(2, broadcaster.availableToFetch(2));
+		Assert.assertEquals(2, broadcaster.availableToFetch(3));
+		Assert.assertEquals(9, broadcaster.fetch(1).get());
+		Assert.assertEquals(11, broadcaster.fetch(2).get());
+		Assert.assertEquals(13, broadcaster.fetch(3).get());
+	}
+	
+	@Test
+	public void testSubscriptions() {
+		
+		final long TRADES = 1, QUOTES = 2;
+		
+		AtomicBroadcaster<MutableLong> broadcaster = new AtomicBroadcaster<MutableLong>(8, MutableLong.class, 3);
+		broadcaster.setSubscription(1, TRADES);
+		broadcaster.setSubscription(2, QUOTES);
+		
+		// Q T Q Q T, plus one without a tag
+		long[] tags = { QUOTES, TRADES, QUOTES, QUOTES, TRADES };
+		for(int i = 0; i < tags.length; i++) broadcaster.nextToDispatch(tags[i]).set(i + 1);
+		broadcaster.nextToDispatch().set(6);
+		broadcaster.flush();
+		
+		Assert.assertEquals(6, broadcaster.availableToFetch(0));
+		Assert.assertEquals(3, broadcaster.availableToFetch(1));
+		Assert.assertEquals(4, broadcaster.availableToFetch(2));
+		
+		Assert.assertEquals(2, broadcaster.fetch(1, false).get());
+		Assert.assertEquals(2, broadcaster.fetch(1).get());
+		Assert.assertEquals(5, broadcaster.fetch(1).get());
+		Assert.assertEquals(6, broadcaster.fetch(1).get());
+		broadcaster.doneFetching(1);
+		Assert.assertEquals(0, broadcaster.availableToFetch(1));
+		
+		Assert.assertEquals(1, broadcaster.fetch(2).get());
+		Assert.assertEquals(3, broadcaster.fetch(2).get());
+		Assert.assertEquals(4, broadcaster.fetch(2).get());
+		broadcaster.rollBack(2, 2);
+		Assert.assertEquals(3, broadcaster.availableToFetch(2));
+		Assert.assertEquals(3, broadcaster.fetch(2).get());
+		broadcaster.rollBack(2);
+		Assert.assertEquals(4, broadcaster.availableToFetch(2));
+		for(int i = 0; i < 4; i++) broadcaster.fetch(2);
+		broadcaster.doneFetching(2);
+		
+		// messages nobody subscribed to do not hold the producer
+		for(int i = 0; i < 6; i++) broadcaster.fetch(0);
+		broadcaster.doneFetching(0);
+		for(int i = 0; i < 8; i++) broadcaster.nextToDispatch(QUOTES);
+		broadcaster.flush();
+		Assert.assertEquals(0, broadcaster.availableToFetch(1));
+		Assert.assertEquals(8, broadcaster.availableToFetch(0));
+		for(int i = 0; i < 8; i++) broadcaster.fetch(0);
+		broadcaster.doneFetching(0);
+		Assert.assertEquals(8, broadcaster.availableToFetch(2));
+		for(int i = 0; i < 8; i++) broadcaster.fetch(2);
+		broadcaster.doneFetching(2);
+		Assert.assertNotNull(broadcaster.nextToDispatch(TRADES));
+		
+		try {
+			broadcaster.setSubscription(0, 0);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// empty subscription
+		}
+	}
+	
+	@Test
+	public void testSparseSubscriptions() throws InterruptedException {
+		
+		final int messagesToSend = 100_000;
+		final int numberOfConsumers = 4;
+		final AtomicBroadcaster<MutableLong> broadcaster = new AtomicBroadcaster<MutableLong>(64, MutableLong.class, numberOfConsumers);
+		
+		// consumer c only wants the messages with bit c set, the last one wants everything
+		for(int c = 0; c < numberOfConsumers - 1; c++) broadcaster.setSubscription(c, 1L << c);
+		
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 1; i <= messagesToSend; i++) {
+					long tag = 1L << (i % 16); // consumers 0, 1 and 2 get one message out of 16
+					MutableLong ml;
+					while((ml = broadcaster.nextToDispatch(tag)) == null) Thread.yield(); // this test has more threads than cpus
+					ml.set(i);
+					broadcaster.flush(true);
+				}
+				broadcaster.flush();
+			}
+		}, "Producer");
+		
+		final long[] expected = new long[numberOfConsumers];
+		for(int i = 1; i <= messagesToSend; i++) {
+			for(int c = 0; c < numberOfConsumers; c++) {
+				if (c == numberOfConsumers - 1 || i % 16 == c) expected[c]++;
+			}
+		}
+		
+		final long[] received = new long[numberOfConsumers];
+		final boolean[] ok = new boolean[numberOfConsumers];
+		Thread[] consumers = new Thread[numberOfConsumers];
+		for(int c = 0; c < consumers.length; c++) {
+			final int index = c;
+			consumers[c] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					boolean isOk = true;
+					long last = 0;
+					while(received[index] < expected[index]) {
+						long avail = broadcaster.availableToFetch(index);
+						if (avail == 0) {
+							Thread.yield();
+							continue;
+						}
+						for(long i = 0; i < avail; i++) {
+							long value = broadcaster.fetch(index).get();
+							if (value <= last || (index != numberOfConsumers - 1 && value % 16 != index)) isOk = false;
+							last = value;
+							received[index]++;
+						}
+						broadcaster.doneFetching(index);
+					}
+					ok[index] = isOk;
+				}
+			}, "Consumer-" + c);
+			consumers[c].start();
+		}
+		
+		producer.start();
+		producer.join();
+		for(int c = 0; c < consumers.length; c++) consumers[c].join();
+		
+		for(int c = 0; c < consumers.length; c++) {
+			Assert.assertEquals(expected[c], received[c]);
+			Assert.assertTrue(ok[c]);
+		}
+	}
+}
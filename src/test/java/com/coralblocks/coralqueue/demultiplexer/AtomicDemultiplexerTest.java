@@ -74,4 +74,259 @@ public class AtomicDemultiplexerTest {
 		long sumOfAllBatches = totalBatchesReceived.stream().mapToLong(Long::longValue).sum();
 		Assert.assertEquals(messagesToSend, sumOfAllBatches);
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testLeastLoaded() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(16, StringBuilder.class, 3, DispatchPolicy.leastLoaded(8));
+		
+		for(int i = 0; i < 6; i++) demux.nextToDispatch(); // the first one refreshes the backlogs
+		demux.flush();
+		
+		// ties go to the lowest index, so two each
+		for(int i = 0; i < 3; i++) Assert.assertEquals(2, demux.availableToFetch(i));
+		
+		// consumer 1 catches up
+		demux.fetch(1);
+		demux.fetch(1);
+		demux.doneFetching(1);
+		
+		Assert.assertEquals(2, demux.getBacklog(1, false)); // producer has not seen it yet
+		
+		// no refresh until the ninth dispatch, so the producer still sees two for everybody
+		for(int i = 0; i < 2; i++) demux.nextToDispatch();
+		demux.flush();
+		
+		Assert.assertEquals(3, demux.availableToFetch(0));
+		Assert.assertEquals(1, demux.availableToFetch(1));
+		Assert.assertEquals(2, demux.availableToFetch(2));
+		Assert.assertEquals(3, demux.getBacklog(1, false));
+		
+		// now the producer sees that consumer 1 caught up
+		demux.nextToDispatch();
+		demux.flush();
+		
+		Assert.assertEquals(3, demux.availableToFetch(0));
+		Assert.assertEquals(2, demux.availableToFetch(1));
+		Assert.assertEquals(2, demux.availableToFetch(2));
+		Assert.assertEquals(2, demux.getBacklog(1, false));
+	}
+	
+	@Test
+	public void testBatch() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(4, StringBuilder.class, 3, DispatchPolicy.batch(3));
+		
+		for(int i = 0; i < 7; i++) Assert.assertNotNull(demux.nextToDispatch());
+		demux.flush();
+		
+		Assert.assertEquals(3, demux.availableToFetch(0));
+		Assert.assertEquals(3, demux.availableToFetch(1));
+		Assert.assertEquals(1, demux.availableToFetch(2));
+		
+		// queue 2 completes its run, then the run of queue 0 is cut short when it gets full (4 is the capacity) and queue 1 starts a new one
+		for(int i = 0; i < 4; i++) Assert.assertNotNull(demux.nextToDispatch());
+		demux.flush();
+		
+		Assert.assertEquals(4, demux.availableToFetch(0));
+		Assert.assertEquals(4, demux.availableToFetch(1));
+		Assert.assertEquals(3, demux.availableToFetch(2));
+	}
+	
+	@Test
+	public void testPowerOfTwoChoices() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(16, StringBuilder.class, 4, DispatchPolicy.powerOfTwoChoices());
+		
+		// with nobody fetching, every consumer ends up with some of the messages
+		for(int i = 0; i < 40; i++) {
+			Assert.assertNotNull(demux.nextToDispatch());
+			demux.flush();
+		}
+		long total = 0;
+		for(int i = 0; i < 4; i++) {
+			long avail = demux.availableToFetch(i);
+			Assert.assertTrue(avail > 0);
+			total += avail;
+		}
+		Assert.assertEquals(40, total);
+	}
+	
+	private static void dispatch(AtomicDemultiplexer<StringBuilder> demux, long key, int count) {
+		for(int i = 0; i < count; i++) {
+			StringBuilder sb = demux.nextToDispatchForKey(key);
+			sb.setLength(0);
+			sb.append(key);
+		}
+		demux.flush();
+	}
+	
+	private static void fetchAll(AtomicDemultiplexer<StringBuilder> demux, int consumer) {
+		long avail = demux.availableToFetch(consumer);
+		for(long i = 0; i < avail; i++) {
+			Assert.assertEquals(consumer, demux.getConsumerForKey(Long.parseLong(demux.fetch(consumer).toString())));
+		}
+		demux.doneFetching(consumer);
+	}
+	
+	@Test
+	public void testKeyRouting() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(256, StringBuilder.class, 4);
+		
+		// keys are spread over all consumers
+		boolean[] used = new boolean[4];
+		for(long key = 0; key < 100; key++) used[demux.getConsumerForKey(key)] = true;
+		for(int i = 0; i < 4; i++) Assert.assertTrue(used[i]);
+		
+		// two keys with the same consumer in different slots
+		long keyA = 0, keyB = 1;
+		while(demux.getConsumerForKey(keyB) != demux.getConsumerForKey(keyA) || demux.slotOf(keyB) == demux.slotOf(keyA)) keyB++;
+		int hot = demux.getConsumerForKey(keyA);
+		
+		dispatch(demux, keyA, 20);
+		dispatch(demux, keyB, 20);
+		Assert.assertEquals(40, demux.availableToFetch(hot));
+		
+		Assert.assertTrue(demux.rebalance());
+		
+		// one of the two keys is moving, so it has to wait for the hot consumer to drain
+		long movingKey = keyA;
+		StringBuilder sb = demux.nextToDispatchForKey(keyA);
+		if (sb != null) {
+			sb.setLength(0);
+			sb.append(keyA);
+			movingKey = keyB;
+		}
+		Assert.assertNull(demux.nextToDispatchForKey(movingKey));
+		
+		fetchAll(demux, hot);
+		
+		dispatch(demux, movingKey, 1);
+		Assert.assertNotEquals(hot, demux.getConsumerForKey(movingKey));
+		
+		for(int i = 0; i < 4; i++) fetchAll(demux, i);
+	}
+	
+	@Test
+	public void testMigrationCompletesOnFlush() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(256, StringBuilder.class, 4);
+		
+		long keyA = 0, keyB = 1;
+		while(demux.getConsumerForKey(keyB) != demux.getConsumerForKey(keyA) || demux.slotOf(keyB) == demux.slotOf(keyA)) keyB++;
+		int hot = demux.getConsumerForKey(keyA);
+		
+		dispatch(demux, keyA, 20);
+		dispatch(demux, keyB, 20);
+		
+		Assert.assertTrue(demux.rebalance());
+		Assert.assertTrue(demux.rebalance()); // still waiting for the drain
+		
+		// no key of the moving slot is dispatched again, the flush after the drain completes the move
+		fetchAll(demux, hot);
+		demux.flush();
+		Assert.assertTrue(demux.getConsumerForKey(keyA) != hot || demux.getConsumerForKey(keyB) != hot);
+		Assert.assertFalse(demux.rebalance()); // nothing else worth moving
+	}
+	
+	@Test
+	public void testDeactivationWithTwoSlots() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(256, StringBuilder.class, 3);
+		
+		long keyA = 0, keyB = 1;
+		while(demux.getConsumerForKey(keyB) != demux.getConsumerForKey(keyA) || demux.slotOf(keyB) == demux.slotOf(keyA)) keyB++;
+		int owner = demux.getConsumerForKey(keyA);
+		dispatch(demux, keyA, 3);
+		dispatch(demux, keyB, 3);
+		
+		demux.deactivateConsumer(owner);
+		demux.flush();
+		
+		// the slot of A starts moving, then only B is dispatched
+		Assert.assertNull(demux.nextToDispatchForKey(keyA));
+		Assert.assertNull(demux.nextToDispatchForKey(keyB));
+		fetchAll(demux, owner);
+		
+		// the move of A completes and B can move too, without dispatching A again
+		dispatch(demux, keyB, 1);
+		Assert.assertNotEquals(owner, demux.getConsumerForKey(keyA));
+		Assert.assertNotEquals(owner, demux.getConsumerForKey(keyB));
+		Assert.assertTrue(demux.isDrained(owner));
+		
+		for(int i = 0; i < 3; i++) fetchAll(demux, i);
+	}
+	
+	@Test
+	public void testSameSlotMovesTwice() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(256, StringBuilder.class, 3);
+		
+		long key = 7;
+		int first = demux.getConsumerForKey(key);
+		dispatch(demux, key, 20);
+		
+		// the first move completes on a flush, without the key being dispatched again
+		demux.deactivateConsumer(first);
+		demux.flush();
+		Assert.assertNull(demux.nextToDispatchForKey(key));
+		fetchAll(demux, first);
+		demux.flush();
+		int second = demux.getConsumerForKey(key);
+		Assert.assertNotEquals(first, second);
+		
+		// the new owner has nothing of this slot, so the second move does not wait for anything
+		demux.deactivateConsumer(second);
+		demux.flush();
+		StringBuilder sb = demux.nextToDispatchForKey(key);
+		Assert.assertNotNull(sb);
+		sb.setLength(0);
+		sb.append(key);
+		demux.flush();
+		int third = demux.getConsumerForKey(key);
+		Assert.assertNotEquals(first, third);
+		Assert.assertNotEquals(second, third);
+		Assert.assertTrue(demux.isDrained(second));
+		fetchAll(demux, third);
+	}
+	
+	@Test
+	public void testDeactivation() {
+		
+		AtomicDemultiplexer<StringBuilder> demux = new AtomicDemultiplexer<StringBuilder>(256, StringBuilder.class, 3);
+		
+		long key = 7;
+		int owner = demux.getConsumerForKey(key);
+		dispatch(demux, key, 5);
+		
+		demux.deactivateConsumer(owner);
+		Assert.assertFalse(demux.isActive(owner));
+		Assert.assertFalse(demux.isDrained(owner)); // the producer has not seen it yet
+		demux.flush();
+		
+		// round-robin skips the deactivated consumer
+		for(int i = 0; i < 6; i++) demux.nextToDispatch().setLength(0);
+		demux.flush();
+		Assert.assertEquals(5, demux.availableToFetch(owner));
+		for(int i = 0; i < 3; i++) {
+			if (i != owner) Assert.assertEquals(3, demux.availableToFetch(i));
+		}
+		
+		// the key moves to an active consumer, but only after the old one has fetched its messages
+		Assert.assertNull(demux.nextToDispatchForKey(key));
+		Assert.assertFalse(demux.isDrained(owner));
+		fetchAll(demux, owner);
+		Assert.assertTrue(demux.isDrained(owner));
+		dispatch(demux, key, 1);
+		Assert.assertNotEquals(owner, demux.getConsumerForKey(key));
+		Assert.assertTrue(demux.isDrained(owner));
+		
+		demux.activateConsumer(owner);
+		Assert.assertFalse(demux.isDrained(owner));
+		demux.flush();
+		for(int i = 0; i < 3; i++) demux.nextToDispatch().setLength(0);
+		demux.flush();
+		Assert.assertEquals(1, demux.availableToFetch(owner));
+	}
+}
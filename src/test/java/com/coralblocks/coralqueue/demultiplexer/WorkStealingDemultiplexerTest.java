@@ -0,0 +1,163 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.demultiplexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coralblocks.coralqueue.example.demultiplexer.Basics.Consumer;
+import com.coralblocks.coralqueue.example.demultiplexer.Basics.Message;
+import com.coralblocks.coralqueue.example.demultiplexer.Basics.Producer;
+import com.coralblocks.coralqueue.util.Builder;
+
+public class WorkStealingDemultiplexerTest {
+	
+	@Test
+	public void testAll() throws InterruptedException {
+		
+		final int messagesToSend = 10000;
+		final int batchSizeToSend = 100;
+		final int numberOfConsumers = 4;
+		
+		Demultiplexer<Message> mux = new WorkStealingDemultiplexer<Message>(Message.class, numberOfConsumers);
+		
+		Producer producer = new Producer(mux, messagesToSend, batchSizeToSend);
+		
+		Consumer[] consumers = new Consumer[numberOfConsumers];
+		for(int i = 0; i < consumers.length; i++) {
+			consumers[i] = new Consumer(mux, i);
+		}
+		
+		for(int i = 0; i < consumers.length; i++) {
+			consumers[i].start();
+		}
+		producer.start();
+			
+		for(int i = 0; i < consumers.length; i++) {
+			consumers[i].join();
+		}
+		
+		producer.join();
+		
+		List<Long> totalMessagesReceived = new ArrayList<Long>(messagesToSend * numberOfConsumers);
+		for(int i = 0; i < consumers.length; i++) {
+			totalMessagesReceived.addAll(consumers[i].getMessagesReceived());
+		}
+		
+		List<Long> totalBatchesReceived = new ArrayList<Long>(messagesToSend * numberOfConsumers);
+		for(int i = 0; i < consumers.length; i++) {
+			totalBatchesReceived.addAll(consumers[i].getBatchesReceived());
+		}
+		
+		// Did we receive all messages?
+		Assert.assertEquals(messagesToSend, totalMessagesReceived.size());
+		
+		// Were there any duplicates?
+		Assert.assertEquals(totalMessagesReceived.size(), totalMessagesReceived.stream().distinct().count());
+		
+		// If we sum all batches do we get the correct number of messages?
+		long sumOfAllBatches = totalBatchesReceived.stream().mapToLong(Long::longValue).sum();
+		Assert.assertEquals(messagesToSend, sumOfAllBatches);
+	}
+	
+	@Test
+	public void testStealing() {
+		
+		WorkStealingDemultiplexer<StringBuilder> demux = new WorkStealingDemultiplexer<StringBuilder>(16, StringBuilder.class, 2);
+		
+		for(int i = 0; i < 16; i++) {
+			StringBuilder sb = demux.nextToDispatch(0);
+			sb.setLength(0);
+			sb.append(i);
+		}
+		demux.flush();
+		Assert.assertNull(demux.nextToDispatch(0)); // full
+		
+		// consumer 1 has nothing so it steals half of the queue of consumer 0
+		Assert.assertEquals(8, demux.availableToFetch(1));
+		for(int i = 0; i < 8; i++) Assert.assertEquals(String.valueOf(i), demux.fetch(1).toString());
+		Assert.assertNull(demux.fetch(1));
+		demux.doneFetching(1);
+		
+		Assert.assertEquals(8, demux.getStolenCount(1));
+		Assert.assertEquals(8, demux.getLostCount(0));
+		Assert.assertEquals(0, demux.getStolenCount(0));
+		
+		// consumer 0 gets the rest
+		Assert.assertEquals(8, demux.availableToFetch(0));
+		
+		// the producer can reuse the slots fetched by consumer 1
+		for(int i = 0; i < 8; i++) Assert.assertNotNull(demux.nextToDispatch(0));
+		Assert.assertNull(demux.nextToDispatch(0));
+		
+		// consumer 0 fetches only part of its batch, the rest stays with it
+		for(int i = 8; i < 12; i++) Assert.assertEquals(String.valueOf(i), demux.fetch(0).toString());
+		demux.doneFetching(0);
+		Assert.assertEquals(4, demux.availableToFetch(0));
+		for(int i = 0; i < 4; i++) Assert.assertNotNull(demux.nextToDispatch(0));
+		Assert.assertNull(demux.nextToDispatch(0));
+	}
+	
+	@Test
+	public void testOwnerWindow() {
+		
+		WorkStealingDemultiplexer<StringBuilder> demux = new WorkStealingDemultiplexer<StringBuilder>(16, Builder.createBuilder(StringBuilder.class), 2, 2, 4);
+		
+		// consumer 0 claims its window of 4 before anything is sent
+		Assert.assertEquals(0, demux.availableToFetch(0));
+		
+		for(int i = 0; i < 4; i++) {
+			StringBuilder sb = demux.nextToDispatch(0);
+			sb.setLength(0);
+			sb.append(i);
+		}
+		demux.flush();
+		
+		// everything sent is inside the window of consumer 0, so there is nothing to steal
+		Assert.assertEquals(0, demux.availableToFetch(1));
+		
+		for(int i = 4; i < 12; i++) {
+			StringBuilder sb = demux.nextToDispatch(0);
+			sb.setLength(0);
+			sb.append(i);
+		}
+		demux.flush();
+		
+		// consumer 1 steals half of what is waiting after the window, from the tail of the queue
+		Assert.assertEquals(4, demux.availableToFetch(1));
+		for(int i = 4; i < 8; i++) Assert.assertEquals(String.valueOf(i), demux.fetch(1).toString());
+		demux.doneFetching(1);
+		Assert.assertEquals(4, demux.getLostCount(0));
+		
+		// consumer 0 reads its window and then skips what was stolen
+		Assert.assertEquals(4, demux.availableToFetch(0));
+		for(int i = 0; i < 4; i++) Assert.assertEquals(String.valueOf(i), demux.fetch(0).toString());
+		Assert.assertNull(demux.fetch(0));
+		demux.doneFetching(0);
+		Assert.assertEquals(4, demux.availableToFetch(0));
+		for(int i = 8; i < 12; i++) Assert.assertEquals(String.valueOf(i), demux.fetch(0).toString());
+		demux.doneFetching(0);
+		Assert.assertEquals(0, demux.availableToFetch(0));
+		Assert.assertEquals(0, demux.getStolenCount(0));
+		
+		// all slots are free again
+		for(int i = 0; i < 16; i++) Assert.assertNotNull(demux.nextToDispatch(0));
+		Assert.assertNull(demux.nextToDispatch(0));
+	}
+}
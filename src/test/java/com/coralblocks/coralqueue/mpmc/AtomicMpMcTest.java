@@ -29,16 +29,23 @@ public class AtomicMpMcTest {
 	
 	@Test
 	public void testAll() throws InterruptedException {
+		testAll(new AtomicMpMc<Message>(Message.class, 4, 4));
+	}
+	
+	@Test
+	public void testAllWithSparsePolling() throws InterruptedException {
+		testAll(new AtomicMpMc<Message>(AtomicMpMc.DEFAULT_CAPACITY, Message.class, 4, 4, true));
+	}
+	
+	private void testAll(MpMc<Message> mpmc) throws InterruptedException {
 		
 		final int messagesToSend = 10000;
 		final int batchSizeToSend = 100;
-		final int numberOfProducers = 4;
-		final int numberOfConsumers = 4;
+		final int numberOfProducers = mpmc.getNumberOfProducers();
+		final int numberOfConsumers = mpmc.getNumberOfConsumers();
 		
 		final int totalMessagesToSend = messagesToSend * numberOfProducers;
 		
-		MpMc<Message> mpmc = new AtomicMpMc<Message>(Message.class, numberOfProducers, numberOfConsumers);
-		
 		Producer[] producers = new Producer[numberOfProducers];
 		for(int i = 0; i < producers.length; i++) {
 			producers[i] = new Producer(mpmc, i, messagesToSend, batchSizeToSend, numberOfConsumers);
@@ -80,4 +87,152 @@ public class AtomicMpMcTest {
 		long sumOfAllBatches = batchesReceived.stream().mapToLong(Long::longValue).sum();
 		Assert.assertEquals(totalMessagesToSend, sumOfAllBatches);
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testDeactivation() {
+		
+		AtomicMpMc<StringBuilder> mpmc = new AtomicMpMc<StringBuilder>(StringBuilder.class, 2, 3);
+		
+		mpmc.deactivateConsumer(1);
+		Assert.assertFalse(mpmc.isActive(1));
+		Assert.assertTrue(mpmc.isActive(0));
+		
+		// only one producer has seen it
+		mpmc.flush(0);
+		Assert.assertFalse(mpmc.isDrained(1));
+		
+		for(int i = 0; i < 3; i++) mpmc.nextToDispatch(1).setLength(0); // goes to all consumers
+		mpmc.flush(1);
+		for(int i = 0; i < 4; i++) mpmc.nextToDispatch(0).setLength(0); // skips consumer 1
+		mpmc.flush(0);
+		
+		Assert.assertEquals(3, mpmc.availableToFetch(0));
+		Assert.assertEquals(3, mpmc.availableToFetch(2));
+		Assert.assertEquals(1, mpmc.availableToFetch(1));
+		Assert.assertFalse(mpmc.isDrained(1));
+		
+		Assert.assertNotNull(mpmc.fetch(1));
+		mpmc.doneFetching(1);
+		Assert.assertTrue(mpmc.isDrained(1));
+		
+		mpmc.activateConsumer(1);
+		Assert.assertFalse(mpmc.isDrained(1));
+		mpmc.flush(0);
+		for(int i = 0; i < 3; i++) mpmc.nextToDispatch(0).setLength(0);
+		mpmc.flush(0);
+		Assert.assertEquals(1, mpmc.availableToFetch(1));
+	}
+	
+	@Test
+	public void testSparsePolling() {
+		
+		AtomicMpMc<StringBuilder> mpmc = new AtomicMpMc<StringBuilder>(16, StringBuilder.class, 70, 2, true);
+		
+		Assert.assertEquals(0, mpmc.availableToFetch(0));
+		
+		// two producers in two different doorbell words
+		for(int i = 0; i < 2; i++) mpmc.nextToDispatch(3, 0).setLength(0);
+		mpmc.flush(3);
+		for(int i = 0; i < 2; i++) mpmc.nextToDispatch(68, 0).setLength(0);
+		mpmc.flush(68);
+		
+		Assert.assertEquals(0, mpmc.availableToFetch(1));
+		Assert.assertEquals(4, mpmc.availableToFetch(0));
+		for(int i = 0; i < 3; i++) Assert.assertNotNull(mpmc.fetch(0));
+		mpmc.doneFetching(0);
+		
+		// the lane that was not fully drained is read again even without a new ring
+		Assert.assertEquals(1, mpmc.availableToFetch(0));
+		Assert.assertNotNull(mpmc.fetch(0));
+		Assert.assertNull(mpmc.fetch(0));
+		mpmc.doneFetching(0);
+		Assert.assertEquals(0, mpmc.availableToFetch(0));
+		
+		mpmc.nextToDispatch(69, 1).setLength(0);
+		mpmc.flush(69);
+		Assert.assertEquals(0, mpmc.availableToFetch(0));
+		Assert.assertEquals(1, mpmc.availableToFetch(1));
+	}
+	
+	@Test
+	public void testLazyFlushWithSparsePolling() throws InterruptedException {
+		
+		final int messagesToSend = 10000;
+		final int numberOfProducers = 4;
+		final int numberOfConsumers = 2;
+		
+		final AtomicMpMc<StringBuilder> mpmc = new AtomicMpMc<StringBuilder>(8, StringBuilder.class, numberOfProducers, numberOfConsumers, true);
+		
+		Thread[] producers = new Thread[numberOfProducers];
+		for(int i = 0; i < producers.length; i++) {
+			final int producer = i;
+			producers[i] = new Thread(() -> {
+				for(int j = 0; j < messagesToSend; j++) {
+					StringBuilder sb;
+					while((sb = mpmc.nextToDispatch(producer, j % numberOfConsumers)) == null) Thread.yield(); // yield so it also runs on a single core
+					sb.setLength(0);
+					mpmc.flush(producer, true); // one message per lazy flush, so every ring must be seen
+				}
+			});
+		}
+		
+		final long[] received = new long[numberOfConsumers];
+		final long toReceive = (long) messagesToSend * numberOfProducers / numberOfConsumers;
+		Thread[] consumers = new Thread[numberOfConsumers];
+		for(int i = 0; i < consumers.length; i++) {
+			final int consumer = i;
+			consumers[i] = new Thread(() -> {
+				long deadline = System.currentTimeMillis() + 30000;
+				while(received[consumer] < toReceive && System.currentTimeMillis() < deadline) {
+					long avail = mpmc.availableToFetch(consumer);
+					for(long j = 0; j < avail; j++) mpmc.fetch(consumer);
+					if (avail > 0) mpmc.doneFetching(consumer, true);
+					else Thread.yield();
+					received[consumer] += avail;
+				}
+			});
+		}
+		
+		for(int i = 0; i < consumers.length; i++) consumers[i].start();
+		for(int i = 0; i < producers.length; i++) producers[i].start();
+		
+		for(int i = 0; i < consumers.length; i++) consumers[i].join();
+		for(int i = 0; i < producers.length; i++) producers[i].join(1000);
+		
+		// a missed ring would strand a producer behind a full lane
+		for(int i = 0; i < numberOfConsumers; i++) Assert.assertEquals(toReceive, received[i]);
+	}
+	
+	@Test
+	public void testBatchesPerCommit() {
+		
+		AtomicMpMc<StringBuilder> mpmc = new AtomicMpMc<StringBuilder>(4, StringBuilder.class, 2, 1);
+		LaneConsumer<StringBuilder> consumer = mpmc.getConsumer(0);
+		consumer.setBatchesPerCommit(3);
+		
+		for(int i = 0; i < 4; i++) mpmc.nextToDispatch(0).setLength(0);
+		mpmc.flush(0);
+		for(int i = 0; i < 4; i++) mpmc.nextToDispatch(1).setLength(0);
+		mpmc.flush(1);
+		
+		Assert.assertEquals(8, consumer.availableToFetch());
+		for(int i = 0; i < 8; i++) Assert.assertNotNull(consumer.fetch());
+		consumer.doneFetching();
+		Assert.assertNull(mpmc.nextToDispatch(0)); // not committed yet
+		
+		Assert.assertEquals(0, consumer.availableToFetch()); // idle so it commits
+		for(int i = 0; i < 4; i++) mpmc.nextToDispatch(0).setLength(0);
+		mpmc.flush(0);
+		
+		for(int batch = 1; batch <= 3; batch++) {
+			Assert.assertNull(mpmc.nextToDispatch(0));
+			Assert.assertEquals(5 - batch, consumer.availableToFetch());
+			Assert.assertNotNull(consumer.fetch());
+			consumer.doneFetching();
+		}
+		
+		// the third batch was committed
+		for(int i = 0; i < 3; i++) Assert.assertNotNull(mpmc.nextToDispatch(0));
+		Assert.assertNull(mpmc.nextToDispatch(0));
+	}
+}
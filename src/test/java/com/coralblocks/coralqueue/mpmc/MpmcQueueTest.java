@@ -0,0 +1,124 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MpmcQueueTest {
+	
+	public static class Message {
+		long value;
+	}
+	
+	@Test
+	public void testAll() throws InterruptedException {
+		
+		final int messagesToSend = 10000;
+		final int batchSizeToSend = 100;
+		final int numberOfProducers = 4;
+		final int numberOfConsumers = 4;
+		
+		final long totalMessagesToSend = (long) messagesToSend * numberOfProducers;
+		
+		final MpMc<Message> mpmc = new MpmcQueue<Message>(256, Message.class, numberOfProducers, numberOfConsumers);
+		final AtomicLong totalReceived = new AtomicLong(0);
+		
+		Thread[] producers = new Thread[numberOfProducers];
+		for(int i = 0; i < numberOfProducers; i++) {
+			final Producer<Message> producer = mpmc.getProducer(i);
+			producers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long value = (long) producer.getIndex() * messagesToSend;
+					int remaining = messagesToSend;
+					while(remaining > 0) {
+						int batchToSend = Math.min(batchSizeToSend, remaining);
+						for(int j = 0; j < batchToSend; j++) {
+							Message m;
+							while((m = producer.nextToDispatch()) == null); // busy spin
+							m.value = value++;
+						}
+						producer.flush();
+						remaining -= batchToSend;
+					}
+				}
+			});
+		}
+		
+		@SuppressWarnings("unchecked")
+		final List<Long>[] received = new List[numberOfConsumers];
+		Thread[] consumers = new Thread[numberOfConsumers];
+		for(int i = 0; i < numberOfConsumers; i++) {
+			final Consumer<Message> consumer = mpmc.getConsumer(i);
+			final List<Long> list = received[i] = new ArrayList<Long>();
+			consumers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while(totalReceived.get() < totalMessagesToSend) {
+						long avail = consumer.availableToFetch();
+						if (avail == 0) continue; // busy spin
+						for(long j = 0; j < avail; j++) {
+							list.add(consumer.fetch().value);
+						}
+						consumer.doneFetching();
+						totalReceived.addAndGet(avail);
+					}
+				}
+			});
+		}
+		
+		for(int i = 0; i < numberOfConsumers; i++) consumers[i].start();
+		for(int i = 0; i < numberOfProducers; i++) producers[i].start();
+		for(int i = 0; i < numberOfProducers; i++) producers[i].join();
+		for(int i = 0; i < numberOfConsumers; i++) consumers[i].join();
+		
+		List<Long> all = new ArrayList<Long>();
+		for(int i = 0; i < numberOfConsumers; i++) all.addAll(received[i]);
+		
+		// Did we receive all messages?
+		Assert.assertEquals(totalMessagesToSend, all.size());
+		
+		// Were there any duplicates?
+		Assert.assertEquals(all.size(), all.stream().distinct().count());
+	}
+	
+	@Test
+	public void testPartialFetch() {
+		
+		MpmcQueue<Message> mpmc = new MpmcQueue<Message>(4, Message.class, 1, 2);
+		
+		for(int i = 0; i < 4; i++) mpmc.nextToDispatch(0).value = i;
+		Assert.assertNull(mpmc.nextToDispatch(0)); // full (and what was claimed is now published)
+		
+		Assert.assertEquals(4, mpmc.availableToFetch(0));
+		Assert.assertEquals(0, mpmc.availableToFetch(1)); // consumer 0 claimed everything
+		Assert.assertEquals(0, mpmc.fetch(0).value);
+		mpmc.doneFetching(0);
+		
+		Assert.assertEquals(3, mpmc.availableToFetch(0)); // the rest stays with consumer 0
+		
+		mpmc.nextToDispatch(0, 0).value = 4; // one slot was freed (sent to consumer 0, but any consumer can take it)
+		Assert.assertNull(mpmc.nextToDispatch(0));
+		Assert.assertEquals(1, mpmc.availableToFetch(1));
+		Assert.assertEquals(4, mpmc.fetch(1).value);
+		mpmc.doneFetching(1);
+	}
+}
@@ -15,6 +15,8 @@
  */
 package com.coralblocks.coralqueue.mpmcbroadcaster;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -25,18 +27,30 @@ import com.coralblocks.coralqueue.example.mpmcbroadcaster.Basics.Producer;
 
 public class AtomicMpMcBroadcasterTest {
 	
+	public static class Event {
+		int producerIndex;
+		int value;
+	}
+	
 	@Test
 	public void testAll() throws InterruptedException {
+		testAll(new AtomicMpMcBroadcaster<Message>(Message.class, 4, 4));
+	}
+	
+	@Test
+	public void testAllWithSparsePolling() throws InterruptedException {
+		testAll(new AtomicMpMcBroadcaster<Message>(AtomicMpMcBroadcaster.DEFAULT_CAPACITY, Message.class, 4, 4, true));
+	}
+	
+	private void testAll(MpMcBroadcaster<Message> mpmcBroadcaster) throws InterruptedException {
 		
 		final int messagesToSend = 10000;
 		final int batchSizeToSend = 100;
-		final int numberOfProducers = 4;
-		final int numberOfConsumers = 4;
+		final int numberOfProducers = mpmcBroadcaster.getNumberOfProducers();
+		final int numberOfConsumers = mpmcBroadcaster.getNumberOfConsumers();
 		
 		final int totalMessagesToSend = messagesToSend * numberOfProducers;
 		
-		MpMcBroadcaster<Message> mpmcBroadcaster = new AtomicMpMcBroadcaster<Message>(Message.class, numberOfProducers, numberOfConsumers);
-		
 		Producer[] producers = new Producer[numberOfProducers];
 		for(int i = 0; i < producers.length; i++) {
 			producers[i] = new Producer(mpmcBroadcaster, i, messagesToSend, batchSizeToSend);
@@ -74,4 +88,115 @@ public class AtomicMpMcBroadcasterTest {
 			Assert.assertEquals(totalMessagesToSend, sumOfAllBatches);
 		}
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testGroups() throws InterruptedException {
+		
+		final int messagesToSend = 20000;
+		final int numberOfProducers = 2;
+		final int[] consumersPerGroup = { 1, 3 };
+		final int totalMessagesToSend = messagesToSend * numberOfProducers;
+		
+		final AtomicMpMcBroadcaster<Event> mpmcBroadcaster = new AtomicMpMcBroadcaster<Event>(64, Event.class, numberOfProducers, consumersPerGroup);
+		
+		Assert.assertEquals(4, mpmcBroadcaster.getNumberOfConsumers());
+		Assert.assertEquals(2, mpmcBroadcaster.getNumberOfGroups());
+		Assert.assertEquals(0, mpmcBroadcaster.getGroup(0));
+		Assert.assertEquals(1, mpmcBroadcaster.getGroup(1));
+		Assert.assertEquals(1, mpmcBroadcaster.getGroup(3));
+		
+		final AtomicInteger[] receivedPerGroup = { new AtomicInteger(), new AtomicInteger() };
+		final int[][] received = new int[mpmcBroadcaster.getNumberOfConsumers()][totalMessagesToSend];
+		
+		Thread[] producers = new Thread[numberOfProducers];
+		for(int i = 0; i < producers.length; i++) {
+			final int producerIndex = i;
+			producers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int value = 0; value < messagesToSend; value++) {
+						Event e;
+						while((e = mpmcBroadcaster.nextToDispatch(producerIndex)) == null); // busy spin
+						e.producerIndex = producerIndex;
+						e.value = value;
+						if (value % 10 == 9) mpmcBroadcaster.flush(producerIndex);
+					}
+					mpmcBroadcaster.flush(producerIndex);
+				}
+			});
+		}
+		
+		Thread[] consumers = new Thread[mpmcBroadcaster.getNumberOfConsumers()];
+		for(int i = 0; i < consumers.length; i++) {
+			final int consumerIndex = i;
+			final AtomicInteger groupCount = receivedPerGroup[mpmcBroadcaster.getGroup(i)];
+			consumers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while(groupCount.get() < totalMessagesToSend) {
+						long avail = mpmcBroadcaster.availableToFetch(consumerIndex);
+						if (avail == 0) continue;
+						for(long x = 0; x < avail; x++) {
+							Event e = mpmcBroadcaster.fetch(consumerIndex);
+							received[consumerIndex][e.producerIndex * messagesToSend + e.value]++;
+						}
+						mpmcBroadcaster.doneFetching(consumerIndex);
+						groupCount.addAndGet((int) avail);
+					}
+				}
+			});
+		}
+		
+		for(int i = 0; i < consumers.length; i++) consumers[i].start();
+		for(int i = 0; i < producers.length; i++) producers[i].start();
+		for(int i = 0; i < producers.length; i++) producers[i].join();
+		for(int i = 0; i < consumers.length; i++) consumers[i].join();
+		
+		Assert.assertEquals(totalMessagesToSend, receivedPerGroup[0].get());
+		Assert.assertEquals(totalMessagesToSend, receivedPerGroup[1].get());
+		
+		// the consumer alone in its group gets everything, the consumers of the other group share everything without duplicates
+		for(int m = 0; m < totalMessagesToSend; m++) {
+			Assert.assertEquals(1, received[0][m]);
+			Assert.assertEquals(1, received[1][m] + received[2][m] + received[3][m]);
+		}
+	}
+	
+	@Test
+	public void testPartialFetchInGroup() {
+		
+		AtomicMpMcBroadcaster<Event> mpmcBroadcaster = new AtomicMpMcBroadcaster<Event>(16, Event.class, 1, new int[] { 2 });
+		
+		for(int i = 0; i < 5; i++) mpmcBroadcaster.nextToDispatch(0).value = i;
+		mpmcBroadcaster.flush(0);
+		
+		// consumer 0 claims its share (three) but only fetches two
+		Assert.assertEquals(3, mpmcBroadcaster.availableToFetch(0));
+		Assert.assertEquals(0, mpmcBroadcaster.fetch(0).value);
+		Assert.assertEquals(1, mpmcBroadcaster.fetch(0).value);
+		mpmcBroadcaster.doneFetching(0);
+		
+		// consumer 1 claims its share of what is left
+		Assert.assertEquals(1, mpmcBroadcaster.availableToFetch(1));
+		Assert.assertEquals(3, mpmcBroadcaster.fetch(1).value);
+		mpmcBroadcaster.doneFetching(1);
+		
+		// the remaining one stays with consumer 0
+		Assert.assertEquals(1, mpmcBroadcaster.availableToFetch(0));
+		Assert.assertEquals(2, mpmcBroadcaster.fetch(0).value);
+		mpmcBroadcaster.doneFetching(0);
+		
+		Assert.assertEquals(1, mpmcBroadcaster.availableToFetch(1));
+		Assert.assertEquals(4, mpmcBroadcaster.fetch(1).value);
+		mpmcBroadcaster.doneFetching(1);
+		Assert.assertEquals(0, mpmcBroadcaster.availableToFetch(0));
+		
+		mpmcBroadcaster.nextToDispatch(0).value = 5;
+		mpmcBroadcaster.flush(0);
+		
+		Assert.assertEquals(1, mpmcBroadcaster.availableToFetch(1));
+		Assert.assertEquals(5, mpmcBroadcaster.fetch(1).value);
+		mpmcBroadcaster.doneFetching(1);
+		Assert.assertEquals(0, mpmcBroadcaster.availableToFetch(0));
+	}
+}
@@ -0,0 +1,159 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.mpmcbroadcaster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SequencedMpMcBroadcasterTest {
+	
+	public static class Message {
+		int producerIndex;
+		int value;
+	}
+	
+	@Test
+	public void testGlobalOrder() throws InterruptedException {
+		
+		final int messagesToSend = 20000;
+		final int numberOfProducers = 3;
+		final int numberOfConsumers = 3;
+		final int totalMessagesToSend = messagesToSend * numberOfProducers;
+		
+		final SequencedMpMcBroadcaster<Message> mpmcBroadcaster = new SequencedMpMcBroadcaster<Message>(64, Message.class, numberOfProducers, numberOfConsumers);
+		
+		final long[][] received = new long[numberOfConsumers][totalMessagesToSend];
+		
+		Thread[] producers = new Thread[numberOfProducers];
+		for(int i = 0; i < producers.length; i++) {
+			final Producer<Message> producer = mpmcBroadcaster.getProducer(i);
+			producers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int value = 0; value < messagesToSend; value++) {
+						Message m;
+						while((m = producer.nextToDispatch()) == null); // busy spin
+						m.producerIndex = producer.getIndex();
+						m.value = value;
+						if (value % 10 == 9) producer.flush();
+					}
+					producer.flush();
+				}
+			});
+		}
+		
+		Thread[] consumers = new Thread[numberOfConsumers];
+		for(int i = 0; i < consumers.length; i++) {
+			final SequencedConsumer<Message> consumer = mpmcBroadcaster.getConsumer(i);
+			consumers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int count = 0;
+					while(count < totalMessagesToSend) {
+						long avail = consumer.availableToFetch();
+						if (avail == 0) continue;
+						for(long x = 0; x < avail; x++) {
+							Message m = consumer.fetch();
+							Assert.assertEquals(count + 1, consumer.getLastFetchedSequence());
+							received[consumer.getIndex()][count++] = ((long) m.producerIndex << 32) | m.value;
+						}
+						consumer.doneFetching();
+					}
+				}
+			});
+		}
+		
+		for(int i = 0; i < consumers.length; i++) consumers[i].start();
+		for(int i = 0; i < producers.length; i++) producers[i].start();
+		for(int i = 0; i < producers.length; i++) producers[i].join();
+		for(int i = 0; i < consumers.length; i++) consumers[i].join();
+		
+		// all consumers saw the exact same sequence of messages
+		for(int i = 1; i < numberOfConsumers; i++) {
+			Assert.assertArrayEquals(received[0], received[i]);
+		}
+		
+		// and the messages of each producer are in the order they were sent
+		int[] next = new int[numberOfProducers];
+		for(int m = 0; m < totalMessagesToSend; m++) {
+			int producerIndex = (int) (received[0][m] >>> 32);
+			int value = (int) received[0][m];
+			Assert.assertEquals(next[producerIndex]++, value);
+		}
+	}
+	
+	@Test
+	public void testSequence() {
+		
+		SequencedMpMcBroadcaster<Message> mpmcBroadcaster = new SequencedMpMcBroadcaster<Message>(4, Message.class, 2, 2);
+		
+		// the second producer claims first but the first one flushes first, so nothing can be fetched until the second one flushes too
+		mpmcBroadcaster.nextToDispatch(1).value = 1;
+		mpmcBroadcaster.nextToDispatch(0).value = 2;
+		mpmcBroadcaster.flush(0);
+		Assert.assertEquals(0, mpmcBroadcaster.availableToFetch(0));
+		mpmcBroadcaster.flush(1);
+		
+		for(int c = 0; c < 2; c++) {
+			Assert.assertEquals(2, mpmcBroadcaster.availableToFetch(c));
+			Assert.assertEquals(1, mpmcBroadcaster.fetch(c).value);
+			Assert.assertEquals(1, mpmcBroadcaster.getLastFetchedSequence(c));
+			Assert.assertEquals(2, mpmcBroadcaster.fetch(c).value);
+			Assert.assertEquals(2, mpmcBroadcaster.getLastFetchedSequence(c));
+			Assert.assertNull(mpmcBroadcaster.fetch(c));
+		}
+		mpmcBroadcaster.doneFetching(0);
+		
+		// consumer 1 has not called doneFetching so the producers can only go up to its position plus the capacity
+		for(int i = 0; i < 2; i++) Assert.assertNotNull(mpmcBroadcaster.nextToDispatch(i % 2));
+		Assert.assertNull(mpmcBroadcaster.nextToDispatch(0));
+		mpmcBroadcaster.doneFetching(1);
+		Assert.assertNotNull(mpmcBroadcaster.nextToDispatch(0));
+		Assert.assertNotNull(mpmcBroadcaster.nextToDispatch(1));
+		Assert.assertNull(mpmcBroadcaster.nextToDispatch(1));
+		mpmcBroadcaster.flush(0);
+		mpmcBroadcaster.flush(1);
+		
+		Assert.assertEquals(4, mpmcBroadcaster.availableToFetch(1));
+	}
+	
+	@Test
+	public void testInterleavedClaims() {
+		
+		SequencedMpMcBroadcaster<Message> mpmcBroadcaster = new SequencedMpMcBroadcaster<Message>(16, Message.class, 2, 1);
+		
+		// producer 0 claims 1 and 2, producer 1 claims 3, so when producer 0 claims 4 its range 1-2 is published
+		mpmcBroadcaster.nextToDispatch(0).value = 1;
+		mpmcBroadcaster.nextToDispatch(0).value = 2;
+		mpmcBroadcaster.nextToDispatch(1).value = 3;
+		Assert.assertEquals(0, mpmcBroadcaster.availableToFetch(0));
+		mpmcBroadcaster.nextToDispatch(0).value = 4;
+		Assert.assertEquals(2, mpmcBroadcaster.availableToFetch(0));
+		
+		// 4 is held back by 3 until producer 1 flushes
+		mpmcBroadcaster.flush(0);
+		Assert.assertEquals(2, mpmcBroadcaster.availableToFetch(0));
+		mpmcBroadcaster.flush(1);
+		Assert.assertEquals(4, mpmcBroadcaster.availableToFetch(0));
+		
+		SequencedConsumer<Message> consumer = mpmcBroadcaster.getConsumer(0);
+		for(int i = 1; i <= 4; i++) {
+			Assert.assertEquals(i, consumer.fetch().value);
+			Assert.assertEquals(i, consumer.getLastFetchedSequence());
+		}
+		consumer.doneFetching();
+	}
+}
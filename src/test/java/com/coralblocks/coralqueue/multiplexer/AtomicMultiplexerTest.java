@@ -65,4 +65,111 @@ public class AtomicMultiplexerTest {
 		long sumOfAllBatches = batchesReceived.stream().mapToLong(Long::longValue).sum();
 		Assert.assertEquals(totalMessagesToSend, sumOfAllBatches);
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testRegister() {
+		
+		AtomicMultiplexer<StringBuilder> mux = new AtomicMultiplexer<StringBuilder>(16, StringBuilder.class, 2);
+		
+		com.coralblocks.coralqueue.multiplexer.Producer<StringBuilder> p0 = mux.register();
+		com.coralblocks.coralqueue.multiplexer.Producer<StringBuilder> p1 = mux.register();
+		Assert.assertEquals(0, p0.getIndex());
+		Assert.assertEquals(1, p1.getIndex());
+		Assert.assertNull(mux.register()); // no more free lanes
+		Assert.assertEquals(2, mux.getNumberOfRegisteredProducers());
+		
+		StringBuilder sb = p0.nextToDispatch();
+		sb.setLength(0);
+		sb.append("last");
+		p0.flush();
+		mux.unregister(p0);
+		
+		Assert.assertEquals(1, mux.getNumberOfRegisteredProducers());
+		Assert.assertNull(mux.register()); // lane 0 was not drained yet
+		
+		Assert.assertEquals(1, mux.availableToFetch());
+		Assert.assertEquals("last", mux.fetch().toString());
+		mux.doneFetching();
+		
+		Assert.assertNull(mux.register()); // the consumer has not seen it drained yet
+		Assert.assertEquals(0, mux.availableToFetch());
+		Assert.assertSame(p0, mux.register()); // now it was drained and can be reused
+		
+		mux.unregister(p1);
+		try {
+			mux.unregister(p1);
+			Assert.fail("Should not be able to unregister twice");
+		} catch(RuntimeException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testUnregisteredLanesAreNotPolled() {
+		
+		AtomicMultiplexer<StringBuilder> mux = new AtomicMultiplexer<StringBuilder>(16, StringBuilder.class, 70);
+		
+		com.coralblocks.coralqueue.multiplexer.Producer<StringBuilder> p0 = mux.register();
+		com.coralblocks.coralqueue.multiplexer.Producer<StringBuilder> p1 = mux.register();
+		
+		// lanes that were never registered are not read, even if something is flushed on them
+		mux.nextToDispatch(2).setLength(0);
+		mux.flush(2);
+		mux.nextToDispatch(65).setLength(0);
+		mux.flush(65);
+		Assert.assertEquals(0, mux.availableToFetch());
+		
+		p0.nextToDispatch().setLength(0);
+		p0.flush();
+		Assert.assertEquals(1, mux.availableToFetch());
+		Assert.assertNotNull(mux.fetch());
+		Assert.assertNull(mux.fetch());
+		mux.doneFetching();
+		
+		// a lane that is unregistered before the consumer polls is still read until it is drained
+		p1.nextToDispatch().setLength(0);
+		p1.flush();
+		mux.unregister(p1);
+		mux.unregister(p0);
+		Assert.assertEquals(1, mux.availableToFetch());
+		Assert.assertNotNull(mux.fetch());
+		mux.doneFetching();
+		Assert.assertEquals(0, mux.availableToFetch());
+		Assert.assertEquals(0, mux.getNumberOfRegisteredProducers());
+		
+		// both lanes are free again
+		Assert.assertSame(p0, mux.register());
+		Assert.assertSame(p1, mux.register());
+	}
+	
+	private static String fetchOrder(FetchPolicy fetchPolicy, int messagesPerProducer) {
+		
+		AtomicMultiplexer<StringBuilder> mux = new AtomicMultiplexer<StringBuilder>(16, StringBuilder.class, 3, fetchPolicy);
+		
+		for(int i = 0; i < 3; i++) {
+			for(int j = 0; j < messagesPerProducer; j++) {
+				StringBuilder sb = mux.nextToDispatch(i);
+				sb.setLength(0);
+				sb.append(i);
+			}
+			mux.flush(i);
+		}
+		
+		StringBuilder order = new StringBuilder();
+		long avail = mux.availableToFetch();
+		for(long i = 0; i < avail; i++) {
+			order.append(mux.fetch());
+		}
+		mux.doneFetching();
+		Assert.assertEquals(0, mux.availableToFetch());
+		return order.toString();
+	}
+	
+	@Test
+	public void testFetchPolicies() {
+		Assert.assertEquals("012012012012", fetchOrder(FetchPolicy.roundRobin(), 4));
+		Assert.assertEquals("001122001122", fetchOrder(FetchPolicy.batch(2), 4));
+		Assert.assertEquals("000120121212", fetchOrder(FetchPolicy.weighted(3, 1, 1), 4));
+		Assert.assertEquals("000011112222", fetchOrder(FetchPolicy.priority(), 4));
+	}
+}
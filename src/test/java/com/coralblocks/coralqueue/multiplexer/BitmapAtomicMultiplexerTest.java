@@ -0,0 +1,118 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.multiplexer;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Consumer;
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Message;
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Producer;
+
+public class BitmapAtomicMultiplexerTest {
+	
+	@Test
+	public void testAll() throws InterruptedException {
+		
+		final int messagesToSend = 1000;
+		final int batchSizeToSend = 100;
+		final int numberOfProducers = 65; // more than 64 to use two words of the bitmap
+		
+		final int totalMessagesToSend = messagesToSend * numberOfProducers;
+		
+		Multiplexer<Message> mux = new BitmapAtomicMultiplexer<Message>(Message.class, numberOfProducers);
+		
+		Producer[] producers = new Producer[numberOfProducers];
+		for(int i = 0; i < producers.length; i++) {
+			producers[i] = new Producer(mux, i, messagesToSend, batchSizeToSend);
+		}
+		
+		Consumer consumer = new Consumer(mux);
+		
+		consumer.start();
+		for(int i = 0; i < producers.length; i++) producers[i].start();
+			
+		consumer.join();
+		for(int i = 0; i < producers.length; i++) {
+			producers[i].join();
+		}
+		
+		List<Message> messagesReceived = consumer.getMessagesReceived();
+		List<Long> batchesReceived = consumer.getBatchesReceived();
+		
+		// Did we receive all messages?
+		Assert.assertEquals(totalMessagesToSend, messagesReceived.size());
+		
+		// Were there any duplicates?
+		Assert.assertEquals(messagesReceived.size(), messagesReceived.stream().distinct().count());
+		
+		// If we sum all batches do we get the correct number of messages?
+		long sumOfAllBatches = batchesReceived.stream().mapToLong(Long::longValue).sum();
+		Assert.assertEquals(totalMessagesToSend, sumOfAllBatches);
+	}
+	
+	public static class Slot {
+		int producer;
+		long value;
+	}
+	
+	@Test
+	public void testLazyFlush() throws InterruptedException {
+		
+		final int messagesToSend = 20000;
+		final int numberOfProducers = 4;
+		
+		final BitmapAtomicMultiplexer<Slot> mux = new BitmapAtomicMultiplexer<Slot>(8, Slot.class, numberOfProducers);
+		
+		Thread[] producers = new Thread[numberOfProducers];
+		for(int i = 0; i < producers.length; i++) {
+			final int producer = i;
+			producers[i] = new Thread(() -> {
+				for(int id = 1; id <= messagesToSend; id++) {
+					Slot m;
+					while((m = mux.nextToDispatch(producer)) == null) Thread.yield(); // yield so it also runs on a single core
+					m.producer = producer;
+					m.value = id;
+					mux.flush(producer, true); // one message per lazy flush, so every flush must be seen
+				}
+			});
+		}
+		
+		for(int i = 0; i < producers.length; i++) producers[i].start();
+		
+		long[] lastReceived = new long[numberOfProducers];
+		long received = 0;
+		long deadline = System.currentTimeMillis() + 30000;
+		while(received < (long) messagesToSend * numberOfProducers && System.currentTimeMillis() < deadline) {
+			long avail = mux.availableToFetch();
+			for(long i = 0; i < avail; i++) {
+				Slot m = mux.fetch();
+				Assert.assertEquals(lastReceived[m.producer] + 1, m.value);
+				lastReceived[m.producer] = m.value;
+			}
+			if (avail > 0) mux.doneFetching(true);
+			else Thread.yield();
+			received += avail;
+		}
+		
+		for(int i = 0; i < producers.length; i++) producers[i].join(1000);
+		
+		// a missed flush would strand a producer behind a full queue
+		Assert.assertEquals((long) messagesToSend * numberOfProducers, received);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.multiplexer;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Consumer;
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Message;
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Producer;
+import com.coralblocks.coralqueue.util.MutableLong;
+
+public class MpscQueueTest {
+	
+	@Test
+	public void testAll() throws InterruptedException {
+		
+		final int messagesToSend = 1000;
+		final int batchSizeToSend = 100;
+		final int numberOfProducers = 16; // more claimed slots than capacity to exercise the queue full case
+		
+		final int totalMessagesToSend = messagesToSend * numberOfProducers;
+		
+		Multiplexer<Message> mux = new MpscQueue<Message>(Message.class, numberOfProducers);
+		
+		Producer[] producers = new Producer[numberOfProducers];
+		for(int i = 0; i < producers.length; i++) {
+			producers[i] = new Producer(mux, i, messagesToSend, batchSizeToSend);
+		}
+		
+		Consumer consumer = new Consumer(mux);
+		
+		consumer.start();
+		for(int i = 0; i < producers.length; i++) producers[i].start();
+			
+		consumer.join();
+		for(int i = 0; i < producers.length; i++) {
+			producers[i].join();
+		}
+		
+		List<Message> messagesReceived = consumer.getMessagesReceived();
+		List<Long> batchesReceived = consumer.getBatchesReceived();
+		
+		// Did we receive all messages?
+		Assert.assertEquals(totalMessagesToSend, messagesReceived.size());
+		
+		// Were there any duplicates?
+		Assert.assertEquals(messagesReceived.size(), messagesReceived.stream().distinct().count());
+		
+		// If we sum all batches do we get the correct number of messages?
+		long sumOfAllBatches = batchesReceived.stream().mapToLong(Long::longValue).sum();
+		Assert.assertEquals(totalMessagesToSend, sumOfAllBatches);
+		
+		// Did the messages of each producer arrive in the order they were sent?
+		long[] lastValues = new long[numberOfProducers];
+		for(Message m : messagesReceived) {
+			Assert.assertEquals(lastValues[m.getProducerIndex()] + 1, m.getValue());
+			lastValues[m.getProducerIndex()] = m.getValue();
+		}
+	}
+	
+	@Test
+	public void testPublishing() {
+		
+		MpscQueue<MutableLong> mux = new MpscQueue<MutableLong>(8, MutableLong.class, 2);
+		
+		mux.nextToDispatch(0).set(1);
+		mux.nextToDispatch(1).set(2);
+		mux.nextToDispatch(0).set(3); // publishes 1
+		Assert.assertEquals(1, mux.availableToFetch());
+		
+		mux.flush(0); // publishes 3, but 2 is still pending
+		Assert.assertEquals(1, mux.availableToFetch());
+		
+		mux.flush(1);
+		Assert.assertEquals(3, mux.availableToFetch());
+		for(int i = 1; i <= 3; i++) Assert.assertEquals(i, mux.fetch().get());
+		mux.doneFetching();
+		
+		mux.flush(0); // nothing to publish
+		Assert.assertEquals(0, mux.availableToFetch());
+		
+		// fill it up, the producer publishes what it has before returning null
+		for(int i = 0; i < 8; i++) Assert.assertNotNull(mux.nextToDispatch(0));
+		Assert.assertNull(mux.nextToDispatch(1));
+		Assert.assertNull(mux.nextToDispatch(0));
+		Assert.assertEquals(8, mux.availableToFetch());
+	}
+}
@@ -0,0 +1,140 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.multiplexer;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Consumer;
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Message;
+import com.coralblocks.coralqueue.example.multiplexer.Basics.Producer;
+
+public class OrderedMultiplexerTest {
+	
+	@Test
+	public void testAll() throws InterruptedException {
+		
+		final int messagesToSend = 10000;
+		final int batchSizeToSend = 100;
+		final int numberOfProducers = 4;
+		
+		final int totalMessagesToSend = messagesToSend * numberOfProducers;
+		
+		Multiplexer<Message> mux = new OrderedMultiplexer<Message>(Message.class, numberOfProducers, Message::getValue);
+		
+		Producer[] producers = new Producer[numberOfProducers];
+		for(int i = 0; i < producers.length; i++) {
+			producers[i] = new Producer(mux, i, messagesToSend, batchSizeToSend);
+		}
+		
+		Consumer consumer = new Consumer(mux);
+		
+		consumer.start();
+		for(int i = 0; i < producers.length; i++) producers[i].start();
+			
+		consumer.join();
+		for(int i = 0; i < producers.length; i++) {
+			producers[i].join();
+		}
+		
+		List<Message> messagesReceived = consumer.getMessagesReceived();
+		List<Long> batchesReceived = consumer.getBatchesReceived();
+		
+		// Did we receive all messages?
+		Assert.assertEquals(totalMessagesToSend, messagesReceived.size());
+		
+		// Were there any duplicates?
+		Assert.assertEquals(messagesReceived.size(), messagesReceived.stream().distinct().count());
+		
+		// If we sum all batches do we get the correct number of messages?
+		long sumOfAllBatches = batchesReceived.stream().mapToLong(Long::longValue).sum();
+		Assert.assertEquals(totalMessagesToSend, sumOfAllBatches);
+		
+		// Were the messages received in timestamp order? (the value is used as the timestamp)
+		for(int i = 1; i < messagesReceived.size(); i++) {
+			Assert.assertTrue(messagesReceived.get(i - 1).getValue() <= messagesReceived.get(i).getValue());
+		}
+	}
+	
+	private static void send(OrderedMultiplexer<StringBuilder> mux, int producer, long ... timestamps) {
+		for(long ts : timestamps) {
+			StringBuilder sb = mux.nextToDispatch(producer);
+			sb.setLength(0);
+			sb.append(ts);
+		}
+		mux.flush(producer);
+	}
+	
+	private static String fetchAll(OrderedMultiplexer<StringBuilder> mux) {
+		StringBuilder result = new StringBuilder();
+		long avail = mux.availableToFetch();
+		for(long i = 0; i < avail; i++) {
+			if (i > 0) result.append(',');
+			result.append(mux.fetch());
+		}
+		if (avail > 0) mux.doneFetching();
+		return result.toString();
+	}
+	
+	@Test
+	public void testLatenessBound() {
+		
+		OrderedMultiplexer<StringBuilder> strict = new OrderedMultiplexer<StringBuilder>(16, StringBuilder.class, 2, sb -> Long.parseLong(sb.toString()), OrderedMultiplexer.NO_LATENESS_BOUND);
+		
+		send(strict, 0, 1, 5, 20);
+		Assert.assertEquals("", fetchAll(strict)); // producer 1 could still send something lower
+		send(strict, 1, 3);
+		Assert.assertEquals("1,3", fetchAll(strict)); // producer 1 could still send something between 3 and 5
+		send(strict, 1, 30);
+		Assert.assertEquals("5,20", fetchAll(strict));
+		
+		OrderedMultiplexer<StringBuilder> bounded = new OrderedMultiplexer<StringBuilder>(16, StringBuilder.class, 2, sb -> Long.parseLong(sb.toString()), 10);
+		
+		send(bounded, 0, 1, 5, 20);
+		Assert.assertEquals("1,5", fetchAll(bounded)); // below the watermark (20 - 10)
+		send(bounded, 1, 2);
+		Assert.assertEquals("2", fetchAll(bounded)); // late but still delivered
+		Assert.assertEquals(1, bounded.getLateCount());
+	}
+	
+	@Test
+	public void testRepeatedPoll() {
+		
+		OrderedMultiplexer<StringBuilder> mux = new OrderedMultiplexer<StringBuilder>(2, StringBuilder.class, 2, sb -> Long.parseLong(sb.toString()), OrderedMultiplexer.NO_LATENESS_BOUND);
+		
+		send(mux, 0, 1, 4);
+		send(mux, 1, 2, 5);
+		
+		Assert.assertEquals(3, mux.availableToFetch()); // 1, 2 and 4, as producer 0 could still send something between 4 and 5
+		Assert.assertEquals("1", mux.fetch().toString());
+		
+		// poll again before doneFetching, what was already fetched is not delivered again
+		Assert.assertEquals(2, mux.availableToFetch());
+		Assert.assertEquals("2", mux.fetch().toString());
+		
+		// only the fetched messages are released to the producers
+		mux.doneFetching();
+		send(mux, 0, 6);
+		Assert.assertNull(mux.nextToDispatch(0)); // 4 is still there
+		send(mux, 1, 7);
+		Assert.assertNull(mux.nextToDispatch(1)); // 5 is still there
+		
+		Assert.assertEquals("4,5,6", fetchAll(mux));
+		Assert.assertEquals(0, mux.availableToFetch()); // producer 0 could still send something between 6 and 7
+	}
+}
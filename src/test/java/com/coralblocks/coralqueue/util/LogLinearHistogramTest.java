@@ -0,0 +1,83 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+	
+	@Test
+	public void testBuckets() {
+		
+		// small values have a bucket of their own
+		for(int i = 0; i < 16; i++) {
+			Assert.assertEquals(i, LogLinearHistogram.bucketIndex(i));
+			Assert.assertEquals(i, LogLinearHistogram.bucketLowerBound(i));
+			Assert.assertEquals(i, LogLinearHistogram.bucketUpperBound(i));
+		}
+		
+		Assert.assertEquals(0, LogLinearHistogram.bucketIndex(-5));
+		Assert.assertEquals(31, LogLinearHistogram.bucketIndex(31));
+		Assert.assertEquals(32, LogLinearHistogram.bucketIndex(32));
+		Assert.assertEquals(32, LogLinearHistogram.bucketIndex(33)); // 32 and 33 share a bucket of width 2
+		Assert.assertEquals(33, LogLinearHistogram.bucketIndex(34));
+		Assert.assertEquals(LogLinearHistogram.NUMBER_OF_BUCKETS - 1, LogLinearHistogram.bucketIndex(Long.MAX_VALUE));
+		Assert.assertEquals(Long.MAX_VALUE, LogLinearHistogram.bucketUpperBound(LogLinearHistogram.NUMBER_OF_BUCKETS - 1));
+		
+		// the buckets are contiguous, each value falls inside its bucket and a bucket is never wider than 1/16 of its values
+		for(int i = 0; i < LogLinearHistogram.NUMBER_OF_BUCKETS - 1; i++) {
+			long lower = LogLinearHistogram.bucketLowerBound(i);
+			long upper = LogLinearHistogram.bucketUpperBound(i);
+			Assert.assertEquals(upper + 1, LogLinearHistogram.bucketLowerBound(i + 1));
+			Assert.assertEquals(i, LogLinearHistogram.bucketIndex(lower));
+			Assert.assertEquals(i, LogLinearHistogram.bucketIndex(upper));
+			Assert.assertTrue(upper - lower + 1 <= Math.max(1, lower / 16));
+		}
+	}
+	
+	@Test
+	public void testRecord() {
+		
+		LogLinearHistogram h = new LogLinearHistogram();
+		Assert.assertEquals(0, h.getValueAtPercentile(50));
+		Assert.assertEquals(0, h.getMean(), 0);
+		
+		for(int i = 1; i <= 100; i++) h.record(i * 1000);
+		
+		Assert.assertEquals(100, h.getTotalCount());
+		Assert.assertEquals(5050 * 1000, h.getTotalValue());
+		Assert.assertEquals(100_000, h.getMax());
+		Assert.assertEquals(50_500, h.getMean(), 0.001);
+		
+		// percentiles are the upper bound of the bucket, so within 1/16 of the real value
+		long p50 = h.getValueAtPercentile(50);
+		Assert.assertTrue(p50 >= 50_000 && p50 <= 50_000 + 50_000 / 16);
+		long p99 = h.getValueAtPercentile(99);
+		Assert.assertTrue(p99 >= 99_000 && p99 <= 100_000);
+		Assert.assertEquals(100_000, h.getValueAtPercentile(100));
+		
+		LogLinearHistogram copy = new LogLinearHistogram();
+		h.copyTo(copy);
+		Assert.assertEquals(h.getTotalCount(), copy.getTotalCount());
+		Assert.assertEquals(p50, copy.getValueAtPercentile(50));
+		
+		h.clear();
+		Assert.assertEquals(0, h.getTotalCount());
+		Assert.assertEquals(0, h.getMax());
+		Assert.assertEquals(100, copy.getTotalCount());
+	}
+}
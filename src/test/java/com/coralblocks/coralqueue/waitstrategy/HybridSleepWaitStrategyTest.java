@@ -0,0 +1,76 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HybridSleepWaitStrategyTest {
+	
+	private static final long SLACK = TimeUnit.MILLISECONDS.toNanos(20); // generous, the machine running the tests can be busy
+	
+	private static long waitAll(WaitStrategy waitStrategy, int count) {
+		long start = System.nanoTime();
+		for(int i = 0; i < count; i++) waitStrategy.await();
+		return System.nanoTime() - start;
+	}
+	
+	@Test
+	public void testBelowParkOvershoot() {
+		
+		final long sleepTime = TimeUnit.MICROSECONDS.toNanos(20);
+		
+		// the sleep is shorter than the expected overshoot, so it only busy sleeps
+		HybridSleepWaitStrategy waitStrategy = new HybridSleepWaitStrategy(-1, sleepTime, TimeUnit.MICROSECONDS.toNanos(50));
+		long elapsed = waitAll(waitStrategy, 10);
+		
+		Assert.assertTrue(elapsed >= 10 * sleepTime);
+		Assert.assertTrue(elapsed < 10 * sleepTime + SLACK);
+	}
+	
+	@Test
+	public void testAboveParkOvershoot() {
+		
+		final long sleepTime = TimeUnit.MILLISECONDS.toNanos(2);
+		
+		// parks for most of the sleep and busy sleeps the rest
+		HybridSleepWaitStrategy waitStrategy = new HybridSleepWaitStrategy(-1, sleepTime, TimeUnit.MICROSECONDS.toNanos(50));
+		long elapsed = waitAll(waitStrategy, 10);
+		
+		Assert.assertTrue(elapsed >= 10 * sleepTime);
+		Assert.assertTrue(elapsed < 10 * sleepTime + SLACK);
+		Assert.assertTrue(waitStrategy.getParkOvershoot() >= 0);
+	}
+	
+	@Test
+	public void testReset() {
+		
+		HybridSleepWaitStrategy waitStrategy = new HybridSleepWaitStrategy(3, 1000, 0);
+		
+		Assert.assertFalse(waitStrategy.await());
+		Assert.assertFalse(waitStrategy.await());
+		Assert.assertTrue(waitStrategy.await());
+		Assert.assertTrue(waitStrategy.await());
+		
+		// the count starts again
+		waitStrategy.reset();
+		Assert.assertFalse(waitStrategy.await());
+		Assert.assertFalse(waitStrategy.await());
+		Assert.assertTrue(waitStrategy.await());
+	}
+}
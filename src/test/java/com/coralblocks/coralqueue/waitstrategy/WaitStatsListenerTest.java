@@ -0,0 +1,102 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WaitStatsListenerTest {
+	
+	@Test
+	public void testFirstAwaitIsCounted() {
+		
+		final long parkTime = TimeUnit.MILLISECONDS.toNanos(20);
+		
+		WaitStrategy waitStrategy = new ParkWaitStrategy(parkTime);
+		WaitStatsListener listener = new WaitStatsListener();
+		waitStrategy.addListener(listener);
+		
+		// a wait with a single park
+		waitStrategy.await();
+		waitStrategy.reset();
+		
+		WaitStats stats = listener.createSnapshot();
+		listener.snapshot(stats);
+		
+		Assert.assertEquals(1, stats.getNumberOfPhases());
+		Assert.assertEquals("ParkWaitStrategy", stats.getPhaseName(0));
+		Assert.assertEquals(1, stats.getAwaitCount(0));
+		Assert.assertEquals(1, stats.getReachedCount(0));
+		Assert.assertTrue(stats.getTimeSpentInNanos(0) >= parkTime);
+		Assert.assertTrue(stats.getWaitHistogram(0).getMax() >= parkTime);
+	}
+	
+	@Test
+	public void testPhases() {
+		
+		final long parkTime = TimeUnit.MILLISECONDS.toNanos(5);
+		
+		WaitStrategy waitStrategy = new CompositeWaitStrategy(new BusySpinWaitStrategy(3), new ParkWaitStrategy(parkTime));
+		WaitStatsListener listener = new WaitStatsListener();
+		waitStrategy.addListener(listener);
+		
+		// first wait only spins
+		waitStrategy.await();
+		waitStrategy.await();
+		waitStrategy.reset();
+		
+		// second wait gets to park twice
+		for(int i = 0; i < 5; i++) waitStrategy.await();
+		waitStrategy.reset();
+		
+		WaitStats stats = listener.createSnapshot();
+		listener.snapshot(stats);
+		
+		Assert.assertEquals(2, stats.getNumberOfPhases());
+		Assert.assertEquals(5, stats.getAwaitCount(0));
+		Assert.assertEquals(2, stats.getAwaitCount(1));
+		Assert.assertEquals(1, stats.getReachedCount(0));
+		Assert.assertEquals(1, stats.getReachedCount(1));
+		Assert.assertTrue(stats.getTimeSpentInNanos(1) >= 2 * parkTime);
+		Assert.assertTrue(stats.getWaitHistogram(1).getMax() >= 2 * parkTime);
+	}
+	
+	@Test
+	public void testTooManyPhases() {
+		
+		SwitchableWaitStrategy waitStrategy = new SwitchableWaitStrategy(new BusySpinWaitStrategy());
+		WaitStatsListener listener = new WaitStatsListener(2);
+		waitStrategy.addListener(listener);
+		
+		for(int i = 0; i < 5; i++) {
+			waitStrategy.await();
+			waitStrategy.switchTo(i % 2 == 0 ? new YieldWaitStrategy() : new BusySpinWaitStrategy()); // a new phase each time
+			waitStrategy.reset();
+		}
+		
+		WaitStats stats = listener.createSnapshot();
+		listener.snapshot(stats);
+		
+		Assert.assertEquals(2, stats.getNumberOfPhases());
+		Assert.assertEquals("BusySpinWaitStrategy", stats.getPhaseName(0));
+		Assert.assertEquals(WaitStats.OTHER_PHASE_NAME, stats.getPhaseName(1));
+		Assert.assertEquals(1, stats.getAwaitCount(0));
+		Assert.assertEquals(4, stats.getAwaitCount(1));
+		Assert.assertEquals(4, stats.getReachedCount(1));
+	}
+}
@@ -0,0 +1,99 @@
+/* 
+ * Copyright 2015-2024 (c) CoralBlocks LLC - http://www.coralblocks.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.coralblocks.coralqueue.waitstrategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WaitStrategiesTest {
+	
+	@Test
+	public void testParseDuration() {
+		Assert.assertEquals(500, WaitStrategies.parseDuration("500"));
+		Assert.assertEquals(500, WaitStrategies.parseDuration("500ns"));
+		Assert.assertEquals(10_000, WaitStrategies.parseDuration("10us"));
+		Assert.assertEquals(1_000_000, WaitStrategies.parseDuration(" 1MS "));
+		Assert.assertEquals(2_000_000_000L, WaitStrategies.parseDuration("2s"));
+		Assert.assertEquals(1_500_000, WaitStrategies.parseDuration("1_500us"));
+	}
+	
+	@Test
+	public void testParse() {
+		
+		Assert.assertTrue(WaitStrategies.parse("spin") instanceof BusySpinWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("yield") instanceof YieldWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("park") instanceof ParkWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("park:10us") instanceof ParkWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("park:1us-1ms") instanceof ParkBackOffWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("park:1000-100000/1000") instanceof ParkBackOffWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("sleep:2ms") instanceof SleepWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("sleep:1-10") instanceof SleepBackOffWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("busysleep:1us") instanceof BusySleepWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("busysleep:1us-1ms") instanceof BusySleepBackOffWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("hybrid:100us") instanceof HybridSleepWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse("signal:1ms") instanceof VirtualThreadWaitStrategy);
+		Assert.assertTrue(WaitStrategies.parse(" Spin:1000 , yield*10, park:1us-1ms ") instanceof CompositeWaitStrategy);
+	}
+	
+	@Test
+	public void testCount() {
+		
+		WaitStrategy waitStrategy = WaitStrategies.parse("spin:3");
+		Assert.assertFalse(waitStrategy.await());
+		Assert.assertFalse(waitStrategy.await());
+		Assert.assertTrue(waitStrategy.await());
+		
+		waitStrategy = WaitStrategies.parse("park:1us*2");
+		Assert.assertFalse(waitStrategy.await());
+		Assert.assertTrue(waitStrategy.await());
+	}
+	
+	@Test
+	public void testSleepInMillisByDefault() {
+		
+		WaitStrategy waitStrategy = WaitStrategies.parse("sleep:1");
+		Assert.assertTrue(waitStrategy instanceof SleepWaitStrategy);
+		
+		long start = System.nanoTime();
+		waitStrategy.await();
+		Assert.assertTrue(System.nanoTime() - start >= 1_000_000L);
+	}
+	
+	private static void assertInvalid(String config) {
+		try {
+			WaitStrategies.parse(config);
+			Assert.fail("Should not parse: " + config);
+		} catch(IllegalArgumentException e) {
+			// good
+		}
+	}
+	
+	@Test
+	public void testErrors() {
+		assertInvalid("foo");
+		assertInvalid("spin,yield"); // only the last phase can wait forever
+		assertInvalid("spin:10*10");
+		assertInvalid("spin:abc");
+		assertInvalid("park:10xs");
+		assertInvalid("park:-10");
+		assertInvalid("park:10ms-1ms"); // start after max
+		assertInvalid("park:1us-1ms/0");
+		assertInvalid("park:1us-");
+		assertInvalid("sleep:500us"); // whole milliseconds only
+		assertInvalid("park:9223372036854775807s"); // overflow
+		assertInvalid("sleep:9223372036854775807");
+	}
+}